@@ -6,6 +6,13 @@ TRUNCATE_TABLE="truncate 'usertable'"
 
 CREATE_TABLE="n_splits=40; create 'usertable', 'cf', {SPLITS => (1..n_splits).map {|i| \"rhel#{10+i*(90-10)/n_splits}\"}}"
 
+# With hbase.saltbuckets=40 in SUT_PARAMETERS, split the table at the salt buckets instead
+#CREATE_TABLE="n_buckets=40; create 'usertable', 'cf', {SPLITS => (1...n_buckets).map {|i| \"%02d:\" % i}}"
+
+# With hbase.aggregate=true in SUT_PARAMETERS, the window queries are aggregated by the region servers.
+# Put the hbase10 binding jar on the classpath of the region servers and load the endpoint on the table
+#CREATE_TABLE="n_splits=40; create 'usertable', 'cf', {SPLITS => (1..n_splits).map {|i| \"rhel#{10+i*(90-10)/n_splits}\"}, METADATA => {'coprocessor\$1' => '|org.apache.hadoop.hbase.coprocessor.AggregateImplementation||'}}"
+
 CHECK_STATS_DB="status 'simple'"
 
 #COUNT_ROWS_IN_TABLE="count 'usertable', INTERVAL=>1000000"
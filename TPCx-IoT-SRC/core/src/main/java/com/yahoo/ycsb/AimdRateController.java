@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.yahoo.ycsb.measurements.Measurements;
+
+/**
+ * Adapts the rate of one client thread to the load the database takes, so an
+ * overloaded system is not pushed further into overload.
+ *
+ * {@link DBWrapper} reports the outcome of every operation. Once per
+ * {@link #INTERVAL_PROPERTY}, the admitted rate of the thread is cut by
+ * {@link #DECREASE_PROPERTY} if an operation in the interval returned an overload
+ * status or took longer than {@link #LATENCY_THRESHOLD_PROPERTY}; otherwise it
+ * grows by {@link #INCREASE_PROPERTY}, up to the target the thread started with.
+ * The admitted rate of each interval is reported as the
+ * {@value #ADMITTED_RATE_GAUGE} gauge, in operations per second per thread, 0
+ * while there is no limit.
+ */
+public class AimdRateController {
+
+  /** Whether the client threads adapt their rate to overload. */
+  public static final String AIMD_PROPERTY = "aimd";
+  public static final String AIMD_PROPERTY_DEFAULT = "false";
+
+  /** The factor the rate is multiplied with after an overloaded interval. */
+  public static final String DECREASE_PROPERTY = "aimd.decrease";
+  public static final String DECREASE_PROPERTY_DEFAULT = "0.5";
+
+  /** The operations per second added to the rate of each thread after a healthy interval. */
+  public static final String INCREASE_PROPERTY = "aimd.increase";
+  public static final String INCREASE_PROPERTY_DEFAULT = "10";
+
+  /** How often the rate is adjusted, in ms. */
+  public static final String INTERVAL_PROPERTY = "aimd.interval";
+  public static final String INTERVAL_PROPERTY_DEFAULT = "1000";
+
+  /** Operations slower than this, in ms, count as overload. 0 looks at the status only. */
+  public static final String LATENCY_THRESHOLD_PROPERTY = "aimd.latencythreshold";
+  public static final String LATENCY_THRESHOLD_PROPERTY_DEFAULT = "0";
+
+  /** The lowest rate of a thread, in operations per second. */
+  public static final String MIN_RATE_PROPERTY = "aimd.minrate";
+  public static final String MIN_RATE_PROPERTY_DEFAULT = "1";
+
+  /** The comma separated names of the statuses that signal overload. */
+  public static final String OVERLOAD_STATUSES_PROPERTY = "aimd.overloadstatuses";
+  public static final String OVERLOAD_STATUSES_PROPERTY_DEFAULT = "ERROR,SERVICE_UNAVAILABLE";
+
+  /** The name of the admitted rate time series. */
+  public static final String ADMITTED_RATE_GAUGE = "AIMD_ADMITTED_RATE";
+
+  /**
+   * The rate only grows while the thread achieves this share of it, so it does not
+   * run away while the thread is held back by something else.
+   */
+  private static final double ACHIEVED_SHARE = 0.9;
+
+  private final ClientThread client;
+  private final Measurements measurements;
+  private final String gauge;
+  private final double decrease;
+  private final double increase;
+  private final long intervalNs;
+  private final long latencyThresholdUs;
+  private final double minRate;
+  private final Set<String> overloadStatuses = new HashSet<String>();
+  /** The target the thread started with, in operations per second; 0 for no limit. */
+  private final double maxRate;
+
+  /** The admitted rate, in operations per second; 0 for no limit. */
+  private double rate;
+  private long intervalStartNs;
+  private long intervalOps;
+  private boolean overloaded;
+
+  /** @return True if the properties ask for adaptive rates. */
+  public static boolean isEnabled(Properties props) {
+    return Boolean.parseBoolean(props.getProperty(AIMD_PROPERTY, AIMD_PROPERTY_DEFAULT));
+  }
+
+  /**
+   * @param props The properties defining the experiment.
+   * @param client The thread to pace; its current target is the highest rate admitted.
+   * @param gauge The name to report the admitted rate under.
+   * @throws IllegalArgumentException if the decrease factor is not between 0 and 1.
+   */
+  AimdRateController(Properties props, ClientThread client, String gauge) {
+    this.client = client;
+    this.measurements = Measurements.getMeasurements();
+    this.gauge = gauge;
+    decrease = Double.parseDouble(props.getProperty(DECREASE_PROPERTY, DECREASE_PROPERTY_DEFAULT));
+    if (decrease <= 0 || decrease >= 1) {
+      throw new IllegalArgumentException(DECREASE_PROPERTY + " must be between 0 and 1");
+    }
+    increase = Double.parseDouble(props.getProperty(INCREASE_PROPERTY, INCREASE_PROPERTY_DEFAULT));
+    intervalNs = TimeUnit.MILLISECONDS.toNanos(
+        Long.parseLong(props.getProperty(INTERVAL_PROPERTY, INTERVAL_PROPERTY_DEFAULT)));
+    latencyThresholdUs = (long) (Double.parseDouble(
+        props.getProperty(LATENCY_THRESHOLD_PROPERTY, LATENCY_THRESHOLD_PROPERTY_DEFAULT)) * 1000);
+    minRate = Double.parseDouble(props.getProperty(MIN_RATE_PROPERTY, MIN_RATE_PROPERTY_DEFAULT));
+    for (String status : props.getProperty(OVERLOAD_STATUSES_PROPERTY, OVERLOAD_STATUSES_PROPERTY_DEFAULT)
+        .split(",")) {
+      overloadStatuses.add(status.trim());
+    }
+    maxRate = client.getTargetPerMs() * 1000;
+    rate = maxRate;
+    intervalStartNs = System.nanoTime();
+  }
+
+  /**
+   * Counts the outcome of one operation of the thread, and adjusts its rate at the end
+   * of an interval. Asynchronous operations may complete on other threads.
+   *
+   * @param status The status the binding returned.
+   * @param latencyUs How long the operation took.
+   */
+  public void onOutcome(Status status, long latencyUs) {
+    onOutcome(status, latencyUs, System.nanoTime());
+  }
+
+  synchronized void onOutcome(Status status, long latencyUs, long nowNs) {
+    intervalOps++;
+    if ((status != null && overloadStatuses.contains(status.getName()))
+        || (latencyThresholdUs > 0 && latencyUs > latencyThresholdUs)) {
+      overloaded = true;
+    }
+
+    long elapsedNs = nowNs - intervalStartNs;
+    if (elapsedNs < intervalNs) {
+      return;
+    }
+    double achieved = intervalOps * 1e9 / elapsedNs;
+    double previous = rate;
+    if (overloaded) {
+      // Cut from what the thread really did, which may be far below an unreached target.
+      double base = rate > 0 ? Math.min(rate, achieved) : achieved;
+      rate = Math.max(minRate, base * decrease);
+    } else if (rate > 0 && achieved >= rate * ACHIEVED_SHARE) {
+      rate += increase;
+      if (maxRate > 0 && rate >= maxRate) {
+        rate = maxRate;
+      }
+    }
+    if (rate != previous) {
+      client.setTargetPerMs(rate / 1000);
+    }
+    measurements.measureGauge(gauge, (int) Math.round(rate));
+
+    intervalStartNs = nowNs;
+    intervalOps = 0;
+    overloaded = false;
+  }
+
+  /** @return The admitted rate in operations per second, 0 for no limit. */
+  public synchronized double getRate() {
+    return rate;
+  }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import java.util.HashMap;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Implemented by {@link DB} bindings whose client library can have several
+ * requests outstanding at once. Each method starts the operation and returns
+ * without waiting for the round trip; the returned stage completes with the
+ * outcome of the operation.
+ *
+ * When more than one operation per client is allowed to be in flight (see
+ * {@link DBWrapper#MAX_IN_FLIGHT_PROPERTY}), {@link DBWrapper} calls these
+ * methods instead of their synchronous counterparts and measures the latency
+ * when the stage completes. Bindings that do not implement this interface are
+ * run through {@link SyncAsyncDB}.
+ *
+ * Completion callbacks may run on a thread of the client library, so the
+ * stages must not be completed while holding locks the client thread needs.
+ */
+public interface AsyncDB {
+
+  /**
+   * Asynchronous version of {@link DB#insert(String, String, HashMap)}. The
+   * values must not be modified by the caller until the stage completes.
+   *
+   * @param table The name of the table
+   * @param key The record key of the record to insert.
+   * @param values A HashMap of field/value pairs to insert in the record
+   * @return The result of the operation, once it is known.
+   */
+  CompletionStage<Status> insertAsync(String table, String key, HashMap<String, ByteIterator> values);
+
+  /**
+   * Asynchronous version of the TPCx-IoT
+   * {@link DB#scan(String, String, String, String, Set, long, Vector, Vector)}. The result vectors
+   * are filled by the time the stage completes.
+   *
+   * @param table The name of the table
+   * @param key The  key of the sensor to use for read
+   * @param client The client the sensor belongs to
+   * @param timestamp The timestamp that you want to read after
+   * @param fields The list of fields to read, or null for all of them
+   * @param runStartTime The start time of the run, or 0 if unknown
+   * @param result1 The records of the latest time interval
+   * @param result2 The records of a random earlier time interval
+   * @return The result of the operation, once it is known.
+   */
+  CompletionStage<Status> scanAsync(String table, String key, String client, String timestamp, Set<String> fields,
+                                    long runStartTime, Vector<HashMap<String, ByteIterator>> result1,
+                                    Vector<HashMap<String, ByteIterator>> result2);
+}
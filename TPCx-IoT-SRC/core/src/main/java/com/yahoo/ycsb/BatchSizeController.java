@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import com.yahoo.ycsb.measurements.Measurements;
+
+/**
+ * Chooses the batch size of a binding that buffers writes, so it does not have to be
+ * swept by hand for every cluster.
+ *
+ * The binding flushes once its batch reaches {@link #getBatchSize()} and reports each
+ * flush with {@link #onFlush(int, long)}. With {@link #ADAPTIVE_PROPERTY} set, every
+ * {@link #WINDOW_PROPERTY} flushes the controller compares the records per second of
+ * the window with those of the previous one and keeps growing or shrinking the batch
+ * by {@link #STEP_PROPERTY} while that helps, and reverses otherwise. A window with a
+ * flush slower than {@link #TARGET_FLUSH_LATENCY_PROPERTY} always shrinks it. The
+ * chosen sizes are reported as the "name_BATCH_SIZE" gauge.
+ *
+ * The unit of the batch size is up to the binding, e.g. rows or bytes. Without
+ * {@link #ADAPTIVE_PROPERTY} the batch size stays at the one the binding starts with.
+ */
+public class BatchSizeController {
+
+  /** Whether batching bindings adapt their batch size. */
+  public static final String ADAPTIVE_PROPERTY = "batchsize.adaptive";
+  public static final String ADAPTIVE_PROPERTY_DEFAULT = "false";
+
+  /** The longest a flush should take, in ms. */
+  public static final String TARGET_FLUSH_LATENCY_PROPERTY = "batchsize.targetflushms";
+  public static final String TARGET_FLUSH_LATENCY_PROPERTY_DEFAULT = "1000";
+
+  /** The smallest batch size; by default a 16th of the starting size. */
+  public static final String MIN_PROPERTY = "batchsize.min";
+
+  /** The largest batch size; by default 16 times the starting size. */
+  public static final String MAX_PROPERTY = "batchsize.max";
+
+  /** The factor the batch size grows or shrinks by at each step. */
+  public static final String STEP_PROPERTY = "batchsize.step";
+  public static final String STEP_PROPERTY_DEFAULT = "1.25";
+
+  /** The number of flushes each batch size is measured over. */
+  public static final String WINDOW_PROPERTY = "batchsize.window";
+  public static final String WINDOW_PROPERTY_DEFAULT = "5";
+
+  /** A window must beat the previous one by this share to count as better. */
+  private static final double TOLERANCE = 0.02;
+
+  private final String gauge;
+  private final boolean adaptive;
+  private final long targetFlushNs;
+  private final int minSize;
+  private final int maxSize;
+  private final double step;
+  private final int window;
+
+  private int size;
+  /** 1 while the batch size grows, -1 while it shrinks. */
+  private int direction = 1;
+  private double lastThroughput;
+
+  private long windowStartNs;
+  private long windowRecords;
+  private int windowFlushes;
+  private long windowMaxFlushNs;
+
+  /**
+   * @param props The properties defining the experiment.
+   * @param name The name to report the chosen sizes under, e.g. the binding name.
+   * @param initialSize The batch size to start with.
+   */
+  public BatchSizeController(Properties props, String name, int initialSize) {
+    gauge = name + "_BATCH_SIZE";
+    adaptive = Boolean.parseBoolean(props.getProperty(ADAPTIVE_PROPERTY, ADAPTIVE_PROPERTY_DEFAULT));
+    targetFlushNs = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(
+        props.getProperty(TARGET_FLUSH_LATENCY_PROPERTY, TARGET_FLUSH_LATENCY_PROPERTY_DEFAULT)));
+    minSize = Math.max(1, Integer.parseInt(
+        props.getProperty(MIN_PROPERTY, String.valueOf(initialSize / 16))));
+    maxSize = Math.max(minSize, Integer.parseInt(
+        props.getProperty(MAX_PROPERTY, String.valueOf((int) Math.min(Integer.MAX_VALUE, initialSize * 16L)))));
+    step = Double.parseDouble(props.getProperty(STEP_PROPERTY, STEP_PROPERTY_DEFAULT));
+    if (step <= 1) {
+      throw new IllegalArgumentException(STEP_PROPERTY + " must be above 1");
+    }
+    window = Math.max(1, Integer.parseInt(props.getProperty(WINDOW_PROPERTY, WINDOW_PROPERTY_DEFAULT)));
+    size = adaptive ? Math.min(maxSize, Math.max(minSize, initialSize)) : initialSize;
+  }
+
+  /** @return True if the batch size adapts, false if it stays fixed. */
+  public boolean isAdaptive() {
+    return adaptive;
+  }
+
+  /** @return The largest batch size the controller may choose. */
+  public int getMaxBatchSize() {
+    return adaptive ? maxSize : size;
+  }
+
+  /** @return The number of records (or bytes) to flush the batch at. */
+  public synchronized int getBatchSize() {
+    return size;
+  }
+
+  /**
+   * Reports one flush of the binding.
+   *
+   * @param records The number of records flushed.
+   * @param flushNs How long the flush took.
+   */
+  public void onFlush(int records, long flushNs) {
+    onFlush(records, flushNs, System.nanoTime());
+  }
+
+  synchronized void onFlush(int records, long flushNs, long nowNs) {
+    if (!adaptive) {
+      return;
+    }
+    if (windowFlushes == 0 && windowStartNs == 0) {
+      // Nothing to measure the filling of the first batch from.
+      windowStartNs = nowNs - flushNs;
+    }
+    windowRecords += records;
+    windowFlushes++;
+    windowMaxFlushNs = Math.max(windowMaxFlushNs, flushNs);
+    if (windowFlushes < window || nowNs <= windowStartNs) {
+      return;
+    }
+
+    double throughput = windowRecords * 1e9 / (nowNs - windowStartNs);
+    if (windowMaxFlushNs > targetFlushNs) {
+      direction = -1;
+    } else if (lastThroughput > 0 && throughput < lastThroughput * (1 + TOLERANCE)) {
+      direction = -direction;
+    }
+    lastThroughput = throughput;
+
+    int next = direction > 0 ? (int) Math.min(maxSize, Math.ceil(size * step))
+        : (int) Math.max(minSize, Math.floor(size / step));
+    if (next == size) {
+      // Against a bound: probe the other way next time.
+      direction = -direction;
+    }
+    size = next;
+    Measurements.getMeasurements().measureGauge(gauge, size);
+
+    windowStartNs = nowNs;
+    windowRecords = 0;
+    windowFlushes = 0;
+    windowMaxFlushNs = 0;
+  }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import java.util.Arrays;
+
+import com.yahoo.ycsb.measurements.Measurements;
+
+/**
+ * Follows the records of one batch of a binding that buffers writes, to report when they
+ * became durable.
+ *
+ * A buffering binding returns from insert as soon as the record is buffered, so the
+ * INSERT latency does not tell when the data is durable, and a failed flush fails only
+ * the insert that triggered it. The binding instead calls {@link #add(long)} for each
+ * record it buffers and {@link #complete(long, Status)} after the flush, which reports
+ * the ack latency of every record in the batch, the flush and the batch size through
+ * {@link Measurements#measureBatch}.
+ *
+ * A tracker is not thread safe; it must be guarded like the batch it follows.
+ */
+public final class BatchTracker {
+
+  private final String name;
+  private long[] enqueueNs = new long[1024];
+  private int records;
+  private long bytes;
+
+  /**
+   * @param name The name to report the batches under, e.g. the binding name.
+   */
+  public BatchTracker(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Notes that a record was buffered now.
+   *
+   * @param recordBytes The size of the record.
+   */
+  public void add(long recordBytes) {
+    add(recordBytes, System.nanoTime());
+  }
+
+  /**
+   * Notes that a record was buffered at the given time, for bindings that hand
+   * records to the thread flushing them through a queue of their own.
+   *
+   * @param recordBytes The size of the record.
+   * @param enqueuedNs When the record was buffered, from System.nanoTime().
+   */
+  public void add(long recordBytes, long enqueuedNs) {
+    if (records == enqueueNs.length) {
+      enqueueNs = Arrays.copyOf(enqueueNs, records * 2);
+    }
+    enqueueNs[records++] = enqueuedNs;
+    bytes += recordBytes;
+  }
+
+  /** @return The number of records buffered since the last completion. */
+  public int size() {
+    return records;
+  }
+
+  /** @return The bytes of the records buffered since the last completion. */
+  public long bytes() {
+    return bytes;
+  }
+
+  /**
+   * Reports the flush of the buffered records and starts a new batch.
+   *
+   * @param flushNs How long the flush took.
+   * @param outcome The outcome of the flush, for all records of the batch.
+   */
+  public void complete(long flushNs, Status outcome) {
+    if (records > 0) {
+      Measurements.getMeasurements().measureBatch(name, records, bytes, enqueueNs, flushNs, outcome);
+    }
+    records = 0;
+    bytes = 0;
+  }
+
+  /**
+   * Reports the flush of the buffered records, each with an outcome of its own, and
+   * starts a new batch.
+   *
+   * @param flushNs How long the flush took.
+   * @param outcomes The outcome of each record, in the order they were added.
+   */
+  public void complete(long flushNs, Status[] outcomes) {
+    if (records > 0) {
+      Measurements.getMeasurements().measureBatch(name, records, bytes, enqueueNs, flushNs, outcomes);
+    }
+    records = 0;
+    bytes = 0;
+  }
+}
@@ -25,13 +25,16 @@ import java.io.OutputStream;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.LockSupport;
@@ -44,6 +47,24 @@ import com.yahoo.ycsb.measurements.Measurements;
 import com.yahoo.ycsb.measurements.exporter.MeasurementsExporter;
 import com.yahoo.ycsb.measurements.exporter.TextMeasurementsExporter;
 
+/**
+ * Something that executes operations on behalf of the client, such as a {@link ClientThread}.
+ */
+interface ClientProgress
+{
+  /** @return The number of operations done so far. */
+  long getOpsDone();
+
+  /** @return The number of operations claimed but not yet done. */
+  long getOpsTodo();
+
+  /** @return The wall clock time, in ms, spent running operations; 0 while still running. */
+  long getRunTimeMs();
+
+  /** @return The pool the operations are claimed from. */
+  WorkCounter getWorkCounter();
+}
+
 /**
  * A thread to periodically show the status of the experiment, to reassure you that progress is being made.
  *
@@ -61,7 +82,7 @@ class StatusThread extends Thread
   private final boolean _trackJVMStats;
   
   /** The clients that are running. */
-  private final List<ClientThread> _clients;
+  private final List<? extends ClientProgress> _clients;
 
   private final String _label;
   private final boolean _standardstatus;
@@ -88,7 +109,7 @@ class StatusThread extends Thread
    * @param standardstatus If true the status is printed to stdout in addition to stderr.
    * @param statusIntervalSeconds The number of seconds between status updates.
    */
-  public StatusThread(CountDownLatch completeLatch, List<ClientThread> clients,
+  public StatusThread(CountDownLatch completeLatch, List<? extends ClientProgress> clients,
                       String label, boolean standardstatus, int statusIntervalSeconds)
   {
     this(completeLatch, clients, label, standardstatus, statusIntervalSeconds, false);
@@ -104,7 +125,7 @@ class StatusThread extends Thread
    * @param statusIntervalSeconds The number of seconds between status updates.
    * @param trackJVMStats Whether or not to track JVM stats.
    */
-  public StatusThread(CountDownLatch completeLatch, List<ClientThread> clients,
+  public StatusThread(CountDownLatch completeLatch, List<? extends ClientProgress> clients,
                       String label, boolean standardstatus, int statusIntervalSeconds,
                       boolean trackJVMStats)
   {
@@ -173,10 +194,16 @@ class StatusThread extends Thread
     long todoops=0;
 
     // Calculate the total number of operations completed.
-    for (ClientThread t : _clients)
+    Set<WorkCounter> pools = Collections.newSetFromMap(new IdentityHashMap<WorkCounter, Boolean>());
+    for (ClientProgress t : _clients)
     {
       totalops+=t.getOpsDone();
       todoops+=t.getOpsTodo();
+      pools.add(t.getWorkCounter());
+    }
+    for (WorkCounter pool : pools)
+    {
+      todoops+=pool.getRemaining();
     }
 
 
@@ -357,8 +384,17 @@ class RemainingFormatter {
  * @author cooperb
  *
  */
-class ClientThread implements Runnable
+class ClientThread implements Runnable, ClientProgress
 {
+  /**
+   * Which operations a thread runs in the transaction phase: the mixed workload, or
+   * only the ingest or only the query side of it.
+   */
+  enum Role { MIXED, INGEST, QUERY }
+
+  /** How long a waiting thread parks before checking again whether it may run. */
+  private static final long WAIT_POLL_NS = TimeUnit.MILLISECONDS.toNanos(10);
+
   /** Counts down each of the clients completing. */
   private final CountDownLatch _completeLatch;
 
@@ -366,16 +402,48 @@ class ClientThread implements Runnable
   DB _db;
   boolean _dotransactions;
   Workload _workload;
-  int _opcount;
-  double _targetOpsPerMs;
-
-  int _opsdone;
+  final WorkCounter _work;
+  final long _workchunk;
+  volatile double _targetOpsPerMs;
+
+  /** Operations claimed from {@link #_work} by this thread, done or not. */
+  long _opsclaimed;
+  volatile long _opsdone;
+  volatile long _runtimeMs;
   int _threadid;
   int _threadcount;
   Object _workloadstate;
   Properties _props;
-  long _targetOpsTickNs;
+  volatile long _targetOpsTickNs;
   final Measurements _measurements;
+  Role _role = Role.MIXED;
+  volatile boolean _stopRequested;
+  /** Whether this thread runs operations now, or waits to be activated. */
+  volatile boolean _active = true;
+  /** Set when the target or the activity changes, to restart the pacing. */
+  volatile boolean _pacingChanged;
+  /** Time and operation count the throttle paces from. */
+  long _paceStartNs;
+  long _paceStartOps;
+
+  /**
+   * Constructor for a thread with a fixed share of the operations.
+   *
+   * @param db the DB implementation to use
+   * @param dotransactions true to do transactions, false to insert data
+   * @param workload the workload to use
+   * @param props the properties defining the experiment
+   * @param opcount the number of operations (transactions or inserts) to do, or 0 to run until
+   *                stopped
+   * @param targetperthreadperms target number of operations per thread per ms
+   * @param completeLatch The latch tracking the completion of all clients.
+   */
+  public ClientThread(DB db, boolean dotransactions, Workload workload, Properties props, long opcount, double targetperthreadperms, CountDownLatch completeLatch)
+  {
+    // An unbounded pool hands out any chunk; claiming one at a time keeps the thread going.
+    this(db, dotransactions, workload, props, new WorkCounter(opcount), opcount == 0 ? 1 : opcount,
+        targetperthreadperms, completeLatch);
+  }
 
   /**
    * Constructor.
@@ -384,16 +452,18 @@ class ClientThread implements Runnable
    * @param dotransactions true to do transactions, false to insert data
    * @param workload the workload to use
    * @param props the properties defining the experiment
-   * @param opcount the number of operations (transactions or inserts) to do
+   * @param work the pool of operations (transactions or inserts) shared with the other threads
+   * @param workchunk the number of operations to claim from the pool at a time
    * @param targetperthreadperms target number of operations per thread per ms
    * @param completeLatch The latch tracking the completion of all clients.
    */
-  public ClientThread(DB db, boolean dotransactions, Workload workload, Properties props, int opcount, double targetperthreadperms, CountDownLatch completeLatch)
+  public ClientThread(DB db, boolean dotransactions, Workload workload, Properties props, WorkCounter work, long workchunk, double targetperthreadperms, CountDownLatch completeLatch)
   {
     _db=db;
     _dotransactions=dotransactions;
     _workload=workload;
-    _opcount=opcount;
+    _work=work;
+    _workchunk=workchunk;
     _opsdone=0;
     if(targetperthreadperms > 0){
       _targetOpsPerMs=targetperthreadperms;
@@ -401,15 +471,68 @@ class ClientThread implements Runnable
     }
     _props=props;
     _measurements = Measurements.getMeasurements();
-    _spinSleep = Boolean.valueOf(_props.getProperty("spin.sleep", "false"));
+    // Spinning would hold on to the carrier thread of a virtual thread, so
+    // virtual clients always park.
+    _spinSleep = Boolean.valueOf(_props.getProperty("spin.sleep", "false"))
+        && !Client.THREAD_MODE_VIRTUAL.equals(_props.getProperty(Client.THREAD_MODE_PROPERTY));
     _completeLatch=completeLatch;
   }
 
-  public int getOpsDone()
+  /** Sets which operations this thread runs in the transaction phase. */
+  void setRole(Role role)
+  {
+    _role = role;
+  }
+
+  /**
+   * Changes the target rate of this thread while it runs.
+   *
+   * @param targetperthreadperms target number of operations per ms, or a value <= 0 for no limit
+   */
+  void setTargetPerMs(double targetperthreadperms)
+  {
+    _targetOpsTickNs = targetperthreadperms > 0 ? (long) (1000000 / targetperthreadperms) : 0;
+    _targetOpsPerMs = targetperthreadperms > 0 ? targetperthreadperms : 0;
+    _pacingChanged = true;
+  }
+
+  /** @return The current target number of operations per ms, 0 for no limit. */
+  double getTargetPerMs()
+  {
+    return _targetOpsPerMs;
+  }
+
+  /** Lets this thread run operations, or makes it wait without finishing. */
+  void setActive(boolean active)
+  {
+    _active = active;
+    _pacingChanged = true;
+  }
+
+  /** Makes this thread stop after its current operation, whatever work is left. */
+  void requestStop()
+  {
+    _stopRequested = true;
+  }
+
+  @Override
+  public long getOpsDone()
   {
     return _opsdone;
   }
 
+  @Override
+  public long getRunTimeMs()
+  {
+    return _runtimeMs;
+  }
+
+  @Override
+  public WorkCounter getWorkCounter()
+  {
+    return _work;
+  }
+
   @Override
   public void run()
   {
@@ -446,38 +569,49 @@ class ClientThread implements Runnable
       long randomMinorDelay = Utils.random().nextInt((int) _targetOpsTickNs);
       sleepUntil(System.nanoTime() + randomMinorDelay);
     }
+    long runStartMs = System.currentTimeMillis();
     try
     {
       if (_dotransactions)
       {
-        long startTimeNanos = System.nanoTime();
+        resetPacing();
 
-        while (((_opcount == 0) || (_opsdone < _opcount)) && !_workload.isStopRequested())
+        while (!_workload.isStopRequested() && !_stopRequested && claimWork())
         {
 
           //sleepUntil(System.currentTimeMillis() +3000);
           //long randomMinorDelay = Utils.random().nextInt((int) _targetOpsTickNs);
 
+          if (!mayRun())
+          {
+            continue;
+          }
+
           sleepUntil(System.nanoTime());
 
 
-          if (!_workload.doTransaction(_db,_workloadstate))
+          if (!doTransaction())
           {
             break;
           }
 
           _opsdone++;
 
-          throttleNanos(startTimeNanos);
+          throttleNanos();
         }
       }
       else
       {
-        long startTimeNanos = System.nanoTime();
+        resetPacing();
 
-        while (((_opcount == 0) || (_opsdone < _opcount)) && !_workload.isStopRequested())
+        while (!_workload.isStopRequested() && !_stopRequested && claimWork())
         {
 
+          if (!mayRun())
+          {
+            continue;
+          }
+
           if (!_workload.doInsert(_db,_workloadstate))
           {
             break;
@@ -485,7 +619,7 @@ class ClientThread implements Runnable
 
           _opsdone++;
 
-          throttleNanos(startTimeNanos);
+          throttleNanos();
         }
       }
     }
@@ -495,6 +629,7 @@ class ClientThread implements Runnable
       e.printStackTrace(System.out);
       System.exit(0);
     }
+    _runtimeMs = System.currentTimeMillis() - runStartMs;
 
     try
     {
@@ -513,6 +648,40 @@ class ClientThread implements Runnable
     }
   }
 
+  private boolean doTransaction()
+  {
+    switch (_role)
+    {
+    case INGEST:
+      return _workload.doIngestTransaction(_db, _workloadstate);
+    case QUERY:
+      return _workload.doQueryTransaction(_db, _workloadstate);
+    default:
+      return _workload.doTransaction(_db, _workloadstate);
+    }
+  }
+
+  /**
+   * Makes sure this thread holds at least one unfinished operation, claiming
+   * another chunk from the shared pool if needed.
+   *
+   * @return False once the pool is drained.
+   */
+  private boolean claimWork()
+  {
+    if (_opsdone < _opsclaimed)
+    {
+      return true;
+    }
+    long granted = _work.claim(_workchunk);
+    _opsclaimed += granted;
+    return granted > 0;
+  }
+
+  /**
+   * Waits until the given {@link System#nanoTime()} deadline. Parking unmounts
+   * a virtual thread from its carrier, so waiting clients hold no OS thread.
+   */
   static void sleepUntil(long deadline) {
     long now = System.nanoTime();
     while((now = System.nanoTime()) < deadline) {
@@ -521,23 +690,55 @@ class ClientThread implements Runnable
       }
     }
   }
-  private void throttleNanos(long startTimeNanos) {
+  private void throttleNanos() {
+    if (_pacingChanged)
+    {
+      resetPacing();
+    }
     //throttle the operations
-    if (_targetOpsPerMs > 0)
+    long tick = _targetOpsTickNs;
+    if (tick > 0)
     {
       // delay until next tick
-      long deadline = startTimeNanos + _opsdone*_targetOpsTickNs;
+      long deadline = _paceStartNs + (_opsdone - _paceStartOps) * tick;
       sleepUntil(deadline);
       _measurements.setIntendedStartTimeNs(deadline);
     }
   }
+
+  /** Paces the following operations from now on. */
+  private void resetPacing()
+  {
+    _pacingChanged = false;
+    _paceStartNs = System.nanoTime();
+    _paceStartOps = _opsdone;
+  }
+
+  /**
+   * Waits a little if this thread is paused, or is a query thread with no data to query yet.
+   *
+   * @return True if the next operation may run now.
+   */
+  private boolean mayRun()
+  {
+    if (_active && (_role != Role.QUERY || _workload.isQueryReady()))
+    {
+      return true;
+    }
+    sleepUntil(System.nanoTime() + WAIT_POLL_NS);
+    // Pace from the next operation, not from the start of the wait.
+    resetPacing();
+    return false;
+  }
   
   /**
-   * the total amount of work this thread is still expected to do
+   * the amount of work this thread has claimed but not yet done. Work that is
+   * still in the shared pool is reported by {@link WorkCounter#getRemaining()}.
    */
-  public int getOpsTodo()
+  @Override
+  public long getOpsTodo()
   {
-    int todo = _opcount - _opsdone;
+    long todo = _opsclaimed - _opsdone;
     return todo < 0 ? 0 : todo;
   }
 }
@@ -615,9 +816,77 @@ public class Client
    */
   public static final String DO_TRANSACTIONS_PROPERTY = "dotransactions";
 
+  /**
+   * The number of operations a client thread claims at a time from the pool shared by
+   * all threads. 0 gives every thread a fixed share of the operations up front.
+   */
+  public static final String WORK_CHUNK_PROPERTY = "workchunk";
+
+  /**
+   * Default value of {@link #WORK_CHUNK_PROPERTY}.
+   */
+  public static final String WORK_CHUNK_PROPERTY_DEFAULT = "100";
+
+  /**
+   * How the client threads are run: "platform" threads, or "virtual" threads on JVMs
+   * that support them. Virtual threads let a single driver run thousands of clients
+   * against slow backends without an OS thread and stack per client.
+   */
+  public static final String THREAD_MODE_PROPERTY = "threadmode";
+
+  /**
+   * Default value of {@link #THREAD_MODE_PROPERTY}.
+   */
+  public static final String THREAD_MODE_PROPERTY_DEFAULT = "platform";
+
+  /**
+   * Value of {@link #THREAD_MODE_PROPERTY} selecting virtual threads.
+   */
+  public static final String THREAD_MODE_VIRTUAL = "virtual";
+
+  /**
+   * The number of threads running queries only, in the transaction phase. Above 0, the
+   * "threadcount" threads (or the ingest pipeline) only ingest, and their measurements are
+   * reported with an INGEST_ prefix, while the query threads report theirs with a QUERY_
+   * prefix. 0 runs ingest and queries mixed on the same threads.
+   */
+  public static final String QUERY_THREAD_COUNT_PROPERTY = "querythreadcount";
+
+  /**
+   * Default value of {@link #QUERY_THREAD_COUNT_PROPERTY}.
+   */
+  public static final String QUERY_THREAD_COUNT_PROPERTY_DEFAULT = "0";
+
+  /**
+   * Target number of queries per second over all query threads; "target" then only
+   * applies to the ingest threads. 0 does not limit the queries.
+   */
+  public static final String QUERY_TARGET_PROPERTY = "querytarget";
+
+  /**
+   * Default value of {@link #QUERY_TARGET_PROPERTY}.
+   */
+  public static final String QUERY_TARGET_PROPERTY_DEFAULT = "0";
+
+  /**
+   * The number of queries to run. 0 keeps querying until the ingest threads are done.
+   */
+  public static final String QUERY_OPERATION_COUNT_PROPERTY = "queryoperationcount";
+
+  /**
+   * Default value of {@link #QUERY_OPERATION_COUNT_PROPERTY}.
+   */
+  public static final String QUERY_OPERATION_COUNT_PROPERTY_DEFAULT = "0";
+
   /** An optional thread used to track progress and measure JVM stats. */
   private static StatusThread statusthread = null;
 
+  /** An optional thread running the client threads through a schedule of phases. */
+  private static PhaseScheduler phasescheduler = null;
+
+  /** An optional thread searching for the highest throughput within the latency SLAs. */
+  private static ThroughputSearch throughputsearch = null;
+
   // HTrace integration related constants.
 
   /**
@@ -677,7 +946,8 @@ public class Client
    * loaded from conf.
    * @throws IOException Either failed to write to output stream or failed to close it.
    */
-  private static void exportMeasurements(Properties props, int opcount, long runtime)
+  private static void exportMeasurements(Properties props, long opcount, long runtime,
+                                         List<? extends ClientProgress> clients)
     throws IOException
   {
     MeasurementsExporter exporter = null;
@@ -734,6 +1004,20 @@ public class Client
         exporter.write("MIN_SYS_LOAD_AVG", "Load", statusthread.getMinLoadAvg());
       }
 
+      exportThreadDistribution(exporter, clients);
+
+      if (phasescheduler != null)
+      {
+        phasescheduler.exportPhases(exporter);
+      }
+      if (throughputsearch != null)
+      {
+        throughputsearch.exportSearch(exporter);
+      }
+      ValueCodec.exportMeasurements(exporter);
+      ScanResultProcessor.exportMeasurements(exporter);
+      OperationTracer.exportMeasurements(exporter);
+
       Measurements.getMeasurements().exportMeasurements(exporter);
     } finally
     {
@@ -744,6 +1028,69 @@ public class Client
     }
   }
 
+  /**
+   * Exports how the operations and the run time were spread over the client
+   * threads, to show how much stragglers held up the end of the run.
+   */
+  private static void exportThreadDistribution(MeasurementsExporter exporter,
+                                               List<? extends ClientProgress> clients)
+    throws IOException
+  {
+    if (clients.isEmpty())
+    {
+      return;
+    }
+    long minOps = Long.MAX_VALUE;
+    long maxOps = 0;
+    long totalOps = 0;
+    long minRunTime = Long.MAX_VALUE;
+    long maxRunTime = 0;
+    for (ClientProgress client : clients)
+    {
+      long ops = client.getOpsDone();
+      minOps = Math.min(minOps, ops);
+      maxOps = Math.max(maxOps, ops);
+      totalOps += ops;
+      long runtime = client.getRunTimeMs();
+      minRunTime = Math.min(minRunTime, runtime);
+      maxRunTime = Math.max(maxRunTime, runtime);
+    }
+    double avgOps = (double) totalOps / clients.size();
+    double variance = 0;
+    for (ClientProgress client : clients)
+    {
+      double delta = client.getOpsDone() - avgOps;
+      variance += delta * delta;
+    }
+    variance /= clients.size();
+
+    exporter.write("THREAD_OPS", "Threads", clients.size());
+    exporter.write("THREAD_OPS", "Min", minOps);
+    exporter.write("THREAD_OPS", "Max", maxOps);
+    exporter.write("THREAD_OPS", "Average", avgOps);
+    exporter.write("THREAD_OPS", "StdDev", Math.sqrt(variance));
+    exporter.write("THREAD_RUNTIME", "Min(ms)", minRunTime);
+    exporter.write("THREAD_RUNTIME", "Max(ms)", maxRunTime);
+  }
+
+  /**
+   * Lets the rate of the given thread adapt to overload, reporting its admitted rate
+   * with the measurement prefix of its group.
+   */
+  private static void adaptRate(Properties props, ClientThread client, DB db, String prefix)
+  {
+    try
+    {
+      ((DBWrapper) db).setRateController(
+          new AimdRateController(props, client, prefix + AimdRateController.ADMITTED_RATE_GAUGE));
+    }
+    catch (IllegalArgumentException e)
+    {
+      System.out.println("Invalid adaptive rate settings: " + e.getMessage());
+      System.exit(0);
+    }
+  }
+
   @SuppressWarnings("unchecked")
   public static void main(String[] args)
   {
@@ -943,6 +1290,15 @@ public class Client
 
     props.setProperty(DO_TRANSACTIONS_PROPERTY, String.valueOf(dotransactions));
 
+    boolean virtualthreads = THREAD_MODE_VIRTUAL.equals(
+        props.getProperty(THREAD_MODE_PROPERTY, THREAD_MODE_PROPERTY_DEFAULT));
+    if (virtualthreads && !VirtualThreads.isSupported())
+    {
+      System.err.println("Virtual threads are not supported by this JVM, using platform threads.");
+      virtualthreads = false;
+      props.setProperty(THREAD_MODE_PROPERTY, THREAD_MODE_PROPERTY_DEFAULT);
+    }
+
     long maxExecutionTime = Integer.parseInt(props.getProperty(MAX_EXECUTION_TIME, "0"));
 
     //get number of threads, target and db
@@ -958,6 +1314,58 @@ public class Client
       targetperthreadperms=targetperthread/1000.0;
     }
 
+    List<PhaseScheduler.Phase> phases = Collections.emptyList();
+    try
+    {
+      phases = PhaseScheduler.parse(props, threadcount, target);
+    }
+    catch (IllegalArgumentException e)
+    {
+      System.out.println("Invalid phase schedule: " + e.getMessage());
+      System.exit(0);
+    }
+    if (!phases.isEmpty() && IngestPipeline.isEnabled(props))
+    {
+      System.err.println("The ingest pipeline does not support phases, ignoring " + PhaseScheduler.PHASES_PROPERTY);
+      phases = Collections.emptyList();
+    }
+    if (dotransactions && IngestPipeline.isEnabled(props) && Integer.parseInt(
+        props.getProperty(QUERY_THREAD_COUNT_PROPERTY, QUERY_THREAD_COUNT_PROPERTY_DEFAULT)) <= 0)
+    {
+      // The pipeline only inserts; the other operations of a run need their own query threads.
+      System.out.println("The ingest pipeline needs " + QUERY_THREAD_COUNT_PROPERTY + " > 0 to run transactions.");
+      System.exit(-1);
+    }
+    boolean search = ThroughputSearch.isEnabled(props);
+    if (search && (!phases.isEmpty() || IngestPipeline.isEnabled(props)))
+    {
+      System.out.println("A throughput search cannot be combined with phases or the ingest pipeline.");
+      System.exit(0);
+    }
+    if (search && dotransactions && Integer.parseInt(
+        props.getProperty(QUERY_THREAD_COUNT_PROPERTY, QUERY_THREAD_COUNT_PROPERTY_DEFAULT)) > 0)
+    {
+      // The SLAs are set per operation, but separate thread groups measure INGEST_ and QUERY_ operations.
+      System.out.println("A throughput search cannot be combined with " + QUERY_THREAD_COUNT_PROPERTY + ".");
+      System.exit(0);
+    }
+    final boolean aimd = AimdRateController.isEnabled(props);
+    if (aimd && (!phases.isEmpty() || search))
+    {
+      System.out.println("Adaptive rates cannot be combined with phases or a throughput search.");
+      System.exit(0);
+    }
+    if (aimd && IngestPipeline.isEnabled(props))
+    {
+      System.err.println("The ingest pipeline does not support adaptive rates, ignoring "
+          + AimdRateController.AIMD_PROPERTY);
+    }
+    if (!phases.isEmpty())
+    {
+      // Enough threads for the busiest phase; the scheduler pauses the ones a phase does not use.
+      threadcount = PhaseScheduler.getMaxThreads(phases);
+    }
+
     final Map<String, String> filteredProperties = new HashMap<>();
     for (String key : props.stringPropertyNames()) {
       if (key.startsWith(HTRACE_KEY_PREFIX)) {
@@ -991,6 +1399,24 @@ public class Client
 
     //set up measurements
     Measurements.setProperties(props);
+    try
+    {
+      ScanResultProcessor.start(props);
+    }
+    catch (IOException e)
+    {
+      System.out.println("Could not open the scan result log: " + e.getMessage());
+      System.exit(0);
+    }
+    try
+    {
+      OperationTracer.start(props);
+    }
+    catch (IOException e)
+    {
+      System.out.println("Could not open the trace file: " + e.getMessage());
+      System.exit(0);
+    }
 
     //load the workload
     ClassLoader classLoader = Client.class.getClassLoader();
@@ -1043,35 +1469,84 @@ public class Client
       e.printStackTrace(System.out);
       System.exit(0);
     }
+    if (IngestPipeline.isEnabled(props) && !workload.supportsFillInsert())
+    {
+      System.out.println("The workload " + workload.getClass().getName() + " does not support the ingest pipeline.");
+      System.exit(-1);
+    }
 
     //run the workload
 
-    final CountDownLatch completeLatch = new CountDownLatch(threadcount);
-    final List<ClientThread> clients = new ArrayList<ClientThread>(threadcount);
+    final boolean usepipeline = IngestPipeline.isEnabled(props);
+    final int dbcount = usepipeline ? IngestPipeline.getSenderCount(props) : threadcount;
+    final int querythreadcount = dotransactions ? Integer.parseInt(
+        props.getProperty(QUERY_THREAD_COUNT_PROPERTY, QUERY_THREAD_COUNT_PROPERTY_DEFAULT)) : 0;
+    final boolean splitgroups = querythreadcount > 0;
+    final CountDownLatch completeLatch = new CountDownLatch(dbcount + querythreadcount);
+    final List<ClientThread> clientthreads = new ArrayList<ClientThread>(threadcount);
+    final List<ClientThread> querythreads = new ArrayList<ClientThread>(querythreadcount);
+    final List<ClientProgress> clients = new ArrayList<ClientProgress>(dbcount + querythreadcount);
+    IngestPipeline pipeline = null;
 
     boolean initFailed = false;
     try (final TraceScope span = tracer.newScope(CLIENT_INIT_SPAN)) {
 
-      int opcount;
+      long opcount;
       if (dotransactions)
       {
-        opcount=Integer.parseInt(props.getProperty(OPERATION_COUNT_PROPERTY,"0"));
+        opcount=Long.parseLong(props.getProperty(OPERATION_COUNT_PROPERTY,"0"));
       }
       else
       {
         if (props.containsKey(INSERT_COUNT_PROPERTY))
         {
-          opcount=Integer.parseInt(props.getProperty(INSERT_COUNT_PROPERTY,"0"));
+          opcount=Long.parseLong(props.getProperty(INSERT_COUNT_PROPERTY,"0"));
         }
         else
         {
-          opcount=Integer.parseInt(props.getProperty(RECORD_COUNT_PROPERTY, DEFAULT_RECORD_COUNT));
+          opcount=Long.parseLong(props.getProperty(RECORD_COUNT_PROPERTY, DEFAULT_RECORD_COUNT));
         }
       }
       double updatedcount = opcount + opcount * 0.04;
-       opcount = (int)updatedcount;
+       opcount = (long)updatedcount;
+      long workchunk = Long.parseLong(props.getProperty(WORK_CHUNK_PROPERTY, WORK_CHUNK_PROPERTY_DEFAULT));
+      final WorkCounter work;
+      if (!phases.isEmpty() || search)
+      {
+        // The schedule or the search, not the operation count, decides when the run ends.
+        work = new WorkCounter(0);
+        workchunk = Math.max(1, workchunk);
+      }
+      else
+      {
+        work = workchunk > 0 ? new WorkCounter(opcount) : null;
+      }
+      if (usepipeline)
+      {
+        List<DB> dbs = new ArrayList<DB>(dbcount);
+        for (int i = 0; i < dbcount && !initFailed; i++)
+        {
+          try
+          {
+            DB db = DBFactory.newDB(dbname, props, tracer);
+            if (splitgroups)
+            {
+              ((DBWrapper) db).setMeasurementPrefix("INGEST_");
+            }
+            dbs.add(db);
+          }
+          catch (UnknownDBException e)
+          {
+            System.out.println("Unknown DB " + dbname);
+            initFailed = true;
+          }
+        }
+        pipeline = new IngestPipeline(props, workload, dbs, work != null ? work : new WorkCounter(opcount),
+            Math.max(1, workchunk), target / 1000.0, completeLatch);
+        clients.addAll(pipeline.getSenders());
+      }
       //System.out.println("Thread Count in Java = "+threadcount);
-      for (int threadid = 0; threadid < threadcount; threadid++)
+      for (int threadid = 0; threadid < threadcount && !usepipeline; threadid++)
       {
       //  System.out.println("Spawning thread id = "+threadid);
         DB db = null;
@@ -1087,20 +1562,72 @@ public class Client
         }
 
 
-        int threadopcount = opcount / threadcount;
-        //System.out.println("Thread Op Count in Java = "+threadopcount);
+        ClientThread t;
+        if (work != null)
+        {
+          t=new ClientThread(db,dotransactions,workload,props,work,workchunk,targetperthreadperms,completeLatch);
+        }
+        else
+        {
+          long threadopcount = opcount / threadcount;
+          //System.out.println("Thread Op Count in Java = "+threadopcount);
 
-        // ensure correct number of operations, in case opcount is not a multiple of threadcount
-        if (threadid<opcount%threadcount)
+          // ensure correct number of operations, in case opcount is not a multiple of threadcount
+          if (threadid<opcount%threadcount)
+          {
+            ++threadopcount;
+          }
+          // System.out.println("threadopcount="+threadopcount);
+          t=new ClientThread(db,dotransactions,workload,props,threadopcount, targetperthreadperms, completeLatch);
+        }
+        if (splitgroups)
+        {
+          t.setRole(ClientThread.Role.INGEST);
+          ((DBWrapper) db).setMeasurementPrefix("INGEST_");
+        }
+        if (aimd)
         {
-          ++threadopcount;
+          adaptRate(props, t, db, splitgroups ? "INGEST_" : "");
         }
-        // System.out.println("threadopcount="+threadopcount);
-        ClientThread t=new ClientThread(db,dotransactions,workload,props,threadopcount, targetperthreadperms, completeLatch);
 
+        clientthreads.add(t);
         clients.add(t);
       }
 
+      if (splitgroups && !initFailed)
+      {
+        long queryopcount = Long.parseLong(
+            props.getProperty(QUERY_OPERATION_COUNT_PROPERTY, QUERY_OPERATION_COUNT_PROPERTY_DEFAULT));
+        int querytarget = Integer.parseInt(props.getProperty(QUERY_TARGET_PROPERTY, QUERY_TARGET_PROPERTY_DEFAULT));
+        double querytargetperthreadperms = querytarget > 0 ? querytarget / 1000.0 / querythreadcount : -1;
+        // An unbounded pool when the queries run until the ingest is done.
+        final WorkCounter querywork = new WorkCounter(queryopcount);
+        for (int threadid = 0; threadid < querythreadcount; threadid++)
+        {
+          DB db;
+          try
+          {
+            db = DBFactory.newDB(dbname, props, tracer);
+          }
+          catch (UnknownDBException e)
+          {
+            System.out.println("Unknown DB " + dbname);
+            initFailed = true;
+            break;
+          }
+          ((DBWrapper) db).setMeasurementPrefix("QUERY_");
+          ClientThread t = new ClientThread(db, true, workload, props, querywork, 1,
+              querytargetperthreadperms, completeLatch);
+          t.setRole(ClientThread.Role.QUERY);
+          if (aimd)
+          {
+            adaptRate(props, t, db, "QUERY_");
+          }
+          querythreads.add(t);
+          clients.add(t);
+        }
+      }
+
     }
 
     if (initFailed) {
@@ -1108,6 +1635,23 @@ public class Client
       System.exit(0);
     }
 
+    if (!phases.isEmpty())
+    {
+      phasescheduler = new PhaseScheduler(phases, clientthreads);
+    }
+    if (search)
+    {
+      try
+      {
+        throughputsearch = new ThroughputSearch(props, clientthreads);
+      }
+      catch (IllegalArgumentException e)
+      {
+        System.out.println("Invalid throughput search settings: " + e.getMessage());
+        System.exit(0);
+      }
+    }
+
     if (status)
     {
       boolean standardstatus=false;
@@ -1125,18 +1669,30 @@ public class Client
     Thread terminator = null;
     long st;
     long en;
-    int opsDone;
+    long opsDone;
 
     try (final TraceScope span = tracer.newScope(CLIENT_WORKLOAD_SPAN)) {
 
-      final Map<Thread, ClientThread> threads = new HashMap<Thread, ClientThread>(threadcount);
-      for (ClientThread client : clients) {
-        threads.put(new Thread(tracer.wrap(client, "ClientThread")), client);
+      final List<Thread> threads = new ArrayList<Thread>(threadcount);
+      if (pipeline != null) {
+        threads.addAll(pipeline.getThreads());
+      }
+      // Without HTrace samplers the wrapping scopes would trace nothing.
+      final boolean htrace = tracer.getSamplers().length > 0;
+      int clientid = 0;
+      for (ClientThread client : clientthreads) {
+        threads.add(VirtualThreads.newThread(htrace ? tracer.wrap(client, "ClientThread") : client,
+            "ClientThread-" + clientid++, virtualthreads));
+      }
+      final int ingestthreadcount = threads.size();
+      for (ClientThread client : querythreads) {
+        threads.add(VirtualThreads.newThread(htrace ? tracer.wrap(client, "QueryThread") : client,
+            "QueryThread-" + clientid++, virtualthreads));
       }
 
       st=System.currentTimeMillis();
 
-      for (Thread t : threads.keySet())
+      for (Thread t : threads)
       {
         //try
         //{
@@ -1145,27 +1701,64 @@ public class Client
 
       }
 
+      if (phasescheduler != null) {
+        phasescheduler.start();
+      }
+      if (throughputsearch != null) {
+        throughputsearch.start();
+      }
+
       if (maxExecutionTime > 0) {
-        terminator = new TerminatorThread(maxExecutionTime, threads.keySet(), workload);
+        terminator = new TerminatorThread(maxExecutionTime, threads, workload);
         terminator.start();
       }
 
       opsDone = 0;
 
-      for (Map.Entry<Thread, ClientThread> entry : threads.entrySet())
+      for (int i = 0; i < threads.size(); i++)
       {
+        if (i == ingestthreadcount)
+        {
+          // The ingest is done; queries without an operation count of their own stop with it.
+          for (ClientThread client : querythreads)
+          {
+            if (client.getWorkCounter().getTotal() == 0)
+            {
+              client.requestStop();
+            }
+          }
+        }
         try
         {
-          entry.getKey().join();
-          opsDone += entry.getValue().getOpsDone();
+          threads.get(i).join();
         }
         catch (InterruptedException e)
         {
         }
       }
+      for (ClientProgress client : clients)
+      {
+        opsDone += client.getOpsDone();
+      }
 
       en=System.currentTimeMillis();
 
+      // The threads may have finished before the schedule or the search, e.g. at the maximum execution time.
+      for (Thread controller : new Thread[] {phasescheduler, throughputsearch})
+      {
+        if (controller != null)
+        {
+          controller.interrupt();
+          try
+          {
+            controller.join();
+          }
+          catch (InterruptedException e)
+          {
+          }
+        }
+      }
+
     }
 
     try
@@ -1187,6 +1780,8 @@ public class Client
           }
         }
 
+        ScanResultProcessor.shutdown();
+        OperationTracer.shutdown();
         workload.cleanup();
       }
     }
@@ -1200,7 +1795,7 @@ public class Client
     try
     {
       try (final TraceScope span = tracer.newScope(CLIENT_EXPORT_MEASUREMENTS_SPAN)) {
-        exportMeasurements(props, opsDone, en - st);
+        exportMeasurements(props, opsDone, en - st, clients);
       }
     } catch (IOException e)
     {
@@ -23,7 +23,9 @@ import org.apache.htrace.core.Tracer;
 
 
 import java.util.*;
-import java.util.logging.Logger;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
 
 /**
  * Wrapper around a "real" DB that measures latencies and counts return codes.
@@ -33,6 +35,9 @@ public class DBWrapper extends DB {
   private final DB db;
   private final Measurements measurements;
   private final Tracer tracer;
+  /** False if HTrace has no samplers, so no scopes need to be opened. */
+  private final boolean htrace;
+  private final ScanResultProcessor scanResults;
 
   private boolean reportLatencyForEachError = false;
   private HashSet<String> latencyTrackedErrors = new HashSet<String>();
@@ -42,6 +47,27 @@ public class DBWrapper extends DB {
 
   private static final String LATENCY_TRACKED_ERRORS_PROPERTY = "latencytrackederrors";
 
+  /**
+   * The maximum number of operations a client thread may have outstanding at once. Above 1,
+   * inserts and TPCx-IoT scans go through the {@link AsyncDB} methods of the binding (or
+   * {@link SyncAsyncDB} for bindings without them) and are measured when they complete.
+   * An operation that is still in flight when the client moves on is reported to the
+   * workload as {@link Status#BATCHED_OK}; its real outcome is counted in the measurements.
+   */
+  public static final String MAX_IN_FLIGHT_PROPERTY = "maxinflight";
+  public static final String MAX_IN_FLIGHT_PROPERTY_DEFAULT = "1";
+
+  /** Null unless more than one operation may be in flight. */
+  private AsyncDB asyncDb;
+  private int maxInFlight = 1;
+  private Semaphore inFlight;
+
+  /** Prepended to the names of all measurements, to keep thread groups apart. */
+  private String measurementPrefix = "";
+
+  /** Null unless the rate of the client thread adapts to overload. */
+  private AimdRateController rateController;
+
   private final String scopeStringCleanup;
   private final String scopeStringDelete;
   private final String scopeStringInit;
@@ -54,6 +80,8 @@ public class DBWrapper extends DB {
     this.db = db;
     measurements = Measurements.getMeasurements();
     this.tracer = tracer;
+    htrace = tracer.getSamplers().length > 0;
+    scanResults = ScanResultProcessor.getInstance();
     final String simple = db.getClass().getSimpleName();
     scopeStringCleanup = simple + "#cleanup";
     scopeStringDelete = simple + "#delete";
@@ -64,6 +92,22 @@ public class DBWrapper extends DB {
     scopeStringUpdate = simple + "#update";
   }
 
+  /**
+   * Reports the measurements of this DB under the given prefix, e.g. "QUERY_" to report
+   * scans as QUERY_SCAN.
+   */
+  public void setMeasurementPrefix(String prefix) {
+    measurementPrefix = prefix;
+  }
+
+  /**
+   * Reports the outcome of every operation to the given controller, which paces the client
+   * thread of this DB.
+   */
+  public void setRateController(AimdRateController controller) {
+    rateController = controller;
+  }
+
   /**
    * Set the properties for this DB.
    */
@@ -83,7 +127,7 @@ public class DBWrapper extends DB {
    * Called once per DB instance; there is one DB instance per client thread.
    */
   public void init() throws DBException {
-    try (final TraceScope span = tracer.newScope(scopeStringInit)) {
+    try (final TraceScope span = newScope(scopeStringInit)) {
       db.init();
 
       this.reportLatencyForEachError = Boolean.parseBoolean(getProperties().
@@ -101,6 +145,13 @@ public class DBWrapper extends DB {
       System.err.println("DBWrapper: report latency for each error is " +
           this.reportLatencyForEachError + " and specific error codes to track" +
           " for latency are: " + this.latencyTrackedErrors.toString());
+
+      maxInFlight = Integer.parseInt(getProperties().getProperty(MAX_IN_FLIGHT_PROPERTY,
+          MAX_IN_FLIGHT_PROPERTY_DEFAULT));
+      if (maxInFlight > 1) {
+        asyncDb = SyncAsyncDB.of(db);
+        inFlight = new Semaphore(maxInFlight);
+      }
     }
   }
 
@@ -109,7 +160,12 @@ public class DBWrapper extends DB {
    * Called once per DB instance; there is one DB instance per client thread.
    */
   public void cleanup() throws DBException {
-    try (final TraceScope span = tracer.newScope(scopeStringCleanup)) {
+    try (final TraceScope span = newScope(scopeStringCleanup)) {
+      if (inFlight != null) {
+        // Let the outstanding operations complete before the binding shuts down.
+        inFlight.acquireUninterruptibly(maxInFlight);
+        inFlight.release(maxInFlight);
+      }
       long ist = measurements.getIntendedtartTimeNs();
       long st = System.nanoTime();
       db.cleanup();
@@ -130,13 +186,17 @@ public class DBWrapper extends DB {
    */
   public Status read(String table, String key, Set<String> fields,
                      HashMap<String, ByteIterator> result) {
-    try (final TraceScope span = tracer.newScope(scopeStringRead)) {
+    try (final TraceScope span = newScope(scopeStringRead)) {
       long ist = measurements.getIntendedtartTimeNs();
       long st = System.nanoTime();
+      OperationTracer.Trace trace = OperationTracer.begin(st);
       Status res = db.read(table, key, fields, result);
       long en = System.nanoTime();
+      if (trace != null) {
+        OperationTracer.end(trace, measurementPrefix + "READ", res, en);
+      }
       measure("READ", res, ist, st, en);
-      measurements.reportStatus("READ", res);
+      reportStatus("READ", res);
       return res;
     }
   }
@@ -154,158 +214,160 @@ public class DBWrapper extends DB {
    */
   public Status scan(String table, String startkey, int recordcount,
                      Set<String> fields, Vector<HashMap<String, ByteIterator>> result) {
-    try (final TraceScope span = tracer.newScope(scopeStringScan)) {
+    try (final TraceScope span = newScope(scopeStringScan)) {
       long ist = measurements.getIntendedtartTimeNs();
       long st = System.nanoTime();
+      OperationTracer.Trace trace = OperationTracer.begin(st);
       Status res = db.scan(table, startkey, recordcount, fields, result);
       long en = System.nanoTime();
+      if (trace != null) {
+        OperationTracer.end(trace, measurementPrefix + "SCAN", res, en);
+      }
       measure("SCAN", res, ist, st, en);
-      measurements.reportStatus("SCAN", res);
+      reportStatus("SCAN", res);
       //System.out.println("Result="+result.size());
-      HashMap<String, ArrayList<Double>> value = new HashMap<>();
-
-      for(int i = 0; i < result.size(); i++) {
-
-        String hashVal = result.get(i).get("field0").toString();
-        String name = hashVal.split(":")[0];
-        double val =  Double.valueOf(hashVal.split(":")[2]).doubleValue();
-
-        if(value.containsKey(name)){
-          ArrayList<Double> list = value.get(name);
-          list.add(val);
-        }else{
-          ArrayList<Double> list = new ArrayList<>();
-          list.add(val);
-          value.put(name, list);
-        }
-        Iterator<String> it = value.keySet().iterator();
-        Logger log = Logger.getGlobal() ;
-        while(it.hasNext()){
-          String iotKey = it.next();
-          List<Double> l = value.get(iotKey);
-          double sum = 0;
-          for(int k=0; k<l.size();k++){
-            sum = sum + l.get(k);
-          }
-          double avgVal = sum/l.size();
-          System.out.println("Avg Value for "+iotKey+"="+avgVal);
-//          //log.info("Avg Value for "+iotKey+"="+avgVal);
-          it.remove();
-        }
-      }
+      scanResults.submit(result);
       return res;
     }
   }
 
   public Status scan(String table, String key, String client, String timestamp,
                      Set<String> fields,long runStartTime, Vector<HashMap<String, ByteIterator>> result1,Vector<HashMap<String, ByteIterator>> result2) {
-    try (final TraceScope span = tracer.newScope(scopeStringScan)) {
+    if (asyncDb != null) {
+      return scanAsync(table, key, client, timestamp, fields, runStartTime, result1, result2);
+    }
+    try (final TraceScope span = newScope(scopeStringScan)) {
       long ist = measurements.getIntendedtartTimeNs();
       long st = System.nanoTime();
+      OperationTracer.Trace trace = OperationTracer.begin(st);
       Status res = db.scan(table, key, client, timestamp, fields, runStartTime, result1, result2);
       //System.out.println("Results from scan"+res);
       //System.out.println("Result Size for Query1 = "+result1.size());
       //System.out.println("Result Size for Query2 = "+result2.size());
-      
-      //2020.10.07 TTA: Scan row count 0 return
-      if(result1.size()==0 && result2.size()==0)
-      {
-        measurements.measureResultCount("SCAN",1,1);
-      }
-      else if(result1.size()==0)
-      {
-        measurements.measureResultCount("SCAN",1,0);
-      }
-      else if(result2.size()==0)
-      {
-        measurements.measureResultCount("SCAN",0,1);
-      }
+      measureScanResultCount(result1, result2);
 
       long en = System.nanoTime();
-      measure("SCAN", res, ist, st, en);
-      measurements.reportStatus("SCAN", res);
-     // System.out.println("Result="+result1.size());
-     // System.out.println("Result2="+result2.size());
-
-      HashMap<String, ArrayList<Double>> value = new HashMap<>();
-      double val = 0;
-      for(int i = 0; i < result1.size(); i++) {
-
-        String hashVal = result1.get(i).get("field0").toString();
-        //String name = hashVal.split(":")[0];
-
-         val =  val + Double.valueOf(hashVal.split(":")[2]).doubleValue();
-//        if(value.containsKey(key)){
-//          ArrayList<Double> list = value.get(key);
-//          list.add(val);
-//        }else{
-//          ArrayList<Double> list = new ArrayList<>();
-//          list.add(val);
-//          value.put(key, list);
-//        }
-//        if(value.containsKey(name)){
-//          ArrayList<Double> list = value.get(name);
-//          list.add(val);
-//        }else{
-//          ArrayList<Double> list = new ArrayList<>();
-//          list.add(val);
-//          value.put(name, list);
-//        }
-//        Iterator<String> it = value.keySet().iterator();
-//        Logger log = Logger.getGlobal() ;
-//        double avgVal=0.0;
-//        while(it.hasNext()){
-//          String iotKey = it.next();
-//          List<Double> l = value.get(iotKey);
-//          double sum = 0;
-//          for(int k=0; k<l.size();k++){
-//            sum = sum + l.get(k);
-//          }
-//           avgVal = sum/l.size();
-//
-////          //log.info("Avg Value for "+iotKey+"="+avgVal);
-//          it.remove();
-//        }
-
-        //System.out.println("Avg Value for "+key+"="+avgVal);
+      if (trace != null) {
+        OperationTracer.end(trace, measurementPrefix + "SCAN", res, en);
       }
-      if(result1.size() > 0) {
-        double avgVal = val / result1.size();
-        System.out.println("Latest Time Interval :: Avg Value for " + key + "=" + avgVal);
-      }else{
-        System.err.println("Unable to get query results from database, please check the status of the table ");
-        return res;
+      measure("SCAN", res, ist, st, en);
+      reportStatus("SCAN", res);
+      scanResults.submit(key, result1, result2);
+      return res;
+    }
+  }
+
+  private Status scanAsync(String table, final String key, String client, String timestamp,
+                           Set<String> fields, long runStartTime,
+                           final Vector<HashMap<String, ByteIterator>> result1,
+                           final Vector<HashMap<String, ByteIterator>> result2) {
+    try (final TraceScope span = newScope(scopeStringScan)) {
+      inFlight.acquireUninterruptibly();
+      final long ist = measurements.getIntendedtartTimeNs();
+      final long st = System.nanoTime();
+      OperationTracer.Trace trace = OperationTracer.begin(st);
+      CompletionStage<Status> stage;
+      try {
+        stage = asyncDb.scanAsync(table, key, client, timestamp, fields, runStartTime, result1, result2);
+      } catch (RuntimeException e) {
+        inFlight.release();
+        throw e;
+      } finally {
+        if (trace != null) {
+          // Only the submission runs on this thread.
+          OperationTracer.end(trace, measurementPrefix + "SCAN", Status.BATCHED_OK, System.nanoTime());
+        }
       }
-      val = 0;
-      for(int i = 0; i < result2.size(); i++) {
+      return whenComplete(stage, new BiConsumer<Status, Throwable>() {
+          @Override
+          public void accept(Status status, Throwable error) {
+            Status res = outcome(status, error);
+            measureScanResultCount(result1, result2);
+            measure("SCAN", res, ist, st, System.nanoTime());
+            reportStatus("SCAN", res);
+            scanResults.submit(key, result1, result2);
+          }
+        });
+    }
+  }
 
-        String hashVal = result2.get(i).get("field0").toString();
+  /** 2020.10.07 TTA: Scan row count 0 return. */
+  private void measureScanResultCount(Vector<HashMap<String, ByteIterator>> result1,
+                                      Vector<HashMap<String, ByteIterator>> result2) {
+    if(result1.size()==0 && result2.size()==0)
+    {
+      measurements.measureResultCount(measurementPrefix + "SCAN",1,1);
+    }
+    else if(result1.size()==0)
+    {
+      measurements.measureResultCount(measurementPrefix + "SCAN",1,0);
+    }
+    else if(result2.size()==0)
+    {
+      measurements.measureResultCount(measurementPrefix + "SCAN",0,1);
+    }
+  }
 
-        val =  val + Double.valueOf(hashVal.split(":")[2]).doubleValue();
+  /**
+   * Runs the measurement callback when the stage completes and releases the in-flight permit.
+   *
+   * @return The outcome if the operation has already completed, otherwise {@link Status#BATCHED_OK}.
+   */
+  private Status whenComplete(CompletionStage<Status> stage, final BiConsumer<Status, Throwable> onComplete) {
+    final Status[] completed = new Status[1];
+    stage.whenComplete(new BiConsumer<Status, Throwable>() {
+        @Override
+        public void accept(Status status, Throwable error) {
+          try {
+            completed[0] = outcome(status, error);
+            onComplete.accept(status, error);
+          } finally {
+            inFlight.release();
+          }
+        }
+      });
+    // Only the client thread reads the result, and only if the stage completed on this thread.
+    Status res = completed[0];
+    return res != null ? res : Status.BATCHED_OK;
+  }
 
-      }
-      if( val > 0) {
-        double avgVal2 = val / result2.size();
-        System.out.println("30 Min Window Time Interval :: Avg Value for " + key + "=" + avgVal2);
-      }
-      return res;
+  private static Status outcome(Status status, Throwable error) {
+    if (error != null) {
+      System.err.println("Asynchronous operation failed: " + error);
+      return Status.ERROR;
     }
+    return status == null ? Status.ERROR : status;
   }
+
   private void measure(String op, Status result, long intendedStartTimeNanos,
                        long startTimeNanos, long endTimeNanos) {
-    String measurementName = op;
+    String measurementName = measurementPrefix + op;
     if (result == null || !result.isOk()) {
       if (this.reportLatencyForEachError ||
           this.latencyTrackedErrors.contains(result.getName())) {
-        measurementName = op + "-" + result.getName();
+        measurementName = measurementPrefix + op + "-" + result.getName();
       } else {
-        measurementName = op + "-FAILED";
+        measurementName = measurementPrefix + op + "-FAILED";
       }
     }
-    measurements.measure(measurementName,
-        (int) ((endTimeNanos - startTimeNanos) / 1000));
+    int latencyUs = (int) ((endTimeNanos - startTimeNanos) / 1000);
+    measurements.measure(measurementName, latencyUs);
     measurements.measureIntended(measurementName,
         (int) ((endTimeNanos - intendedStartTimeNanos) / 1000));
+    if (rateController != null) {
+      rateController.onOutcome(result, latencyUs);
+    }
+  }
+
+  /**
+   * @return A scope of the HTrace tracer, or null if it samples nothing.
+   */
+  private TraceScope newScope(String description) {
+    return htrace ? tracer.newScope(description) : null;
+  }
+
+  private void reportStatus(String op, Status result) {
+    measurements.reportStatus(measurementPrefix + op, result);
   }
 
   /**
@@ -319,13 +381,17 @@ public class DBWrapper extends DB {
    */
   public Status update(String table, String key,
                        HashMap<String, ByteIterator> values) {
-    try (final TraceScope span = tracer.newScope(scopeStringUpdate)) {
+    try (final TraceScope span = newScope(scopeStringUpdate)) {
       long ist = measurements.getIntendedtartTimeNs();
       long st = System.nanoTime();
+      OperationTracer.Trace trace = OperationTracer.begin(st);
       Status res = db.update(table, key, values);
       long en = System.nanoTime();
+      if (trace != null) {
+        OperationTracer.end(trace, measurementPrefix + "UPDATE", res, en);
+      }
       measure("UPDATE", res, ist, st, en);
-      measurements.reportStatus("UPDATE", res);
+      reportStatus("UPDATE", res);
       return res;
     }
   }
@@ -342,17 +408,53 @@ public class DBWrapper extends DB {
    */
   public Status insert(String table, String key,
                        HashMap<String, ByteIterator> values) {
-    try (final TraceScope span = tracer.newScope(scopeStringInsert)) {
+    if (asyncDb != null) {
+      return insertAsync(table, key, values);
+    }
+    try (final TraceScope span = newScope(scopeStringInsert)) {
       long ist = measurements.getIntendedtartTimeNs();
       long st = System.nanoTime();
+      OperationTracer.Trace trace = OperationTracer.begin(st);
       Status res = db.insert(table, key, values);
       long en = System.nanoTime();
+      if (trace != null) {
+        OperationTracer.end(trace, measurementPrefix + "INSERT", res, en);
+      }
       measure("INSERT", res, ist, st, en);
-      measurements.reportStatus("INSERT", res);
+      reportStatus("INSERT", res);
       return res;
     }
   }
 
+  private Status insertAsync(String table, String key, HashMap<String, ByteIterator> values) {
+    try (final TraceScope span = newScope(scopeStringInsert)) {
+      inFlight.acquireUninterruptibly();
+      final long ist = measurements.getIntendedtartTimeNs();
+      final long st = System.nanoTime();
+      OperationTracer.Trace trace = OperationTracer.begin(st);
+      CompletionStage<Status> stage;
+      try {
+        stage = asyncDb.insertAsync(table, key, values);
+      } catch (RuntimeException e) {
+        inFlight.release();
+        throw e;
+      } finally {
+        if (trace != null) {
+          // Only the submission runs on this thread.
+          OperationTracer.end(trace, measurementPrefix + "INSERT", Status.BATCHED_OK, System.nanoTime());
+        }
+      }
+      return whenComplete(stage, new BiConsumer<Status, Throwable>() {
+          @Override
+          public void accept(Status status, Throwable error) {
+            Status res = outcome(status, error);
+            measure("INSERT", res, ist, st, System.nanoTime());
+            reportStatus("INSERT", res);
+          }
+        });
+    }
+  }
+
   /**
    * Delete a record from the database.
    *
@@ -361,13 +463,17 @@ public class DBWrapper extends DB {
    * @return The result of the operation.
    */
   public Status delete(String table, String key) {
-    try (final TraceScope span = tracer.newScope(scopeStringDelete)) {
+    try (final TraceScope span = newScope(scopeStringDelete)) {
       long ist = measurements.getIntendedtartTimeNs();
       long st = System.nanoTime();
+      OperationTracer.Trace trace = OperationTracer.begin(st);
       Status res = db.delete(table, key);
       long en = System.nanoTime();
+      if (trace != null) {
+        OperationTracer.end(trace, measurementPrefix + "DELETE", res, en);
+      }
       measure("DELETE", res, ist, st, en);
-      measurements.reportStatus("DELETE", res);
+      reportStatus("DELETE", res);
       return res;
     }
   }
@@ -0,0 +1,434 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.yahoo.ycsb.measurements.Measurements;
+
+/**
+ * A pipelined ingest driver, used instead of {@link ClientThread}s when
+ * {@link #PIPELINE_PROPERTY} is set. Record generation and the database calls
+ * run on separate, independently sized stages so that payload generation
+ * overlaps with the network waits of the binding:
+ *
+ * <ul>
+ * <li>Generators take operations from the shared {@link WorkCounter} and fill
+ *     records through {@link Workload#fillInsert(Object, IngestRecord)} into their
+ *     own {@link RecordRing}, paced by the target rate.</li>
+ * <li>Batchers drain the rings and group the records by series (or just by
+ *     count) into batches of {@link #BATCH_SIZE_PROPERTY} records.</li>
+ * <li>Senders take batches from a bounded queue and insert their records one
+ *     by one through their own {@link DB} instance; a binding that buffers its
+ *     writes sees the records of a batch, and of a series, back to back.</li>
+ * </ul>
+ *
+ * Ring occupancy is reported as the PIPELINE_RING_OCCUPANCY gauge each time a
+ * batch is handed on, and batch queue occupancy as the PIPELINE_BATCH_QUEUE
+ * gauge each time a sender takes a batch. The pipeline only generates inserts,
+ * so the workload must support {@link Workload#fillInsert(Object, IngestRecord)},
+ * see {@link Workload#supportsFillInsert()}.
+ */
+public class IngestPipeline {
+
+  /** Whether to drive the inserts through the pipeline. */
+  public static final String PIPELINE_PROPERTY = "pipeline";
+  public static final String PIPELINE_PROPERTY_DEFAULT = "false";
+
+  /** The number of generator threads. */
+  public static final String GENERATORS_PROPERTY = "pipeline.generators";
+  public static final String GENERATORS_PROPERTY_DEFAULT = "1";
+
+  /** The number of batcher threads. */
+  public static final String BATCHERS_PROPERTY = "pipeline.batchers";
+  public static final String BATCHERS_PROPERTY_DEFAULT = "1";
+
+  /** The number of sender threads, each with its own DB instance. */
+  public static final String SENDERS_PROPERTY = "pipeline.senders";
+  public static final String SENDERS_PROPERTY_DEFAULT = "8";
+
+  /** The number of record slots in each generator's ring. */
+  public static final String RING_SIZE_PROPERTY = "pipeline.ringsize";
+  public static final String RING_SIZE_PROPERTY_DEFAULT = "4096";
+
+  /** The number of records in a batch. */
+  public static final String BATCH_SIZE_PROPERTY = "pipeline.batchsize";
+  public static final String BATCH_SIZE_PROPERTY_DEFAULT = "100";
+
+  /** How batchers group records: "series" (one batch per time series) or "size". */
+  public static final String GROUP_BY_PROPERTY = "pipeline.groupby";
+  public static final String GROUP_BY_PROPERTY_DEFAULT = "series";
+
+  /** How long, in ms, a batcher holds on to incomplete batches before sending them anyway. */
+  public static final String LINGER_PROPERTY = "pipeline.lingerms";
+  public static final String LINGER_PROPERTY_DEFAULT = "5";
+
+  /** How long an idle stage parks before looking for work again. */
+  private static final long IDLE_PARK_NS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  /** Marks the end of the batches for one sender. */
+  private static final List<IngestRecord> END_OF_BATCHES = new ArrayList<IngestRecord>(0);
+
+  private final Properties props;
+  private final Workload workload;
+  private final WorkCounter work;
+  private final long workchunk;
+  private final long targetTickNs;
+  private final int batchSize;
+  private final boolean groupBySeries;
+  private final long lingerNs;
+
+  private final RecordRing[] rings;
+  private final BlockingQueue<List<IngestRecord>> batches;
+  private final ConcurrentLinkedQueue<IngestRecord> freeRecords = new ConcurrentLinkedQueue<IngestRecord>();
+  private final AtomicInteger generatorsRunning;
+  private final AtomicInteger batchersRunning;
+  private final List<Sender> senders;
+  private final List<Thread> threads = new ArrayList<Thread>();
+  private final CountDownLatch completeLatch;
+  private final Measurements measurements;
+
+  /** @return True if the properties ask for the pipelined driver. */
+  public static boolean isEnabled(Properties props) {
+    return Boolean.parseBoolean(props.getProperty(PIPELINE_PROPERTY, PIPELINE_PROPERTY_DEFAULT));
+  }
+
+  /** @return The number of sender threads, and so of DB instances, the pipeline needs. */
+  public static int getSenderCount(Properties props) {
+    return Integer.parseInt(props.getProperty(SENDERS_PROPERTY, SENDERS_PROPERTY_DEFAULT));
+  }
+
+  /**
+   * @param props The properties defining the experiment.
+   * @param workload The workload generating the records.
+   * @param dbs One DB instance per sender, see {@link #getSenderCount(Properties)}.
+   * @param work The operations to perform.
+   * @param workchunk The number of operations a generator claims at a time.
+   * @param targetperms The overall target number of operations per ms, or a value <= 0 for no limit.
+   * @param completeLatch Counted down by each sender as it finishes; must be sized for the DB instances.
+   *        The senders run on virtual threads if {@link Client#THREAD_MODE_PROPERTY} asks for them.
+   */
+  public IngestPipeline(Properties props, Workload workload, List<DB> dbs, WorkCounter work, long workchunk,
+                        double targetperms, CountDownLatch completeLatch) {
+    this.props = props;
+    this.workload = workload;
+    this.work = work;
+    this.workchunk = Math.max(1, workchunk);
+    this.completeLatch = completeLatch;
+    this.measurements = Measurements.getMeasurements();
+    batchSize = Integer.parseInt(props.getProperty(BATCH_SIZE_PROPERTY, BATCH_SIZE_PROPERTY_DEFAULT));
+    groupBySeries = "series".equals(props.getProperty(GROUP_BY_PROPERTY, GROUP_BY_PROPERTY_DEFAULT));
+    lingerNs = TimeUnit.MILLISECONDS.toNanos(
+        Long.parseLong(props.getProperty(LINGER_PROPERTY, LINGER_PROPERTY_DEFAULT)));
+
+    int generators = Integer.parseInt(props.getProperty(GENERATORS_PROPERTY, GENERATORS_PROPERTY_DEFAULT));
+    int batchers = Integer.parseInt(props.getProperty(BATCHERS_PROPERTY, BATCHERS_PROPERTY_DEFAULT));
+    int ringSize = Integer.parseInt(props.getProperty(RING_SIZE_PROPERTY, RING_SIZE_PROPERTY_DEFAULT));
+    targetTickNs = targetperms > 0 ? (long) (1000000 * generators / targetperms) : 0;
+
+    rings = new RecordRing[generators];
+    generatorsRunning = new AtomicInteger(generators);
+    for (int i = 0; i < generators; i++) {
+      rings[i] = new RecordRing(ringSize);
+      threads.add(new Thread(new Generator(i, rings[i]), "IngestGenerator-" + i));
+    }
+    batchersRunning = new AtomicInteger(batchers);
+    for (int i = 0; i < batchers; i++) {
+      threads.add(new Thread(new Batcher(i), "IngestBatcher-" + i));
+    }
+    batches = new ArrayBlockingQueue<List<IngestRecord>>(Math.max(1, dbs.size() * 2));
+    boolean virtualsenders = Client.THREAD_MODE_VIRTUAL.equals(props.getProperty(Client.THREAD_MODE_PROPERTY));
+    senders = new ArrayList<Sender>(dbs.size());
+    for (int i = 0; i < dbs.size(); i++) {
+      Sender sender = new Sender(dbs.get(i));
+      senders.add(sender);
+      threads.add(VirtualThreads.newThread(sender, "IngestSender-" + i, virtualsenders));
+    }
+  }
+
+  /** @return The threads of all stages, not yet started. */
+  public List<Thread> getThreads() {
+    return threads;
+  }
+
+  /** @return The sender stages, which account for the completed operations. */
+  List<? extends ClientProgress> getSenders() {
+    return senders;
+  }
+
+  private IngestRecord nextSpare() {
+    IngestRecord spare = freeRecords.poll();
+    return spare != null ? spare : new IngestRecord();
+  }
+
+  private int ringOccupancy() {
+    int occupancy = 0;
+    for (RecordRing ring : rings) {
+      occupancy += ring.size();
+    }
+    return occupancy;
+  }
+
+  /**
+   * Fills records into one ring.
+   */
+  private class Generator implements Runnable {
+    private final int id;
+    private final RecordRing ring;
+
+    Generator(int id, RecordRing ring) {
+      this.id = id;
+      this.ring = ring;
+    }
+
+    @Override
+    public void run() {
+      try {
+        Object state;
+        try {
+          state = workload.initThread(props, id, rings.length);
+        } catch (WorkloadException e) {
+          e.printStackTrace();
+          e.printStackTrace(System.out);
+          return;
+        }
+
+        long startTimeNanos = System.nanoTime();
+        long produced = 0;
+        long claimed = 0;
+        while (!workload.isStopRequested()) {
+          if (claimed == produced) {
+            long granted = work.claim(workchunk);
+            if (granted == 0) {
+              break;
+            }
+            claimed += granted;
+          }
+          IngestRecord record = ring.claim();
+          if (record == null) {
+            LockSupport.parkNanos(IDLE_PARK_NS);
+            continue;
+          }
+          if (!workload.fillInsert(state, record)) {
+            break;
+          }
+          ring.publish();
+          produced++;
+          if (targetTickNs > 0) {
+            long deadline = startTimeNanos + produced * targetTickNs;
+            ClientThread.sleepUntil(deadline);
+          }
+        }
+      } finally {
+        generatorsRunning.decrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Groups the records of all rings into batches.
+   */
+  private class Batcher implements Runnable {
+    private final int id;
+    private final Map<String, List<IngestRecord>> open = new HashMap<String, List<IngestRecord>>();
+
+    Batcher(int id) {
+      this.id = id;
+    }
+
+    @Override
+    public void run() {
+      try {
+        IngestRecord spare = nextSpare();
+        long lastFlushNanos = System.nanoTime();
+        while (true) {
+          boolean idle = true;
+          for (int i = 0; i < rings.length; i++) {
+            RecordRing ring = rings[(id + i) % rings.length];
+            for (int taken = 0; taken < batchSize; taken++) {
+              IngestRecord record = ring.poll(spare);
+              if (record == null) {
+                break;
+              }
+              spare = nextSpare();
+              add(record);
+              idle = false;
+            }
+          }
+
+          long now = System.nanoTime();
+          if (now - lastFlushNanos >= lingerNs) {
+            emitAll();
+            lastFlushNanos = now;
+          }
+          if (idle) {
+            // Check the generators before the rings, so nothing they publish last is missed.
+            if (generatorsRunning.get() == 0 && ringOccupancy() == 0) {
+              emitAll();
+              break;
+            }
+            LockSupport.parkNanos(IDLE_PARK_NS);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        if (batchersRunning.decrementAndGet() == 0) {
+          endBatches();
+        }
+      }
+    }
+
+    /** Tells every sender to stop, waiting for room in the queue if the senders are behind. */
+    private void endBatches() {
+      boolean interrupted = false;
+      for (int i = 0; i < senders.size(); i++) {
+        while (true) {
+          try {
+            batches.put(END_OF_BATCHES);
+            break;
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private void add(IngestRecord record) throws InterruptedException {
+      String group = groupBySeries ? record.getSeries() : "";
+      List<IngestRecord> batch = open.get(group);
+      if (batch == null) {
+        batch = new ArrayList<IngestRecord>(batchSize);
+        open.put(group, batch);
+      }
+      batch.add(record);
+      if (batch.size() >= batchSize) {
+        open.remove(group);
+        emit(batch);
+      }
+    }
+
+    private void emitAll() throws InterruptedException {
+      for (List<IngestRecord> batch : open.values()) {
+        emit(batch);
+      }
+      open.clear();
+    }
+
+    private void emit(List<IngestRecord> batch) throws InterruptedException {
+      measurements.measureGauge("PIPELINE_RING_OCCUPANCY", ringOccupancy());
+      batches.put(batch);
+    }
+  }
+
+  /**
+   * Writes batches through one DB instance.
+   */
+  private class Sender implements Runnable, ClientProgress {
+    private final DB db;
+    private volatile long opsdone;
+    private volatile long runtimeMs;
+
+    Sender(DB db) {
+      this.db = db;
+    }
+
+    @Override
+    public void run() {
+      boolean initialized = true;
+      try {
+        db.init();
+      } catch (DBException e) {
+        e.printStackTrace();
+        e.printStackTrace(System.out);
+        // Without this sender the others may not keep up, so stop generating;
+        // the batches already queued are still drained below.
+        workload.requestStop();
+        initialized = false;
+      }
+
+      long start = System.currentTimeMillis();
+      try {
+        while (true) {
+          List<IngestRecord> batch = batches.take();
+          if (batch == END_OF_BATCHES) {
+            break;
+          }
+          measurements.measureGauge("PIPELINE_BATCH_QUEUE", batches.size());
+          for (IngestRecord record : batch) {
+            if (initialized) {
+              db.insert(record.getTable(), record.getKey(), record.getValues());
+              opsdone++;
+            }
+            record.clear();
+            freeRecords.offer(record);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      runtimeMs = System.currentTimeMillis() - start;
+
+      try {
+        if (initialized) {
+          measurements.setIntendedStartTimeNs(0);
+          db.cleanup();
+        }
+      } catch (DBException e) {
+        e.printStackTrace();
+        e.printStackTrace(System.out);
+      } finally {
+        completeLatch.countDown();
+      }
+    }
+
+    @Override
+    public long getOpsDone() {
+      return opsdone;
+    }
+
+    @Override
+    public long getOpsTodo() {
+      return 0;
+    }
+
+    @Override
+    public long getRunTimeMs() {
+      return runtimeMs;
+    }
+
+    @Override
+    public WorkCounter getWorkCounter() {
+      return work;
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import java.util.HashMap;
+
+/**
+ * A record on its way through the {@link IngestPipeline}. Instances are
+ * allocated once and recycled: a generator fills the one in its ring slot,
+ * a batcher swaps it out of the slot for an empty one, and the sender hands
+ * it back once the record has been written.
+ */
+public class IngestRecord {
+  private String table;
+  private String key;
+  private String series;
+  private HashMap<String, ByteIterator> values;
+
+  /**
+   * Fills the record.
+   *
+   * @param table The name of the table
+   * @param key The record key
+   * @param series The time series the record belongs to, used to group records into batches
+   * @param values The field/value pairs of the record
+   */
+  public void set(String table, String key, String series, HashMap<String, ByteIterator> values) {
+    this.table = table;
+    this.key = key;
+    this.series = series;
+    this.values = values;
+  }
+
+  /** Drops the references to the record data so it can be collected while the holder is recycled. */
+  public void clear() {
+    set(null, null, null, null);
+  }
+
+  public String getTable() {
+    return table;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public String getSeries() {
+    return series;
+  }
+
+  public HashMap<String, ByteIterator> getValues() {
+    return values;
+  }
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of direct {@link ByteBuffer} slabs for bindings that stage large write
+ * batches. A batch of thousands of 1 KB values held as on-heap arrays lives long
+ * enough to be promoted to the old generation, so a binding instead copies each
+ * value into the slabs of a {@link Batch}, and only makes on-heap copies (or
+ * views) when it hands the batch to the client library. Releasing the batch
+ * after the flush returns its slabs to the arena for the next one.
+ *
+ * The arena may be shared by all threads; a batch must be used by one thread at a time.
+ */
+public class OffHeapArena {
+
+  /** The size of each slab, in bytes. */
+  public static final String SLAB_SIZE_PROPERTY = "offheap.slabsize";
+  public static final String SLAB_SIZE_PROPERTY_DEFAULT = "4194304";
+
+  /** The most free slabs kept for reuse; slabs released beyond that are left to the GC. */
+  public static final String MAX_POOLED_SLABS_PROPERTY = "offheap.maxpooledslabs";
+  public static final String MAX_POOLED_SLABS_PROPERTY_DEFAULT = "64";
+
+  /** The size of the on-heap chunks values are copied through. */
+  private static final int COPY_CHUNK = 4096;
+
+  private final int slabSize;
+  private final int maxPooledSlabs;
+  private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+  private final AtomicInteger pooled = new AtomicInteger();
+  private final AtomicLong allocatedBytes = new AtomicLong();
+
+  /**
+   * @param slabSize The size of each slab, in bytes.
+   * @param maxPooledSlabs The most free slabs kept for reuse.
+   */
+  public OffHeapArena(int slabSize, int maxPooledSlabs) {
+    if (slabSize <= 0) {
+      throw new IllegalArgumentException(SLAB_SIZE_PROPERTY + " must be positive");
+    }
+    this.slabSize = slabSize;
+    this.maxPooledSlabs = maxPooledSlabs;
+  }
+
+  /** Creates an arena set up by {@link #SLAB_SIZE_PROPERTY} and {@link #MAX_POOLED_SLABS_PROPERTY}. */
+  public OffHeapArena(Properties props) {
+    this(Integer.parseInt(props.getProperty(SLAB_SIZE_PROPERTY, SLAB_SIZE_PROPERTY_DEFAULT)),
+        Integer.parseInt(props.getProperty(MAX_POOLED_SLABS_PROPERTY, MAX_POOLED_SLABS_PROPERTY_DEFAULT)));
+  }
+
+  /** @return A new, empty batch staging its values in this arena. */
+  public Batch newBatch() {
+    return new Batch();
+  }
+
+  /** @return The bytes of direct memory the arena allocated so far. */
+  public long getAllocatedBytes() {
+    return allocatedBytes.get();
+  }
+
+  /** @return The number of free slabs waiting to be reused. */
+  public int getPooledSlabs() {
+    return pooled.get();
+  }
+
+  private ByteBuffer acquire(int minSize) {
+    if (minSize <= slabSize) {
+      ByteBuffer slab = free.poll();
+      if (slab != null) {
+        pooled.decrementAndGet();
+        slab.clear();
+        return slab;
+      }
+    }
+    // Values larger than a slab get a buffer of their own, which is not pooled.
+    int size = Math.max(minSize, slabSize);
+    allocatedBytes.addAndGet(size);
+    return ByteBuffer.allocateDirect(size);
+  }
+
+  private void recycle(ByteBuffer slab) {
+    if (slab.capacity() == slabSize && pooled.incrementAndGet() <= maxPooledSlabs) {
+      free.offer(slab);
+    } else {
+      if (slab.capacity() == slabSize) {
+        pooled.decrementAndGet();
+      }
+      allocatedBytes.addAndGet(-slab.capacity());
+    }
+  }
+
+  /**
+   * The staged values of one batch. Each appended value gets an index, in order,
+   * by which it is read back at flush time.
+   */
+  public final class Batch {
+    private final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+    /** The slab of each value in the high 32 bits, its offset in the low ones. */
+    private long[] locations = new long[1024];
+    private int[] lengths = new int[1024];
+    private int count;
+    private long bytes;
+    private byte[] chunk;
+
+    private Batch() {
+    }
+
+    /**
+     * Copies the remaining bytes of the iterator into the batch.
+     *
+     * @return The index of the value.
+     */
+    public int append(ByteIterator value) {
+      long left = value.bytesLeft();
+      if (left != (int) left) {
+        throw new IllegalArgumentException("Value too large to stage: " + left + " bytes");
+      }
+      ByteBuffer slab = reserve((int) left);
+      if (chunk == null) {
+        chunk = new byte[COPY_CHUNK];
+      }
+      int copied = 0;
+      while (copied < left) {
+        int n = value.nextBuf(chunk, 0);
+        if (n == 0) {
+          break;
+        }
+        slab.put(chunk, 0, n);
+        copied += n;
+      }
+      return add(slab, copied);
+    }
+
+    /**
+     * Copies the given bytes into the batch.
+     *
+     * @return The index of the value.
+     */
+    public int append(byte[] value, int off, int len) {
+      ByteBuffer slab = reserve(len);
+      slab.put(value, off, len);
+      return add(slab, len);
+    }
+
+    /** @return The number of values in the batch. */
+    public int size() {
+      return count;
+    }
+
+    /** @return The number of value bytes in the batch. */
+    public long bytes() {
+      return bytes;
+    }
+
+    /** @return The length of the value with the given index. */
+    public int length(int index) {
+      check(index);
+      return lengths[index];
+    }
+
+    /**
+     * Copies a value to the heap, for client libraries that only take arrays.
+     */
+    public byte[] toArray(int index) {
+      ByteBuffer view = view(index);
+      byte[] value = new byte[view.remaining()];
+      view.get(value);
+      return value;
+    }
+
+    /**
+     * @return A read-only view of a value, valid until the batch is released.
+     */
+    public ByteBuffer view(int index) {
+      check(index);
+      long location = locations[index];
+      ByteBuffer view = slabs.get((int) (location >>> 32)).duplicate();
+      int offset = (int) location;
+      view.limit(offset + lengths[index]);
+      view.position(offset);
+      return view.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the slabs to the arena. The batch is empty afterwards and may be reused.
+     */
+    public void release() {
+      for (ByteBuffer slab : slabs) {
+        recycle(slab);
+      }
+      slabs.clear();
+      count = 0;
+      bytes = 0;
+    }
+
+    /** @return The slab to put the next value of the given size into. */
+    private ByteBuffer reserve(int len) {
+      ByteBuffer current = slabs.isEmpty() ? null : slabs.get(slabs.size() - 1);
+      if (current == null || current.remaining() < len) {
+        current = acquire(len);
+        slabs.add(current);
+      }
+      return current;
+    }
+
+    private int add(ByteBuffer slab, int len) {
+      if (count == locations.length) {
+        locations = Arrays.copyOf(locations, count * 2);
+        lengths = Arrays.copyOf(lengths, count * 2);
+      }
+      locations[count] = ((long) (slabs.size() - 1) << 32) | (slab.position() - len);
+      lengths[count] = len;
+      bytes += len;
+      return count++;
+    }
+
+    private void check(int index) {
+      if (index < 0 || index >= count) {
+        throw new IndexOutOfBoundsException("No value " + index + " in a batch of " + count);
+      }
+    }
+  }
+}
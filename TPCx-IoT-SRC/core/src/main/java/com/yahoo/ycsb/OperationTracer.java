@@ -0,0 +1,316 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.yahoo.ycsb.measurements.Measurements;
+import com.yahoo.ycsb.measurements.exporter.MeasurementsExporter;
+
+/**
+ * Traces a sample of the operations down to the stages of the binding, e.g. encoding
+ * the values, waiting for the write buffer, flushing it or the round trip of a query.
+ *
+ * {@link DBWrapper} traces one in {@link #SAMPLE_PROPERTY} operations, and with
+ * {@link #SLOW_PROPERTY} also any operation slower than that. A binding marks a stage by
+ * taking {@link #start()} before it and calling {@link #span(String, long)} after it;
+ * for operations that are not traced, start() returns 0 and span() does nothing. Each
+ * traced operation is written as one line, with the offset and the duration of each
+ * stage, to {@link #FILE_PROPERTY}.
+ *
+ * Without either property nothing is traced, and the calls cost the read of a static
+ * field. With only the sample rate, operations not sampled cost a thread local lookup.
+ * With the slow threshold every operation records its stages into arrays of its thread,
+ * as it is only known at the end which ones to write.
+ *
+ * With {@link Measurements#MEASUREMENT_STAGES_PROPERTY} every operation records its
+ * stages too, and the time it spent in each is measured as a histogram of the stage
+ * per operation, e.g. INSERT.flush, next to the latency of the whole operation. The
+ * stages bindings report are named by the STAGE_ constants.
+ *
+ * The stages of an asynchronous operation are only traced while it runs on the client thread.
+ */
+public final class OperationTracer {
+
+  /** Trace one in this many operations of each thread; 0 samples none. */
+  public static final String SAMPLE_PROPERTY = "trace.sample";
+  public static final String SAMPLE_PROPERTY_DEFAULT = "0";
+
+  /** Also trace every operation slower than this, in ms; 0 traces none for being slow. */
+  public static final String SLOW_PROPERTY = "trace.slowms";
+  public static final String SLOW_PROPERTY_DEFAULT = "0";
+
+  /** The file to write the traces to; by default stderr. */
+  public static final String FILE_PROPERTY = "trace.file";
+
+  /** Turning the values into what the client library takes. */
+  public static final String STAGE_ENCODE = "encode";
+  /** Waiting for a shared buffer or lock before the write is accepted. */
+  public static final String STAGE_QUEUE_WAIT = "queue-wait";
+  /** A round trip to the database. */
+  public static final String STAGE_RPC = "rpc";
+  /** Turning the response into the results of the operation. */
+  public static final String STAGE_DECODE = "decode";
+  /** Writing out a buffered batch. */
+  public static final String STAGE_FLUSH = "flush";
+
+  /** The most stages recorded per operation; later ones are dropped. */
+  private static final int MAX_SPANS = 32;
+
+  /** Null while tracing is off. Set before the client threads start, so it need not be volatile. */
+  private static OperationTracer active;
+
+  private static final ThreadLocal<Trace> CURRENT = new ThreadLocal<Trace>() {
+    @Override
+    protected Trace initialValue() {
+      return new Trace();
+    }
+  };
+
+  private static final AtomicLong SAMPLED = new AtomicLong();
+  private static final AtomicLong SLOW = new AtomicLong();
+
+  private final int sampleEvery;
+  private final long slowNs;
+  private final boolean stages;
+  private Writer out;
+  private final boolean ownsOut;
+
+  /**
+   * The stages of the current operation of one thread.
+   */
+  public static final class Trace {
+    private final String[] names = new String[MAX_SPANS];
+    private final long[] starts = new long[MAX_SPANS];
+    private final long[] ends = new long[MAX_SPANS];
+    private int spans;
+    private boolean recording;
+    private boolean sampled;
+    private long startNs;
+    private long operations;
+
+    private Trace() {
+    }
+
+    private void add(String name, long start, long end) {
+      if (spans < MAX_SPANS) {
+        names[spans] = name;
+        starts[spans] = start;
+        ends[spans] = end;
+        spans++;
+      }
+    }
+  }
+
+  OperationTracer(Properties props) throws IOException {
+    sampleEvery = Integer.parseInt(props.getProperty(SAMPLE_PROPERTY, SAMPLE_PROPERTY_DEFAULT));
+    slowNs = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(props.getProperty(SLOW_PROPERTY, SLOW_PROPERTY_DEFAULT)));
+    stages = measuresStages(props);
+    String file = props.getProperty(FILE_PROPERTY);
+    ownsOut = file != null;
+    OutputStream stream = file != null ? new FileOutputStream(file) : System.err;
+    out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+  }
+
+  /** @return True if the properties ask for any operations to be traced or broken down by stage. */
+  public static boolean isEnabled(Properties props) {
+    return Integer.parseInt(props.getProperty(SAMPLE_PROPERTY, SAMPLE_PROPERTY_DEFAULT)) > 0
+        || Long.parseLong(props.getProperty(SLOW_PROPERTY, SLOW_PROPERTY_DEFAULT)) > 0
+        || measuresStages(props);
+  }
+
+  private static boolean measuresStages(Properties props) {
+    return Boolean.parseBoolean(props.getProperty(Measurements.MEASUREMENT_STAGES_PROPERTY,
+        Measurements.MEASUREMENT_STAGES_PROPERTY_DEFAULT));
+  }
+
+  /**
+   * Turns tracing on if the properties ask for it. Called by the client before the threads start.
+   *
+   * @throws IOException If the trace file cannot be opened.
+   */
+  public static synchronized void start(Properties props) throws IOException {
+    shutdown();
+    if (isEnabled(props)) {
+      active = new OperationTracer(props);
+    }
+  }
+
+  /** Turns tracing off and writes out the traces. */
+  public static synchronized void shutdown() {
+    if (active != null) {
+      active.close();
+      active = null;
+    }
+  }
+
+  /** Exports the number of traced operations, if any were traced. */
+  public static void exportMeasurements(MeasurementsExporter exporter) throws IOException {
+    if (SAMPLED.get() > 0 || SLOW.get() > 0) {
+      exporter.write("TRACE", "Sampled", SAMPLED.get());
+      exporter.write("TRACE", "Slow", SLOW.get());
+    }
+  }
+
+  /**
+   * @return The time to pass to {@link #span(String, long)} at the end of a stage, or 0 if
+   *         the operation of this thread is not traced.
+   */
+  public static long start() {
+    if (active == null) {
+      return 0;
+    }
+    return CURRENT.get().recording ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Records a stage of the operation of this thread, from the given start until now.
+   *
+   * @param name The name of the stage, e.g. flush.
+   * @param startNs The value {@link #start()} returned before the stage.
+   */
+  public static void span(String name, long startNs) {
+    if (startNs != 0 && active != null) {
+      Trace trace = CURRENT.get();
+      if (trace.recording) {
+        trace.add(name, startNs, System.nanoTime());
+      }
+    }
+  }
+
+  /**
+   * Starts the trace of an operation, if it is to be traced. Called by {@link DBWrapper}.
+   *
+   * @return The trace to finish with {@link #end}, or null.
+   */
+  static Trace begin(long startNs) {
+    OperationTracer tracer = active;
+    if (tracer == null) {
+      return null;
+    }
+    Trace trace = CURRENT.get();
+    trace.sampled = tracer.sampleEvery > 0 && ++trace.operations % tracer.sampleEvery == 0;
+    if (!trace.sampled && tracer.slowNs <= 0 && !tracer.stages) {
+      return null;
+    }
+    trace.recording = true;
+    trace.spans = 0;
+    trace.startNs = startNs;
+    return trace;
+  }
+
+  /**
+   * Finishes the trace of an operation, measures its stages if they are broken down, and
+   * writes it if it was sampled or slow.
+   */
+  static void end(Trace trace, String op, Status status, long endNs) {
+    trace.recording = false;
+    OperationTracer tracer = active;
+    if (tracer == null) {
+      return;
+    }
+    if (tracer.stages) {
+      measureStages(trace, op);
+    }
+    boolean isSlow = tracer.slowNs > 0 && endNs - trace.startNs >= tracer.slowNs;
+    if (trace.sampled || isSlow) {
+      (trace.sampled ? SAMPLED : SLOW).incrementAndGet();
+      tracer.write(format(trace, op, status, endNs, isSlow));
+    }
+  }
+
+  /**
+   * Measures the total time of each stage; a stage may be entered more than once, e.g.
+   * for the two queries of a TPCx-IoT scan.
+   */
+  private static void measureStages(Trace trace, String op) {
+    Measurements measurements = Measurements.getMeasurements();
+    for (int i = 0; i < trace.spans; i++) {
+      String name = trace.names[i];
+      boolean seen = false;
+      for (int j = 0; j < i && !seen; j++) {
+        seen = trace.names[j].equals(name);
+      }
+      if (seen) {
+        continue;
+      }
+      long ns = 0;
+      for (int j = i; j < trace.spans; j++) {
+        if (trace.names[j].equals(name)) {
+          ns += trace.ends[j] - trace.starts[j];
+        }
+      }
+      measurements.measureStage(op, name, (int) (ns / 1000));
+    }
+  }
+
+  /**
+   * @return The line of a trace: the operation, its status and duration, why it was traced,
+   *         and each stage as name=+offset/duration in us.
+   */
+  static String format(Trace trace, String op, Status status, long endNs, boolean isSlow) {
+    StringBuilder sb = new StringBuilder(64 + trace.spans * 24);
+    sb.append(op).append(' ').append(status == null ? "null" : status.getName());
+    sb.append(' ').append((endNs - trace.startNs) / 1000).append("us");
+    sb.append(trace.sampled ? " sampled" : "").append(isSlow ? " slow" : "");
+    for (int i = 0; i < trace.spans; i++) {
+      sb.append(' ').append(trace.names[i]).append("=+")
+          .append((trace.starts[i] - trace.startNs) / 1000).append('/')
+          .append((trace.ends[i] - trace.starts[i]) / 1000).append("us");
+    }
+    return sb.toString();
+  }
+
+  private synchronized void write(String line) {
+    if (out == null) {
+      return;
+    }
+    try {
+      out.write(line);
+      out.write('\n');
+    } catch (IOException e) {
+      System.err.println("Could not write the trace file, no longer tracing: " + e);
+      out = null;
+    }
+  }
+
+  private synchronized void close() {
+    if (out == null) {
+      return;
+    }
+    try {
+      if (ownsOut) {
+        out.close();
+      } else {
+        out.flush();
+      }
+    } catch (IOException e) {
+      System.err.println("Could not write the trace file: " + e);
+    }
+    out = null;
+  }
+}
@@ -0,0 +1,259 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import com.yahoo.ycsb.measurements.Measurements;
+import com.yahoo.ycsb.measurements.exporter.BufferingMeasurementsExporter;
+import com.yahoo.ycsb.measurements.exporter.MeasurementsExporter;
+
+/**
+ * Runs the client threads through a schedule of timed phases within one run, e.g.
+ * a warm-up, a ramp to the target, a measured steady state and a cool-down, so
+ * that the JIT, connection pools and binding caches stay warm between them.
+ *
+ * The phases are listed in {@link #PHASES_PROPERTY}; each phase "name" is set up with:
+ * <ul>
+ * <li><b>phase.name.duration</b>: how long the phase lasts, in seconds (required)</li>
+ * <li><b>phase.name.target</b>: the target operations per second over all threads, 0 for
+ *     no limit (default: "target")</li>
+ * <li><b>phase.name.threads</b>: the number of threads running operations; the others wait
+ *     (default: "threadcount")</li>
+ * <li><b>phase.name.ramp</b>: if true, the target rises linearly from the target of the
+ *     previous phase over the duration (default: false)</li>
+ * <li><b>phase.name.measure</b>: whether the measurements of the phase are exported
+ *     (default: true)</li>
+ * </ul>
+ *
+ * The measurements are reset as each phase starts. Those of a measured phase are
+ * exported with the phase name as prefix, e.g. [steady_INSERT], after a
+ * [steady_OVERALL] summary. The threads stop when the schedule is over.
+ */
+public class PhaseScheduler extends Thread {
+
+  /** The comma separated names of the phases, in order. Empty runs without a schedule. */
+  public static final String PHASES_PROPERTY = "phases";
+
+  /** All settings of a phase start with this prefix and the phase name. */
+  public static final String PHASE_PROPERTY_PREFIX = "phase.";
+
+  /** How often a ramping phase raises the target. */
+  private static final long RAMP_STEP_MS = 1000;
+
+  /**
+   * One phase of the schedule.
+   */
+  public static final class Phase {
+    private final String name;
+    private final long durationMs;
+    private final int target;
+    private final int threads;
+    private final boolean ramp;
+    private final boolean measure;
+
+    Phase(String name, long durationMs, int target, int threads, boolean ramp, boolean measure) {
+      this.name = name;
+      this.durationMs = durationMs;
+      this.target = target;
+      this.threads = threads;
+      this.ramp = ramp;
+      this.measure = measure;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getDurationMs() {
+      return durationMs;
+    }
+
+    public int getTarget() {
+      return target;
+    }
+
+    public int getThreads() {
+      return threads;
+    }
+
+    public boolean isRamp() {
+      return ramp;
+    }
+
+    public boolean isMeasured() {
+      return measure;
+    }
+  }
+
+  private final List<Phase> phases;
+  private final List<ClientThread> clients;
+  private final Measurements measurements;
+  private final BufferingMeasurementsExporter exported = new BufferingMeasurementsExporter();
+
+  /**
+   * Reads the schedule from the properties.
+   *
+   * @param props The properties defining the experiment.
+   * @param defaultthreads The thread count of phases that do not set their own.
+   * @param defaulttarget The target of phases that do not set their own.
+   * @return The phases, empty if no schedule is configured.
+   * @throws IllegalArgumentException if a phase is not set up correctly.
+   */
+  public static List<Phase> parse(Properties props, int defaultthreads, int defaulttarget) {
+    String names = props.getProperty(PHASES_PROPERTY, "").trim();
+    if (names.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<Phase> phases = new ArrayList<Phase>();
+    for (String name : names.split(",")) {
+      name = name.trim();
+      String prefix = PHASE_PROPERTY_PREFIX + name + ".";
+      String duration = props.getProperty(prefix + "duration");
+      if (duration == null) {
+        throw new IllegalArgumentException("Missing property: " + prefix + "duration");
+      }
+      int threads = Integer.parseInt(props.getProperty(prefix + "threads", String.valueOf(defaultthreads)));
+      if (threads < 1) {
+        throw new IllegalArgumentException(prefix + "threads must be at least 1");
+      }
+      phases.add(new Phase(name,
+          Long.parseLong(duration) * 1000,
+          Integer.parseInt(props.getProperty(prefix + "target", String.valueOf(defaulttarget))),
+          threads,
+          Boolean.parseBoolean(props.getProperty(prefix + "ramp", "false")),
+          Boolean.parseBoolean(props.getProperty(prefix + "measure", "true"))));
+    }
+    return phases;
+  }
+
+  /** @return The number of threads the busiest phase runs. */
+  public static int getMaxThreads(List<Phase> phases) {
+    int max = 0;
+    for (Phase phase : phases) {
+      max = Math.max(max, phase.getThreads());
+    }
+    return max;
+  }
+
+  /**
+   * Sets the clients up for the first phase, so they can be started right away.
+   *
+   * @param phases The schedule, not empty.
+   * @param clients The client threads, at least as many as {@link #getMaxThreads(List)}.
+   */
+  PhaseScheduler(List<Phase> phases, List<ClientThread> clients) {
+    super("PhaseScheduler");
+    this.phases = phases;
+    this.clients = clients;
+    this.measurements = Measurements.getMeasurements();
+    Phase first = phases.get(0);
+    // A target of 0 means no limit, so a ramp starts from 1 op/sec.
+    applyLoad(clients, first.getThreads(), first.isRamp() ? 1 : first.getTarget());
+  }
+
+  @Override
+  public void run() {
+    try {
+      int previousTarget = 0;
+      for (Phase phase : phases) {
+        System.err.println("Starting phase " + phase.getName() + ": " + phase.getThreads() + " threads, target "
+            + phase.getTarget() + " ops/sec" + (phase.isRamp() ? " (ramp)" : "") + " for "
+            + phase.getDurationMs() / 1000 + " secs");
+        measurements.reset();
+        long start = System.currentTimeMillis();
+        long startOps = getOpsDone(clients);
+
+        if (phase.isRamp()) {
+          long end = start + phase.getDurationMs();
+          long now = start;
+          while (now < end) {
+            double done = (double) (now - start) / phase.getDurationMs();
+            applyLoad(clients, phase.getThreads(),
+                Math.max(1, (int) (previousTarget + (phase.getTarget() - previousTarget) * done)));
+            Thread.sleep(Math.min(RAMP_STEP_MS, end - now));
+            now = System.currentTimeMillis();
+          }
+        } else {
+          applyLoad(clients, phase.getThreads(), phase.getTarget());
+          Thread.sleep(phase.getDurationMs());
+        }
+
+        if (phase.isMeasured()) {
+          export(phase, System.currentTimeMillis() - start, getOpsDone(clients) - startOps);
+        }
+        previousTarget = phase.getTarget();
+      }
+      measurements.reset();
+    } catch (InterruptedException e) {
+      System.err.println("Phase schedule interrupted.");
+    } catch (IOException e) {
+      System.err.println("Could not export phase measurements, error: " + e.getMessage());
+      e.printStackTrace();
+    } finally {
+      for (ClientThread client : clients) {
+        client.requestStop();
+      }
+    }
+  }
+
+  /**
+   * Writes the measurements of the measured phases.
+   */
+  public void exportPhases(MeasurementsExporter exporter) throws IOException {
+    exported.replay(exporter);
+  }
+
+  /**
+   * Runs the first <code>threads</code> clients at an equal share of the target and pauses the rest.
+   */
+  static void applyLoad(List<ClientThread> clients, int threads, int target) {
+    int active = Math.min(threads, clients.size());
+    double targetperthreadperms = target > 0 ? target / 1000.0 / active : -1;
+    for (int i = 0; i < clients.size(); i++) {
+      ClientThread client = clients.get(i);
+      client.setTargetPerMs(targetperthreadperms);
+      client.setActive(i < active);
+    }
+  }
+
+  /** @return The operations done by all the clients so far. */
+  static long getOpsDone(List<ClientThread> clients) {
+    long ops = 0;
+    for (ClientThread client : clients) {
+      ops += client.getOpsDone();
+    }
+    return ops;
+  }
+
+  private void export(Phase phase, long runtime, long ops) throws IOException {
+    exported.setMetricPrefix("");
+    String overall = phase.getName() + "_OVERALL";
+    exported.write(overall, "RunTime(ms)", (double) runtime);
+    exported.write(overall, "Operations", (double) ops);
+    exported.write(overall, "Throughput(ops/sec)", 1000.0 * ops / runtime);
+    exported.write(overall, "Threads", phase.getThreads());
+    exported.write(overall, "Target(ops/sec)", phase.getTarget());
+    exported.setMetricPrefix(phase.getName() + "_");
+    measurements.exportMeasurements(exported);
+  }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded single-producer/multi-consumer ring of pre-allocated
+ * {@link IngestRecord} slots.
+ *
+ * Every slot carries a sequence number telling whose turn it is: the slot at
+ * position p may be filled by the producer when its sequence is p, and taken
+ * by a consumer when its sequence is p + 1. Consumers race for positions with
+ * a CAS on the shared tail; the producer owns the head alone.
+ *
+ * Consumers take a record by swapping an empty one into the slot, so records
+ * can be held in a batch after the slot has been handed back to the producer.
+ */
+public class RecordRing {
+  private final IngestRecord[] slots;
+  private final AtomicLongArray sequences;
+  private final int mask;
+
+  /** Next position the producer fills. Written by the producer only. */
+  private volatile long head;
+  /** Next position a consumer takes. */
+  private final AtomicLong tail = new AtomicLong();
+
+  /**
+   * @param capacity The number of slots, rounded up to a power of two.
+   */
+  public RecordRing(int capacity) {
+    int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+    slots = new IngestRecord[size];
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      slots[i] = new IngestRecord();
+      sequences.set(i, i);
+    }
+    mask = size - 1;
+  }
+
+  /** @return The number of slots. */
+  public int capacity() {
+    return slots.length;
+  }
+
+  /** @return The number of filled slots not yet taken. */
+  public int size() {
+    long size = head - tail.get();
+    return size < 0 ? 0 : (int) size;
+  }
+
+  /**
+   * Returns the slot record to fill next, or null if the ring is full.
+   * Producer only; the record must be passed to {@link #publish()} once filled.
+   */
+  public IngestRecord claim() {
+    long position = head;
+    if (sequences.get((int) position & mask) != position) {
+      return null;
+    }
+    return slots[(int) position & mask];
+  }
+
+  /**
+   * Makes the record returned by the last {@link #claim()} visible to consumers. Producer only.
+   */
+  public void publish() {
+    long position = head;
+    sequences.set((int) position & mask, position + 1);
+    head = position + 1;
+  }
+
+  /**
+   * Takes the oldest filled record, leaving <code>spare</code> in its slot.
+   *
+   * @param spare An empty record to put in the slot.
+   * @return The filled record, or null if the ring is empty (the spare is then not used).
+   */
+  public IngestRecord poll(IngestRecord spare) {
+    while (true) {
+      long position = tail.get();
+      int index = (int) position & mask;
+      long sequence = sequences.get(index);
+      if (sequence < position + 1) {
+        return null;
+      }
+      if (sequence == position + 1 && tail.compareAndSet(position, position + 1)) {
+        IngestRecord record = slots[index];
+        slots[index] = spare;
+        sequences.set(index, position + slots.length);
+        return record;
+      }
+    }
+  }
+}
@@ -0,0 +1,405 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.yahoo.ycsb.measurements.exporter.MeasurementsExporter;
+
+/**
+ * Averages the sensor values of scan results and logs them, away from the client threads.
+ *
+ * Parsing every row and printing the averages used to happen on the client thread, where
+ * all threads queued up on the lock of System.out. The client threads now only hand
+ * their results to a lock-free queue; one consumer thread parses them and writes the
+ * lines in batches through a buffered writer, flushing whenever the queue runs empty.
+ * When more than {@link #QUEUE_SIZE_PROPERTY} results are waiting, the client thread
+ * processes its own, which bounds the memory held by the queue.
+ *
+ * With {@link #OUTPUT_PROPERTY} set to none nothing is printed, but the aggregates of
+ * all scans are still computed and exported as the SCAN_RESULTS metric for validation.
+ *
+ * A binding that aggregates a window in the database returns a single row made by
+ * {@link #aggregateRow}, which stands for all the readings it sums up.
+ */
+public final class ScanResultProcessor {
+
+  /** Whether scan results are processed on a thread of their own. */
+  public static final String ASYNC_PROPERTY = "scanresults.async";
+  public static final String ASYNC_PROPERTY_DEFAULT = "true";
+
+  /** Where the averages are logged: stdout, none, or the path of a file. */
+  public static final String OUTPUT_PROPERTY = "scanresults.output";
+  public static final String OUTPUT_PROPERTY_DEFAULT = "stdout";
+
+  /** The most scan results waiting for the consumer thread. */
+  public static final String QUEUE_SIZE_PROPERTY = "scanresults.queuesize";
+  public static final String QUEUE_SIZE_PROPERTY_DEFAULT = "100000";
+
+  /** The fields of a row made by {@link #aggregateRow}. */
+  public static final String COUNT_FIELD = "aggregate.count";
+  public static final String SUM_FIELD = "aggregate.sum";
+  public static final String MIN_FIELD = "aggregate.min";
+  public static final String MAX_FIELD = "aggregate.max";
+
+  /** How long the consumer sleeps when the queue is empty. */
+  private static final long IDLE_NS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  private static ScanResultProcessor instance;
+
+  private final ConcurrentLinkedQueue<Job> queue = new ConcurrentLinkedQueue<Job>();
+  private final AtomicInteger queued = new AtomicInteger();
+  private final int queueSize;
+  private final Thread consumer;
+  private volatile boolean closed;
+
+  /** Null if nothing is printed. */
+  private Writer out;
+  private final boolean ownsOut;
+
+  private long scans;
+  private long emptyScans;
+  private long rows;
+  private long latestAverages;
+  private double latestAverageSum;
+  private long windowAverages;
+  private double windowAverageSum;
+  private long malformed;
+  private long processedOnClient;
+
+  /**
+   * The results of one scan. For TPCx-IoT scans the rows of both time windows and the
+   * key, for plain scans only the rows.
+   */
+  private static final class Job {
+    private final String key;
+    private final Vector<HashMap<String, ByteIterator>> latest;
+    private final Vector<HashMap<String, ByteIterator>> window;
+
+    private Job(String key, Vector<HashMap<String, ByteIterator>> latest,
+                Vector<HashMap<String, ByteIterator>> window) {
+      this.key = key;
+      this.latest = latest;
+      this.window = window;
+    }
+  }
+
+  ScanResultProcessor(Properties props) throws IOException {
+    String output = props.getProperty(OUTPUT_PROPERTY, OUTPUT_PROPERTY_DEFAULT);
+    if (output.equals("none")) {
+      out = null;
+      ownsOut = false;
+    } else if (output.equals("stdout")) {
+      out = newWriter(System.out);
+      ownsOut = false;
+    } else {
+      out = newWriter(new FileOutputStream(output));
+      ownsOut = true;
+    }
+    queueSize = Integer.parseInt(props.getProperty(QUEUE_SIZE_PROPERTY, QUEUE_SIZE_PROPERTY_DEFAULT));
+
+    if (Boolean.parseBoolean(props.getProperty(ASYNC_PROPERTY, ASYNC_PROPERTY_DEFAULT))) {
+      consumer = new Thread("ScanResultProcessor") {
+          @Override
+          public void run() {
+            consume();
+          }
+        };
+      consumer.setDaemon(true);
+      consumer.start();
+    } else {
+      consumer = null;
+    }
+  }
+
+  /**
+   * Sets up the processor of the run. Called by the client before the threads start.
+   *
+   * @throws IOException If the output file cannot be opened.
+   */
+  public static synchronized void start(Properties props) throws IOException {
+    if (instance != null) {
+      instance.close();
+    }
+    instance = new ScanResultProcessor(props);
+  }
+
+  /**
+   * @return The processor of the run, one printing to stdout if the client did not set one up.
+   */
+  public static synchronized ScanResultProcessor getInstance() {
+    if (instance == null) {
+      try {
+        instance = new ScanResultProcessor(new Properties());
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Processes the remaining results and closes the output. Called by the client once the
+   * threads are done.
+   */
+  public static synchronized void shutdown() {
+    if (instance != null) {
+      instance.close();
+    }
+  }
+
+  /** Exports the aggregates of the processor of the run, if it processed any scans. */
+  public static synchronized void exportMeasurements(MeasurementsExporter exporter) throws IOException {
+    if (instance != null) {
+      instance.export(exporter);
+    }
+  }
+
+  /**
+   * Submits the results of a TPCx-IoT scan, to log the average of the latest time
+   * interval and of the random window. The results must not be used by the caller afterwards.
+   */
+  public void submit(String key, Vector<HashMap<String, ByteIterator>> latest,
+                     Vector<HashMap<String, ByteIterator>> window) {
+    enqueue(new Job(key, latest, window));
+  }
+
+  /**
+   * Submits the results of a plain scan, to log the value of each row. The results must
+   * not be used by the caller afterwards.
+   */
+  public void submit(Vector<HashMap<String, ByteIterator>> rows) {
+    enqueue(new Job(null, rows, null));
+  }
+
+  /**
+   * @return A row standing for the readings of a window aggregated by the database,
+   *         to return instead of the rows of the readings.
+   */
+  public static HashMap<String, ByteIterator> aggregateRow(long count, double sum, double min, double max) {
+    HashMap<String, ByteIterator> row = new HashMap<String, ByteIterator>();
+    row.put(COUNT_FIELD, new StringByteIterator(Long.toString(count)));
+    row.put(SUM_FIELD, new StringByteIterator(Double.toString(sum)));
+    row.put(MIN_FIELD, new StringByteIterator(Double.toString(min)));
+    row.put(MAX_FIELD, new StringByteIterator(Double.toString(max)));
+    return row;
+  }
+
+  private void enqueue(Job job) {
+    if (consumer != null && !closed) {
+      if (queued.incrementAndGet() <= queueSize) {
+        queue.offer(job);
+        return;
+      }
+      queued.decrementAndGet();
+      synchronized (this) {
+        processedOnClient++;
+      }
+    }
+    process(job);
+  }
+
+  private void consume() {
+    while (true) {
+      Job job = queue.poll();
+      if (job == null) {
+        flush();
+        if (closed) {
+          return;
+        }
+        LockSupport.parkNanos(this, IDLE_NS);
+        continue;
+      }
+      queued.decrementAndGet();
+      process(job);
+    }
+  }
+
+  void close() {
+    closed = true;
+    if (consumer != null) {
+      LockSupport.unpark(consumer);
+      try {
+        consumer.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    // Anything submitted while the consumer was stopping.
+    for (Job job = queue.poll(); job != null; job = queue.poll()) {
+      process(job);
+    }
+    flush();
+    synchronized (this) {
+      if (ownsOut && out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          System.err.println("Could not close the scan result log: " + e);
+        }
+        out = null;
+      }
+    }
+  }
+
+  private synchronized void process(Job job) {
+    try {
+      if (job.key == null) {
+        processRows(job.latest);
+      } else {
+        processWindows(job.key, job.latest, job.window);
+      }
+    } catch (RuntimeException e) {
+      // A row not in the payload format of the workload.
+      malformed++;
+    }
+  }
+
+  private void processWindows(String key, Vector<HashMap<String, ByteIterator>> latest,
+                              Vector<HashMap<String, ByteIterator>> window) {
+    scans++;
+    long latestCount = count(latest);
+    long windowCount = count(window);
+    rows += latestCount + windowCount;
+    if (latestCount > 0) {
+      double avgVal = sum(latest) / latestCount;
+      latestAverages++;
+      latestAverageSum += avgVal;
+      println("Latest Time Interval :: Avg Value for " + key + "=" + avgVal);
+    } else {
+      emptyScans++;
+      if (out != null) {
+        System.err.println("Unable to get query results from database, please check the status of the table ");
+      }
+      return;
+    }
+    double val = sum(window);
+    if (val > 0) {
+      double avgVal2 = val / windowCount;
+      windowAverages++;
+      windowAverageSum += avgVal2;
+      println("30 Min Window Time Interval :: Avg Value for " + key + "=" + avgVal2);
+    }
+  }
+
+  /** @return The number of readings of the rows. */
+  private static long count(Vector<HashMap<String, ByteIterator>> rows) {
+    long count = 0;
+    for (HashMap<String, ByteIterator> row : rows) {
+      ByteIterator aggregated = row.get(COUNT_FIELD);
+      count += aggregated == null ? 1 : Long.parseLong(aggregated.toString());
+    }
+    return count;
+  }
+
+  /** @return The sum of the sensor values of the rows. */
+  private static double sum(Vector<HashMap<String, ByteIterator>> rows) {
+    double val = 0;
+    for (HashMap<String, ByteIterator> row : rows) {
+      ByteIterator aggregated = row.get(SUM_FIELD);
+      val += aggregated == null ? parseValue(field0(row)) : Double.parseDouble(aggregated.toString());
+    }
+    return val;
+  }
+
+  private void processRows(Vector<HashMap<String, ByteIterator>> result) {
+    scans++;
+    rows += result.size();
+    if (result.isEmpty()) {
+      emptyScans++;
+    }
+    for (HashMap<String, ByteIterator> row : result) {
+      String hashVal = field0(row);
+      println("Avg Value for " + hashVal.substring(0, hashVal.indexOf(':')) + "=" + parseValue(hashVal));
+    }
+  }
+
+  private static String field0(HashMap<String, ByteIterator> row) {
+    return row.get("field0").toString();
+  }
+
+  /** @return The sensor value of a payload, the third of its fields. */
+  private static double parseValue(String hashVal) {
+    int first = hashVal.indexOf(':');
+    int second = hashVal.indexOf(':', first + 1);
+    int third = hashVal.indexOf(':', second + 1);
+    return Double.parseDouble(third < 0 ? hashVal.substring(second + 1)
+        : hashVal.substring(second + 1, third));
+  }
+
+  private void println(String line) {
+    if (out == null) {
+      return;
+    }
+    try {
+      out.write(line);
+      out.write('\n');
+    } catch (IOException e) {
+      System.err.println("Could not write the scan result log, no longer logging: " + e);
+      out = null;
+    }
+  }
+
+  private synchronized void flush() {
+    if (out == null) {
+      return;
+    }
+    try {
+      out.flush();
+    } catch (IOException e) {
+      System.err.println("Could not write the scan result log, no longer logging: " + e);
+      out = null;
+    }
+  }
+
+  synchronized void export(MeasurementsExporter exporter) throws IOException {
+    if (scans == 0) {
+      return;
+    }
+    exporter.write("SCAN_RESULTS", "Scans", scans);
+    exporter.write("SCAN_RESULTS", "EmptyScans", emptyScans);
+    exporter.write("SCAN_RESULTS", "Rows", rows);
+    if (latestAverages > 0) {
+      exporter.write("SCAN_RESULTS", "MeanLatestAvg", latestAverageSum / latestAverages);
+    }
+    if (windowAverages > 0) {
+      exporter.write("SCAN_RESULTS", "MeanWindowAvg", windowAverageSum / windowAverages);
+    }
+    exporter.write("SCAN_RESULTS", "Malformed", malformed);
+    if (consumer != null) {
+      exporter.write("SCAN_RESULTS", "ProcessedOnClientThread", processedOnClient);
+    }
+  }
+
+  private static Writer newWriter(OutputStream stream) {
+    return new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 1 << 16);
+  }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import java.util.HashMap;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Adapts a synchronous {@link DB} to the {@link AsyncDB} contract. The
+ * operation runs on the calling thread and the returned stage is already
+ * complete, so legacy bindings behave exactly as they do without the adapter.
+ */
+public class SyncAsyncDB implements AsyncDB {
+  private final DB db;
+
+  public SyncAsyncDB(DB db) {
+    this.db = db;
+  }
+
+  /**
+   * @return The given binding if it supports asynchronous operations, otherwise an adapter for it.
+   */
+  public static AsyncDB of(DB db) {
+    return db instanceof AsyncDB ? (AsyncDB) db : new SyncAsyncDB(db);
+  }
+
+  @Override
+  public CompletionStage<Status> insertAsync(String table, String key, HashMap<String, ByteIterator> values) {
+    return complete(db.insert(table, key, values));
+  }
+
+  @Override
+  public CompletionStage<Status> scanAsync(String table, String key, String client, String timestamp,
+                                           Set<String> fields, long runStartTime,
+                                           Vector<HashMap<String, ByteIterator>> result1,
+                                           Vector<HashMap<String, ByteIterator>> result2) {
+    return complete(db.scan(table, key, client, timestamp, fields, runStartTime, result1, result2));
+  }
+
+  private static CompletionStage<Status> complete(Status status) {
+    return CompletableFuture.completedFuture(status);
+  }
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.yahoo.ycsb.measurements.Measurements;
+import com.yahoo.ycsb.measurements.exporter.BufferingMeasurementsExporter;
+import com.yahoo.ycsb.measurements.exporter.MeasurementsExporter;
+
+/**
+ * Searches, within one run, for the highest target throughput the system under
+ * test sustains while the latency percentile of each operation stays within its
+ * SLA.
+ *
+ * Each probe runs the client threads at one target for {@link #STEP_TIME_PROPERTY}
+ * seconds and then reads the latency percentiles of that probe from
+ * {@link Measurements}, so the measurement type must keep percentiles. A probe passes
+ * if every operation with an SLA completed successfully, stays within it, and the
+ * clients achieved most of the target. The target doubles from
+ * {@link #MIN_TARGET_PROPERTY} until a probe fails, and is then bisected between the
+ * best passing and the lowest failing target (from 0 if nothing passed) until no whole
+ * target is left between the two. When the clients cannot reach a target although the
+ * latencies are fine, the threads are the bottleneck: more of them are activated, up
+ * to "threadcount", and the target is probed again.
+ *
+ * Every probe is exported as SEARCH_STEP_n, and the result as SEARCH.
+ */
+public class ThroughputSearch extends Thread {
+
+  /** Whether to search for the sustainable throughput instead of running at "target". */
+  public static final String SEARCH_PROPERTY = "search";
+  public static final String SEARCH_PROPERTY_DEFAULT = "false";
+
+  /** The latency percentile the SLAs apply to. */
+  public static final String PERCENTILE_PROPERTY = "search.percentile";
+  public static final String PERCENTILE_PROPERTY_DEFAULT = "99";
+
+  /**
+   * The SLA of an operation, in ms, is set with this prefix and the lower case operation
+   * name, e.g. search.sla.insert=50. Operations without an SLA are not checked.
+   */
+  public static final String SLA_PROPERTY_PREFIX = "search.sla.";
+
+  /** How long each probe runs, in seconds. */
+  public static final String STEP_TIME_PROPERTY = "search.steptime";
+  public static final String STEP_TIME_PROPERTY_DEFAULT = "30";
+
+  /** The target of the first probe, in operations per second. */
+  public static final String MIN_TARGET_PROPERTY = "search.mintarget";
+  public static final String MIN_TARGET_PROPERTY_DEFAULT = "1000";
+
+  /** The highest target to probe. */
+  public static final String MAX_TARGET_PROPERTY = "search.maxtarget";
+  public static final String MAX_TARGET_PROPERTY_DEFAULT = "10000000";
+
+  /** The search stops once the failing target is within this fraction of the passing one. */
+  public static final String PRECISION_PROPERTY = "search.precision";
+  public static final String PRECISION_PROPERTY_DEFAULT = "0.05";
+
+  /** The number of threads the first probe runs; more are activated as needed. */
+  public static final String INITIAL_THREADS_PROPERTY = "search.initialthreads";
+
+  /** The most probes to run. */
+  public static final String MAX_STEPS_PROPERTY = "search.maxsteps";
+  public static final String MAX_STEPS_PROPERTY_DEFAULT = "20";
+
+  /** The operations SLAs may be set for. */
+  private static final String[] OPERATIONS = {"INSERT", "SCAN"};
+
+  /** The share of the target the clients must achieve for a probe to pass. */
+  private static final double ACHIEVED_SHARE = 0.9;
+
+  /** The share of each probe spent settling at the new target before measuring. */
+  private static final double SETTLE_SHARE = 0.2;
+
+  private final List<ClientThread> clients;
+  private final Measurements measurements;
+  private final BufferingMeasurementsExporter exported = new BufferingMeasurementsExporter();
+  private final double percentile;
+  private final Map<String, Double> slaUs = new LinkedHashMap<String, Double>();
+  private final long stepMs;
+  private final int minTarget;
+  private final int maxTarget;
+  private final double precision;
+  private final int maxSteps;
+
+  private int threads;
+  private int steps;
+  private int bestTarget;
+  private int bestThreads;
+  private double bestThroughput;
+
+  /** @return True if the properties ask for a search. */
+  public static boolean isEnabled(Properties props) {
+    return Boolean.parseBoolean(props.getProperty(SEARCH_PROPERTY, SEARCH_PROPERTY_DEFAULT));
+  }
+
+  /**
+   * Sets the clients up for the first probe, so they can be started right away.
+   *
+   * @param props The properties defining the experiment.
+   * @param clients The client threads; the search activates up to all of them.
+   * @throws IllegalArgumentException if the measurement type keeps no percentiles.
+   */
+  ThroughputSearch(Properties props, List<ClientThread> clients) {
+    super("ThroughputSearch");
+    this.clients = clients;
+    this.measurements = Measurements.getMeasurements();
+    if (!measurements.hasPercentiles()) {
+      throw new IllegalArgumentException("The search needs latency percentiles, which "
+          + Measurements.MEASUREMENT_TYPE_PROPERTY + "=" + props.getProperty(Measurements.MEASUREMENT_TYPE_PROPERTY)
+          + " does not keep");
+    }
+    percentile = Double.parseDouble(props.getProperty(PERCENTILE_PROPERTY, PERCENTILE_PROPERTY_DEFAULT));
+    for (String operation : OPERATIONS) {
+      String sla = props.getProperty(SLA_PROPERTY_PREFIX + operation.toLowerCase());
+      if (sla != null) {
+        slaUs.put(operation, Double.parseDouble(sla) * 1000);
+      }
+    }
+    stepMs = Long.parseLong(props.getProperty(STEP_TIME_PROPERTY, STEP_TIME_PROPERTY_DEFAULT)) * 1000;
+    minTarget = Integer.parseInt(props.getProperty(MIN_TARGET_PROPERTY, MIN_TARGET_PROPERTY_DEFAULT));
+    maxTarget = Integer.parseInt(props.getProperty(MAX_TARGET_PROPERTY, MAX_TARGET_PROPERTY_DEFAULT));
+    precision = Double.parseDouble(props.getProperty(PRECISION_PROPERTY, PRECISION_PROPERTY_DEFAULT));
+    maxSteps = Integer.parseInt(props.getProperty(MAX_STEPS_PROPERTY, MAX_STEPS_PROPERTY_DEFAULT));
+    threads = Math.min(clients.size(), Integer.parseInt(
+        props.getProperty(INITIAL_THREADS_PROPERTY, String.valueOf(clients.size()))));
+    PhaseScheduler.applyLoad(clients, threads, minTarget);
+  }
+
+  @Override
+  public void run() {
+    try {
+      int passing = 0;
+      int failing = 0;
+      int target = minTarget;
+      while (steps < maxSteps) {
+        Probe probe = probe(target);
+        if (probe.passed) {
+          passing = target;
+          if (probe.throughput > bestThroughput) {
+            bestTarget = target;
+            bestThreads = threads;
+            bestThroughput = probe.throughput;
+          }
+        } else if (probe.slaMet && threads < clients.size()) {
+          // Latencies are fine but the clients fell short: add threads and try again.
+          threads = Math.min(clients.size(), threads * 2);
+          continue;
+        } else {
+          failing = target;
+        }
+
+        if (failing == 0) {
+          if (target >= maxTarget) {
+            break;
+          }
+          target = (int) Math.min((long) target * 2, maxTarget);
+        } else if (failing - passing <= precision * failing) {
+          break;
+        } else {
+          target = passing + (failing - passing) / 2;
+          if (target <= passing) {
+            // No whole target is left between the two. This also never probes 0, which is unthrottled.
+            break;
+          }
+        }
+      }
+      exportResult();
+      measurements.reset();
+    } catch (InterruptedException e) {
+      System.err.println("Throughput search interrupted.");
+    } catch (IOException e) {
+      System.err.println("Could not export the search, error: " + e.getMessage());
+      e.printStackTrace();
+    } finally {
+      for (ClientThread client : clients) {
+        client.requestStop();
+      }
+    }
+  }
+
+  /**
+   * Writes every probe and the result of the search.
+   */
+  public void exportSearch(MeasurementsExporter exporter) throws IOException {
+    exported.replay(exporter);
+  }
+
+  /** @return The highest passing target found so far, 0 if none passed. */
+  public int getSustainableTarget() {
+    return bestTarget;
+  }
+
+  /** The outcome of one probe. */
+  private static final class Probe {
+    private double throughput;
+    private boolean slaMet = true;
+    private boolean passed;
+  }
+
+  private Probe probe(int target) throws InterruptedException, IOException {
+    steps++;
+    System.err.println("Search step " + steps + ": " + threads + " threads, target " + target + " ops/sec");
+    PhaseScheduler.applyLoad(clients, threads, target);
+    long settleMs = (long) (stepMs * SETTLE_SHARE);
+    Thread.sleep(settleMs);
+
+    measurements.reset();
+    long start = System.currentTimeMillis();
+    long startOps = PhaseScheduler.getOpsDone(clients);
+    Thread.sleep(stepMs - settleMs);
+    long runtime = System.currentTimeMillis() - start;
+
+    Probe probe = new Probe();
+    probe.throughput = 1000.0 * (PhaseScheduler.getOpsDone(clients) - startOps) / runtime;
+    String metric = "SEARCH_STEP_" + steps;
+    exported.write(metric, "Target(ops/sec)", target);
+    exported.write(metric, "Threads", threads);
+    exported.write(metric, "Throughput(ops/sec)", probe.throughput);
+    for (Map.Entry<String, Double> sla : slaUs.entrySet()) {
+      double latency = measurements.getPercentileLatency(sla.getKey(), percentile);
+      exported.write(metric, sla.getKey() + "-" + ordinal(percentile) + "PercentileLatency(us)", latency);
+      // -1 means no operation of this kind succeeded during the probe.
+      if (latency < 0 || latency > sla.getValue()) {
+        probe.slaMet = false;
+      }
+    }
+    probe.passed = probe.slaMet && probe.throughput >= target * ACHIEVED_SHARE;
+    exported.write(metric, "Passed", probe.passed ? 1 : 0);
+    return probe;
+  }
+
+  private void exportResult() {
+    exported.write("SEARCH", "SustainableTarget(ops/sec)", bestTarget);
+    exported.write("SEARCH", "Throughput(ops/sec)", bestThroughput);
+    exported.write("SEARCH", "Threads", bestThreads);
+    exported.write("SEARCH", "Steps", steps);
+    if (bestTarget == 0) {
+      System.err.println("No sustainable target found");
+    } else {
+      System.err.println("Sustainable throughput: " + bestTarget + " ops/sec with " + bestThreads + " threads");
+    }
+  }
+
+  private static String ordinal(double percentile) {
+    return percentile == Math.floor(percentile) ? (long) percentile + "th" : percentile + "th";
+  }
+}
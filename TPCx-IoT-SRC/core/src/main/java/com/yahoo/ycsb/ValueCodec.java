@@ -0,0 +1,260 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.yahoo.ycsb.measurements.exporter.MeasurementsExporter;
+
+/**
+ * Compresses the values a binding sends to the database and decompresses the ones it
+ * reads back, to trade client CPU for fewer bytes on the wire and on disk.
+ *
+ * The payloads of the workload are short and repeat the same sensor names and field
+ * labels, which a compressor cannot learn from a single 1 KB value, so by default the
+ * codec primes it with a preset dictionary built from the payload format, which the
+ * workload provides through {@link #setPayloadDictionary(byte[])}. The same dictionary
+ * must be used to read the values back; a value compressed with another one is rejected.
+ *
+ * The codec is zlib Deflate from java.util.zip rather than LZ4, Snappy or zstd, as none
+ * of those is a dependency of the core, and Deflate takes a preset dictionary.
+ *
+ * A compressed value is a zero byte, the length of the original value as 4 bytes and
+ * the zlib stream. Values not starting with a zero byte are returned as they are, so
+ * runs may read data loaded without compression. The total sizes and times of all
+ * codecs are exported as the CODEC metric.
+ */
+public class ValueCodec {
+
+  /** The codec to apply to values: none or deflate. */
+  public static final String CODEC_PROPERTY = "codec";
+  public static final String CODEC_PROPERTY_DEFAULT = "none";
+
+  /** The compression level, from 1 (fastest) to 9 (smallest). */
+  public static final String LEVEL_PROPERTY = "codec.level";
+  public static final String LEVEL_PROPERTY_DEFAULT = "1";
+
+  /**
+   * The preset dictionary: payload for one built from the payload format of the workload,
+   * none, or the path of a file holding a trained one.
+   */
+  public static final String DICTIONARY_PROPERTY = "codec.dictionary";
+  public static final String DICTIONARY_PROPERTY_DEFAULT = "payload";
+
+  private static final byte MAGIC = 0;
+  private static final int HEADER = 5;
+
+  /** The dictionary codec.dictionary=payload selects, set by the workload. */
+  private static volatile byte[] payloadDictionary;
+
+  private static final AtomicLong ENCODED_BYTES = new AtomicLong();
+  private static final AtomicLong COMPRESSED_BYTES = new AtomicLong();
+  private static final AtomicLong ENCODE_NS = new AtomicLong();
+  private static final AtomicLong DECODED_BYTES = new AtomicLong();
+  private static final AtomicLong DECODE_NS = new AtomicLong();
+
+  private final boolean enabled;
+  private final int level;
+  private final byte[] dictionary;
+  private final long dictionaryAdler;
+
+  private final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+    @Override
+    protected Deflater initialValue() {
+      return new Deflater(level);
+    }
+  };
+
+  private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+    @Override
+    protected Inflater initialValue() {
+      return new Inflater();
+    }
+  };
+
+  /**
+   * @param props The properties defining the experiment.
+   * @throws IOException If the dictionary file cannot be read.
+   * @throws IllegalArgumentException If the codec or its level is unknown, or the payload
+   *         dictionary is asked for but the workload set none.
+   */
+  public ValueCodec(Properties props) throws IOException {
+    String codec = props.getProperty(CODEC_PROPERTY, CODEC_PROPERTY_DEFAULT);
+    if (codec.equals("deflate")) {
+      enabled = true;
+    } else if (codec.equals("none")) {
+      enabled = false;
+    } else {
+      throw new IllegalArgumentException("Unknown " + CODEC_PROPERTY + ": " + codec);
+    }
+    level = Integer.parseInt(props.getProperty(LEVEL_PROPERTY, LEVEL_PROPERTY_DEFAULT));
+    if (level < 1 || level > 9) {
+      throw new IllegalArgumentException(LEVEL_PROPERTY + " must be between 1 and 9");
+    }
+
+    String source = props.getProperty(DICTIONARY_PROPERTY, DICTIONARY_PROPERTY_DEFAULT);
+    if (!enabled || source.equals("none")) {
+      dictionary = null;
+    } else if (source.equals("payload")) {
+      dictionary = payloadDictionary;
+      if (dictionary == null) {
+        throw new IllegalArgumentException("The workload provides no payload dictionary, set "
+            + DICTIONARY_PROPERTY + " to none or a file");
+      }
+    } else {
+      dictionary = Files.readAllBytes(Paths.get(source));
+    }
+    if (dictionary != null) {
+      Adler32 adler = new Adler32();
+      adler.update(dictionary);
+      dictionaryAdler = adler.getValue();
+    } else {
+      dictionaryAdler = 0;
+    }
+  }
+
+  /**
+   * Sets the preset dictionary for the payloads of the workload, selected by
+   * codec.dictionary=payload. It must be set before the bindings create their codecs.
+   */
+  public static void setPayloadDictionary(byte[] dictionary) {
+    payloadDictionary = dictionary;
+  }
+
+  /** @return True if values are compressed, false if they pass through. */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * @return The compressed value, or the value itself if the codec is disabled.
+   */
+  public byte[] encode(byte[] value) {
+    if (!enabled) {
+      return value;
+    }
+    long start = System.nanoTime();
+    Deflater deflater = deflaters.get();
+    deflater.reset();
+    if (dictionary != null) {
+      deflater.setDictionary(dictionary);
+    }
+    deflater.setInput(value);
+    deflater.finish();
+
+    byte[] out = new byte[HEADER + value.length / 2 + 64];
+    out[0] = MAGIC;
+    out[1] = (byte) (value.length >>> 24);
+    out[2] = (byte) (value.length >>> 16);
+    out[3] = (byte) (value.length >>> 8);
+    out[4] = (byte) value.length;
+    int n = HEADER;
+    while (!deflater.finished()) {
+      if (n == out.length) {
+        out = Arrays.copyOf(out, out.length * 2);
+      }
+      n += deflater.deflate(out, n, out.length - n);
+    }
+
+    ENCODED_BYTES.addAndGet(value.length);
+    COMPRESSED_BYTES.addAndGet(n);
+    ENCODE_NS.addAndGet(System.nanoTime() - start);
+    return n == out.length ? out : Arrays.copyOf(out, n);
+  }
+
+  /**
+   * @return The original value, or the value itself if it is not compressed or the
+   *         codec is disabled.
+   * @throws IllegalArgumentException If the value is corrupt or was compressed with a
+   *         different dictionary.
+   */
+  public byte[] decode(byte[] value) {
+    if (!enabled || value.length < HEADER || value[0] != MAGIC) {
+      return value;
+    }
+    long start = System.nanoTime();
+    int length = ((value[1] & 0xff) << 24) | ((value[2] & 0xff) << 16)
+        | ((value[3] & 0xff) << 8) | (value[4] & 0xff);
+    Inflater inflater = inflaters.get();
+    inflater.reset();
+    inflater.setInput(value, HEADER, value.length - HEADER);
+
+    byte[] out = new byte[length];
+    int n = 0;
+    try {
+      while (n < length) {
+        int read = inflater.inflate(out, n, length - n);
+        if (read == 0) {
+          if (inflater.needsDictionary()) {
+            if (dictionary == null || (inflater.getAdler() & 0xffffffffL) != dictionaryAdler) {
+              throw new IllegalArgumentException(
+                  "Value compressed with a different " + DICTIONARY_PROPERTY);
+            }
+            inflater.setDictionary(dictionary);
+          } else if (inflater.finished() || inflater.needsInput()) {
+            throw new IllegalArgumentException("Truncated compressed value");
+          }
+        }
+        n += read;
+      }
+    } catch (DataFormatException e) {
+      throw new IllegalArgumentException("Corrupt compressed value", e);
+    }
+
+    DECODED_BYTES.addAndGet(length);
+    DECODE_NS.addAndGet(System.nanoTime() - start);
+    return out;
+  }
+
+  /**
+   * Exports the compression ratio and the time spent per MB of original values, if
+   * any values went through a codec.
+   */
+  public static void exportMeasurements(MeasurementsExporter exporter) throws IOException {
+    long encoded = ENCODED_BYTES.get();
+    long decoded = DECODED_BYTES.get();
+    if (encoded > 0) {
+      exporter.write("CODEC", "EncodedBytes", encoded);
+      exporter.write("CODEC", "CompressedBytes", COMPRESSED_BYTES.get());
+      exporter.write("CODEC", "CompressionRatio", (double) encoded / COMPRESSED_BYTES.get());
+      exporter.write("CODEC", "EncodeTime(ms/MB)", ENCODE_NS.get() / 1e6 / (encoded / 1048576.0));
+    }
+    if (decoded > 0) {
+      exporter.write("CODEC", "DecodedBytes", decoded);
+      exporter.write("CODEC", "DecodeTime(ms/MB)", DECODE_NS.get() / 1e6 / (decoded / 1048576.0));
+    }
+  }
+
+  /** Forgets the sizes and times measured so far. */
+  static void resetStatistics() {
+    ENCODED_BYTES.set(0);
+    COMPRESSED_BYTES.set(0);
+    ENCODE_NS.set(0);
+    DECODED_BYTES.set(0);
+    DECODE_NS.set(0);
+  }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+package com.yahoo.ycsb;
+
+import java.lang.reflect.Method;
+
+/**
+ * Creates client threads as virtual threads when the running JVM supports
+ * them (Java 21 and later), and as platform threads otherwise.
+ *
+ * The virtual thread API is looked up reflectively so the core module still
+ * builds and runs on Java 8.
+ */
+public final class VirtualThreads {
+
+  /** <code>Thread.ofVirtual()</code>, or null if not available. */
+  private static final Method OF_VIRTUAL;
+  /** <code>Thread.Builder.name(String)</code>. */
+  private static final Method BUILDER_NAME;
+  /** <code>Thread.Builder.unstarted(Runnable)</code>. */
+  private static final Method BUILDER_UNSTARTED;
+  /** <code>Thread.isVirtual()</code>. */
+  private static final Method IS_VIRTUAL;
+
+  static {
+    Method ofVirtual = null;
+    Method name = null;
+    Method unstarted = null;
+    Method isVirtual = null;
+    try {
+      Class<?> builder = Class.forName("java.lang.Thread$Builder");
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      name = builder.getMethod("name", String.class);
+      unstarted = builder.getMethod("unstarted", Runnable.class);
+      isVirtual = Thread.class.getMethod("isVirtual");
+      // Java 19 and 20 ship the API as a preview that throws unless enabled.
+      ofVirtual.invoke(null);
+    } catch (Throwable t) {
+      ofVirtual = null;
+    }
+    OF_VIRTUAL = ofVirtual;
+    BUILDER_NAME = name;
+    BUILDER_UNSTARTED = unstarted;
+    IS_VIRTUAL = isVirtual;
+  }
+
+  private VirtualThreads() {
+    // Utility class.
+  }
+
+  /** @return True if this JVM can create virtual threads. */
+  public static boolean isSupported() {
+    return OF_VIRTUAL != null;
+  }
+
+  /**
+   * Creates an unstarted thread.
+   *
+   * @param runnable The work for the thread.
+   * @param name The thread name.
+   * @param virtual If true and supported, a virtual thread is created.
+   * @return The new thread.
+   */
+  public static Thread newThread(Runnable runnable, String name, boolean virtual) {
+    if (virtual && isSupported()) {
+      try {
+        Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name);
+        return (Thread) BUILDER_UNSTARTED.invoke(builder, runnable);
+      } catch (Exception e) {
+        throw new IllegalStateException("Unable to create a virtual thread", e);
+      }
+    }
+    return new Thread(runnable, name);
+  }
+
+  /** @return True if the given thread is a virtual thread. */
+  public static boolean isVirtual(Thread thread) {
+    if (!isSupported()) {
+      return false;
+    }
+    try {
+      return (Boolean) IS_VIRTUAL.invoke(thread);
+    } catch (Exception e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+package com.yahoo.ycsb;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of operations shared by a group of client threads. Threads claim
+ * the work in chunks, so a thread that is slowed down by the backend simply
+ * claims fewer chunks while the others drain the remainder, instead of the
+ * whole run waiting for its fixed share.
+ *
+ * A total of zero means the pool is unbounded (the run is ended by
+ * {@link Client#MAX_EXECUTION_TIME} or by the workload instead).
+ */
+public class WorkCounter {
+
+  private final long total;
+
+  /** Operations handed out so far. May overshoot {@link #total} once the pool is drained. */
+  private final AtomicLong claimed = new AtomicLong();
+
+  /**
+   * @param total The number of operations in the pool, or 0 for an unbounded pool.
+   */
+  public WorkCounter(long total) {
+    if (total < 0) {
+      throw new IllegalArgumentException("Total operation count must not be negative: " + total);
+    }
+    this.total = total;
+  }
+
+  /**
+   * Claims up to <code>chunk</code> operations.
+   *
+   * @param chunk The number of operations wanted.
+   * @return The number of operations granted, 0 once the pool is drained.
+   */
+  public long claim(long chunk) {
+    if (chunk <= 0) {
+      return 0;
+    }
+    if (total == 0) {
+      return chunk;
+    }
+    long start = claimed.getAndAdd(chunk);
+    if (start >= total) {
+      return 0;
+    }
+    return Math.min(chunk, total - start);
+  }
+
+  /** @return The number of operations in the pool, 0 if unbounded. */
+  public long getTotal() {
+    return total;
+  }
+
+  /** @return The number of operations not yet claimed by any thread. */
+  public long getRemaining() {
+    if (total == 0) {
+      return 0;
+    }
+    long remaining = total - claimed.get();
+    return remaining < 0 ? 0 : remaining;
+  }
+}
@@ -96,6 +96,52 @@ public abstract class Workload {
    */
   public abstract boolean doTransaction(DB db, Object threadstate);
 
+  /**
+   * Do one operation of the ingest thread group, when the client runs ingest and queries on separate
+   * threads (see {@link Client#QUERY_THREAD_COUNT_PROPERTY}). The same rules as for
+   * {@link #doTransaction(DB, Object)} apply. By default this is a regular transaction.
+   */
+  public boolean doIngestTransaction(DB db, Object threadstate) {
+    return doTransaction(db, threadstate);
+  }
+
+  /**
+   * Do one operation of the query thread group. The same rules as for {@link #doTransaction(DB, Object)}
+   * apply. By default this is a regular transaction.
+   */
+  public boolean doQueryTransaction(DB db, Object threadstate) {
+    return doTransaction(db, threadstate);
+  }
+
+  /**
+   * Tells query threads whether the ingest threads have written enough data for a query to target.
+   * Query threads wait while this is false.
+   */
+  public boolean isQueryReady() {
+    return true;
+  }
+
+  /**
+   * Build the next record to insert without writing it, for drivers that generate records and send
+   * them to the database on different threads (see {@link IngestPipeline}). The same thread safety
+   * rules as for {@link #doInsert(DB, Object)} apply.
+   *
+   * @param threadstate The state returned by {@link #initThread(Properties, int, int)} for the calling thread.
+   * @param record The record to fill.
+   * @return false if the workload has no more records, or does not support separate record generation.
+   */
+  public boolean fillInsert(Object threadstate, IngestRecord record) {
+    return false;
+  }
+
+  /**
+   * Tells whether {@link #fillInsert(Object, IngestRecord)} is implemented, which the
+   * {@link IngestPipeline} needs. A workload that implements it must also override this.
+   */
+  public boolean supportsFillInsert() {
+    return false;
+  }
+
   /**
    * Allows scheduling a request to stop the workload.
    */
@@ -21,6 +21,7 @@ import com.yahoo.ycsb.Status;
 import com.yahoo.ycsb.measurements.exporter.MeasurementsExporter;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -53,6 +54,10 @@ public class Measurements {
   public static final String MEASUREMENT_TRACK_JVM_PROPERTY = "measurement.trackjvm";
   public static final String MEASUREMENT_TRACK_JVM_PROPERTY_DEFAULT = "false";
 
+  /** Whether to break the latencies down by the stages the bindings report. */
+  public static final String MEASUREMENT_STAGES_PROPERTY = "measurement.stages";
+  public static final String MEASUREMENT_STAGES_PROPERTY_DEFAULT = "false";
+
   static Measurements singleton=null;
   static Properties measurementproperties=null;
 
@@ -75,6 +80,7 @@ public class Measurements {
 
   final ConcurrentHashMap<String,OneMeasurement> _opToMesurementMap;
   final ConcurrentHashMap<String,OneMeasurement> _opToIntendedMesurementMap;
+  final ConcurrentHashMap<String,OneMeasurement> _gaugeMap;
   final MeasurementType _measurementType;
   final int _measurementInterval;
   private Properties _props;
@@ -86,6 +92,7 @@ public class Measurements {
   {
     _opToMesurementMap=new ConcurrentHashMap<String,OneMeasurement>();
     _opToIntendedMesurementMap=new ConcurrentHashMap<String,OneMeasurement>();
+    _gaugeMap=new ConcurrentHashMap<String,OneMeasurement>();
 
     _props=props;
 
@@ -240,6 +247,89 @@ public class Measurements {
     }
   }
 
+  /**
+   * Report the time one operation spent in a stage of the binding, e.g. operation="INSERT"
+   * and stage="flush". Each stage of each operation has a histogram of its own, named like
+   * "INSERT.flush", whatever the measurement interval.
+   */
+  public void measureStage(String operation, String stage, int latency)
+  {
+    getOpMeasurement(operation + "." + stage).measure(latency);
+  }
+
+  /**
+   * Report that a binding made a batch of buffered writes durable, or failed to. The
+   * time from the enqueueing of each record until now is measured as the ack latency of
+   * the record, as NAME_ACK, or NAME_ACK-FAILED with the status of the batch if it
+   * failed. The flush is measured as NAME_FLUSH, and the size of the batch as the
+   * NAME_BATCH_RECORDS and NAME_BATCH_BYTES gauges.
+   *
+   * @param name The name of the binding, e.g. IGINX.
+   * @param records The number of records in the batch.
+   * @param bytes The bytes of the records in the batch.
+   * @param enqueueNs The System.nanoTime() at which each record was enqueued.
+   * @param flushNs How long the flush took.
+   * @param outcome The outcome of the flush.
+   */
+  public void measureBatch(String name, int records, long bytes, long[] enqueueNs, long flushNs,
+                           Status outcome)
+  {
+    Status[] outcomes = new Status[records];
+    Arrays.fill(outcomes, outcome);
+    measureBatch(name, records, bytes, enqueueNs, flushNs, outcomes);
+  }
+
+  /**
+   * Like {@link #measureBatch(String, int, long, long[], long, Status)}, for a batch whose
+   * records succeed or fail one by one.
+   *
+   * @param outcomes The outcome of each record, in the order of enqueueNs.
+   */
+  public void measureBatch(String name, int records, long bytes, long[] enqueueNs, long flushNs,
+                           Status[] outcomes)
+  {
+    long ackNs = System.nanoTime();
+    OneMeasurement ack = null;
+    OneMeasurement failed = null;
+    for (int i = 0; i < records; i++)
+    {
+      Status status = outcomes[i] == null ? Status.ERROR : outcomes[i];
+      OneMeasurement m;
+      if (status.isOk())
+      {
+        m = ack == null ? ack = getOpMeasurement(name + "_ACK") : ack;
+      }
+      else
+      {
+        m = failed == null ? failed = getOpMeasurement(name + "_ACK-FAILED") : failed;
+      }
+      m.measure((int) ((ackNs - enqueueNs[i]) / 1000));
+      m.reportStatus(status);
+    }
+    getOpMeasurement(name + "_FLUSH").measure((int) (flushNs / 1000));
+    measureGauge(name + "_BATCH_RECORDS", records);
+    measureGauge(name + "_BATCH_BYTES", (int) Math.min(Integer.MAX_VALUE, bytes));
+  }
+
+  /**
+   * Report a sample of a value that is not a latency, e.g. the rate a controller admits.
+   * Gauges are always kept as a {@link OneMeasurementGauge} time series.
+   */
+  public void measureGauge(String name, int value)
+  {
+    OneMeasurement m = _gaugeMap.get(name);
+    if(m == null)
+    {
+      m = new OneMeasurementGauge(name, _props);
+      OneMeasurement oldM = _gaugeMap.putIfAbsent(name, m);
+      if(oldM != null)
+      {
+        m = oldM;
+      }
+    }
+    m.measure(value);
+  }
+
   private OneMeasurement getOpMeasurement(String operation) {
     OneMeasurement m = _opToMesurementMap.get(operation);
     if(m == null)
@@ -296,6 +386,45 @@ public class Measurements {
     {
       measurement.exportMeasurements(exporter);
     }
+    for (OneMeasurement measurement : _gaugeMap.values())
+    {
+      measurement.exportMeasurements(exporter);
+    }
+  }
+
+  /**
+   * @return True if the measurement type keeps a latency distribution, see
+   *         {@link #getPercentileLatency(String, double)}.
+   */
+  public boolean hasPercentiles()
+  {
+    return _measurementType != MeasurementType.TIMESERIES && _measurementType != MeasurementType.RAW;
+  }
+
+  /**
+   * Returns the latency, in us, below which the given percentage of the operations of one kind
+   * measured so far completed.
+   *
+   * @return The latency, or -1 if no such operation was measured or the measurement type keeps
+   *         no latency distribution.
+   */
+  public double getPercentileLatency(String operation, double percentile)
+  {
+    OneMeasurement m = _measurementInterval==1 ?
+        _opToIntendedMesurementMap.get(operation) :
+        _opToMesurementMap.get(operation);
+    return m == null ? -1 : m.getPercentile(percentile);
+  }
+
+  /**
+   * Drop everything measured so far, e.g. at the end of a warm-up phase. Operations still
+   * running may report into the dropped measurements.
+   */
+  public synchronized void reset()
+  {
+    _opToMesurementMap.clear();
+    _opToIntendedMesurementMap.clear();
+    _gaugeMap.clear();
   }
 
   /**
@@ -312,6 +441,10 @@ public class Measurements {
     {
       ret += m.getSummary()+" ";
     }
+    for (OneMeasurement m : _gaugeMap.values())
+    {
+      ret += m.getSummary()+" ";
+    }
     return ret;
   }
 
@@ -50,6 +50,14 @@ public abstract class OneMeasurement {
   public abstract void measureResultCount(String operation, int Q1, int Q2);
   public abstract String getSummary();
 
+  /**
+   * Returns the latency, in us, below which the given percentage of the operations measured so
+   * far completed, or -1 if nothing was measured or this measurement keeps no distribution.
+   */
+  public double getPercentile(double percentile) {
+    return -1;
+  }
+
   /**
    * No need for synchronization, using CHM to deal with that
    */
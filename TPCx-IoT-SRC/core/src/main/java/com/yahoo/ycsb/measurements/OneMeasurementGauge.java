@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb.measurements;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.Vector;
+
+import com.yahoo.ycsb.measurements.exporter.MeasurementsExporter;
+
+/**
+ * A time series of a value that is not a latency, such as the rate a controller
+ * admits or the batch size it chooses. Samples are averaged in chunks of
+ * {@link OneMeasurementTimeSeries#GRANULARITY} milliseconds, whatever the
+ * measurement type of the latencies.
+ */
+public class OneMeasurementGauge extends OneMeasurement
+{
+  private final int _granularity;
+  private final Vector<SeriesUnit> _units = new Vector<SeriesUnit>();
+
+  private long start = -1;
+  private long currentunit = -1;
+  private int count = 0;
+  private long sum = 0;
+
+  private long samples = 0;
+  private long total = 0;
+  private int min = Integer.MAX_VALUE;
+  private int max = Integer.MIN_VALUE;
+  private int last;
+
+  public OneMeasurementGauge(String name, Properties props)
+  {
+    super(name);
+    _granularity = Integer.parseInt(props.getProperty(OneMeasurementTimeSeries.GRANULARITY,
+        OneMeasurementTimeSeries.GRANULARITY_DEFAULT));
+  }
+
+  private void checkEndOfUnit(boolean forceend)
+  {
+    long now = System.currentTimeMillis();
+
+    if (start < 0)
+    {
+      currentunit = 0;
+      start = now;
+    }
+
+    long unit = ((now - start) / _granularity) * _granularity;
+
+    if ((unit > currentunit) || (forceend))
+    {
+      if (count > 0)
+      {
+        _units.add(new SeriesUnit(currentunit, ((double) sum) / count));
+      }
+      currentunit = unit;
+      count = 0;
+      sum = 0;
+    }
+  }
+
+  @Override
+  public synchronized void measure(int value)
+  {
+    checkEndOfUnit(false);
+
+    count++;
+    sum += value;
+    samples++;
+    total += value;
+    last = value;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  @Override
+  public void measureResultCount(String operation, int Q1, int Q2)
+  {
+  }
+
+  @Override
+  public synchronized void exportMeasurements(MeasurementsExporter exporter) throws IOException
+  {
+    checkEndOfUnit(true);
+
+    exporter.write(getName(), "Samples", (double) samples);
+    if (samples == 0)
+    {
+      return;
+    }
+    exporter.write(getName(), "Average", ((double) total) / samples);
+    exporter.write(getName(), "Min", min);
+    exporter.write(getName(), "Max", max);
+    exporter.write(getName(), "Last", last);
+    for (SeriesUnit unit : _units)
+    {
+      exporter.write(getName(), Long.toString(unit.time), unit.average);
+    }
+  }
+
+  @Override
+  public synchronized String getSummary()
+  {
+    return samples == 0 ? "" : "[" + getName() + "=" + last + "]";
+  }
+}
@@ -47,6 +47,12 @@ public class OneMeasurementHdrHistogram extends OneMeasurement {
 
   final Recorder histogram;
   Histogram totalHistogram;
+  /**
+   * A second recording of the same values for {@link #getPercentile(double)}, so that
+   * reading a percentile leaves the intervals of the StatusThread alone.
+   */
+  final Recorder percentileHistogram;
+  Histogram percentileTotalHistogram;
   // 2020.10.07 TTA: Scan row count 0 return 
   int Q1emptycount;
   int Q2emptycount;
@@ -95,6 +101,7 @@ public class OneMeasurementHdrHistogram extends OneMeasurement {
       histogramLogWriter.outputLegend();
     }
     histogram = new Recorder(3);
+    percentileHistogram = new Recorder(3);
   }
 
   /**
@@ -105,6 +112,7 @@ public class OneMeasurementHdrHistogram extends OneMeasurement {
     */
   public void measure(int latencyInMicros) {
     histogram.recordValue(latencyInMicros);
+    percentileHistogram.recordValue(latencyInMicros);
   }
 
   /**
@@ -157,7 +165,19 @@ public class OneMeasurementHdrHistogram extends OneMeasurement {
 				+ d.format(intervalHistogram.getValueAtPercentile(99.99)) + "]";
 	}
 
-	private Histogram getIntervalHistogramAndAccumulate() {
+	@Override
+	public synchronized double getPercentile(double percentile) {
+		Histogram intervalHistogram = percentileHistogram.getIntervalHistogram();
+		if (percentileTotalHistogram == null) {
+			percentileTotalHistogram = intervalHistogram;
+		} else {
+			percentileTotalHistogram.add(intervalHistogram);
+		}
+		return percentileTotalHistogram.getTotalCount() == 0 ? -1
+				: percentileTotalHistogram.getValueAtPercentile(percentile);
+	}
+
+	private synchronized Histogram getIntervalHistogramAndAccumulate() {
 		Histogram intervalHistogram = histogram.getIntervalHistogram();
 		// add this to the total time histogram.
 		if (totalHistogram == null) {
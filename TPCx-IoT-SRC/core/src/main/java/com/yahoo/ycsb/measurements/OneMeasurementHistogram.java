@@ -164,6 +164,25 @@ public class OneMeasurementHistogram extends OneMeasurement
     exporter.write(getName(), ">"+_buckets, histogramoverflow);
   }
 
+  @Override
+  public synchronized double getPercentile(double percentile)
+  {
+    if (operations == 0)
+    {
+      return -1;
+    }
+    int opcounter=0;
+    for (int i=0; i<_buckets; i++)
+    {
+      opcounter+=histogram[i];
+      if (((double)opcounter)/((double)operations)*100>=percentile)
+      {
+        return i*1000;
+      }
+    }
+    return _buckets*1000;
+  }
+
   @Override
   public String getSummary() {
     if (windowoperations==0)
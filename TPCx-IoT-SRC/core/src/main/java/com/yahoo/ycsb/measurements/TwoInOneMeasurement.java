@@ -74,6 +74,11 @@ public class TwoInOneMeasurement extends OneMeasurement {
     thing2.exportMeasurements(exporter);
   }
 
+  @Override
+  public double getPercentile(double percentile) {
+    return thing1.getPercentile(percentile);
+  }
+
   /**
    * This is called periodically from the StatusThread. There's a single StatusThread per Client process.
    * We optionally serialize the interval to log on this opportunity.
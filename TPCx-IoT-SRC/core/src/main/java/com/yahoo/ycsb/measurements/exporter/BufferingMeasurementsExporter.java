@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+package com.yahoo.ycsb.measurements.exporter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the measurements written to it in memory, so they can be written to
+ * the real exporter at the end of the run. Used to export the measurements of
+ * a part of the run before they are reset.
+ */
+public class BufferingMeasurementsExporter implements MeasurementsExporter
+{
+  private final List<String> metrics = new ArrayList<String>();
+  private final List<String> measurements = new ArrayList<String>();
+  private final List<Number> values = new ArrayList<Number>();
+  private String prefix = "";
+
+  /**
+   * Prepends the given prefix to the metric names written from now on.
+   */
+  public synchronized void setMetricPrefix(String prefix)
+  {
+    this.prefix = prefix;
+  }
+
+  public synchronized void write(String metric, String measurement, int i)
+  {
+    add(metric, measurement, i);
+  }
+
+  public synchronized void write(String metric, String measurement, double d)
+  {
+    add(metric, measurement, d);
+  }
+
+  private void add(String metric, String measurement, Number value)
+  {
+    metrics.add(prefix + metric);
+    measurements.add(measurement);
+    values.add(value);
+  }
+
+  /**
+   * Writes everything kept so far to the given exporter, in the order it was written.
+   */
+  public synchronized void replay(MeasurementsExporter exporter) throws IOException
+  {
+    for (int i = 0; i < values.size(); i++)
+    {
+      Number value = values.get(i);
+      if (value instanceof Integer)
+      {
+        exporter.write(metrics.get(i), measurements.get(i), value.intValue());
+      }
+      else
+      {
+        exporter.write(metrics.get(i), measurements.get(i), value.doubleValue());
+      }
+    }
+  }
+
+  public void close()
+  {
+  }
+}
@@ -98,7 +98,7 @@ public class CoreWorkload extends Workload {
   public static final String DEFAULT_CLIENT_NAME="client1";
 
   protected int fieldcount;
-   private String[] prekeys = {
+   private static final String[] prekeys = {
            "cent_9_Humidity",
            "side_8_Humidity",
            "side_7_Humidity",
@@ -503,6 +503,15 @@ public class CoreWorkload extends Workload {
   protected int insertionRetryInterval;
   protected UnixEpochTimestampGenerator tt;
 
+  /** How far behind the latest inserted timestamp scans read, in ms. */
+  private static final long READ_LAG_MS = 5000;
+
+  /** The timestamp of the first record inserted by this client. */
+  private long firstinserttimestamp;
+
+  /** Whether this is the transaction phase, which keys inserts by timestamp, or the load phase. */
+  private boolean dotransactions;
+
   private Measurements measurements = Measurements.getMeasurements();
 
   protected static NumberGenerator getFieldLengthGenerator(Properties p) throws WorkloadException {
@@ -540,10 +549,13 @@ public class CoreWorkload extends Workload {
   @Override
   public void init(Properties p) throws WorkloadException {
     table = p.getProperty(TABLENAME_PROPERTY, TABLENAME_PROPERTY_DEFAULT);
+    dotransactions = Boolean.valueOf(p.getProperty(Client.DO_TRANSACTIONS_PROPERTY, "true"));
      client = p.getProperty(CLIENT_NAME, DEFAULT_CLIENT_NAME);
       runType = p.getProperty(RUN_TYPE,DEFAULT_RUN_TYPE);
      //System.out.println("CLIENT NAME="+client);
     System.out.println("Run Type = "+runType);
+    // The bindings create their value codecs after the workload is initialized.
+    ValueCodec.setPayloadDictionary(buildPayloadDictionary());
 
     fieldcount =
         Integer.parseInt(p.getProperty(FIELD_COUNT_PROPERTY, FIELD_COUNT_PROPERTY_DEFAULT));
@@ -615,6 +627,7 @@ public class CoreWorkload extends Workload {
 
     transactioninsertkeysequence = new AcknowledgedCounterGenerator(recordcount);
     tt = new UnixEpochTimestampGenerator(100,TimeUnit.MILLISECONDS, System.currentTimeMillis());
+    firstinserttimestamp = tt.currentValue() + tt.getOffset(1);
 
 
     if (requestdistrib.compareTo("uniform") == 0) {
@@ -693,7 +706,7 @@ public class CoreWorkload extends Workload {
         int index = readKeyChooser.nextValue().intValue();
         String prekey = prekeys[index];
         // Read the keys that are than 5s old
-        long t = tt.lastValue() - 5000;
+        long t = tt.lastValue() - READ_LAG_MS;
         return   client + ":" + prekey +  ":" + t;
     }
 
@@ -748,9 +761,16 @@ public class CoreWorkload extends Workload {
       else
           iotParameter = key;
     Random r = new Random();
+    BigDecimal val = BigDecimal.valueOf(r.nextDouble()).setScale(4, RoundingMode.HALF_UP);
+    return buildPayload(iotParameter, size, val, System.currentTimeMillis());
+  }
+
+  /**
+   * Fills a payload of the given size with readings of one sensor.
+   */
+  private static String buildPayload(String iotParameter, int size, BigDecimal val, long timestamp) {
     StringBuilder sb = new StringBuilder(size);
     sb.append(iotParameter);
-    BigDecimal val = BigDecimal.valueOf(r.nextDouble()).setScale(4, RoundingMode.HALF_UP);
     while (sb.length() < size) {
       sb.append(':');
         sb.append(iotParameter);
@@ -761,7 +781,7 @@ public class CoreWorkload extends Workload {
         sb.append(':');
         sb.append("timestamp");
         sb.append(':');
-        sb.append(System.currentTimeMillis());
+        sb.append(timestamp);
         sb.append(":");
         sb.append(sb.toString().hashCode());
     }
@@ -770,6 +790,28 @@ public class CoreWorkload extends Workload {
     return sb.toString();
   }
 
+  /**
+   * Builds a preset dictionary for compressing the payloads of this workload, with
+   * a short payload of every sensor. It only depends on the payload format, so
+   * every driver builds the same one.
+   */
+  public static byte[] buildPayloadDictionary() {
+    BigDecimal val = BigDecimal.valueOf(0.5).setScale(4, RoundingMode.HALF_UP);
+    StringBuilder sb = new StringBuilder();
+    for (String sensor : prekeys) {
+      sb.append(buildPayload(sensor, 128, val, 1500000000000L));
+    }
+    return sb.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return The sensors of the keys of this workload, always in the same order, so
+   *         that a binding can number them the same way in every driver.
+   */
+  public static List<String> getSensorNames() {
+    return Collections.unmodifiableList(Arrays.asList(prekeys));
+  }
+
   /**
    * Do one insert operation. Because it will be called concurrently from multiple client threads,
    * this function must be thread safe. However, avoid synchronized, or the threads will block waiting
@@ -847,6 +889,33 @@ public class CoreWorkload extends Workload {
     return true;
   }
 
+  /**
+   * The ingest thread group only inserts; the scans are left to the query group.
+   */
+  @Override
+  public boolean doIngestTransaction(DB db, Object threadstate) {
+    doTransactionInsert(db);
+    return true;
+  }
+
+  /**
+   * The query thread group only scans.
+   */
+  @Override
+  public boolean doQueryTransaction(DB db, Object threadstate) {
+    doTransactionScanWithFilter(db, runStartTime);
+    return true;
+  }
+
+  /**
+   * Scans read {@link #READ_LAG_MS} behind the latest insert, so they target ingested data once
+   * that much has been written.
+   */
+  @Override
+  public boolean isQueryReady() {
+    return tt.lastValue() - READ_LAG_MS >= firstinserttimestamp;
+  }
+
   /**
    * Results are reported in the first three buckets of the histogram under
    * the label "VERIFY".
@@ -1034,6 +1103,23 @@ public class CoreWorkload extends Workload {
     }
   }
 
+  /**
+   * Builds the record {@link #doInsert(DB, Object)} or, in the transaction phase,
+   * {@link #doTransactionInsert(DB)} would write, grouped by its client:sensor series.
+   */
+  @Override
+  public boolean fillInsert(Object threadstate, IngestRecord record) {
+    long keynum = dotransactions ? tt.nextValue() : keysequence.nextValue().intValue();
+    String dbkey = buildKeyName(keynum);
+    record.set(table, dbkey, dbkey.substring(0, dbkey.lastIndexOf(':')), buildValues(dbkey));
+    return true;
+  }
+
+  @Override
+  public boolean supportsFillInsert() {
+    return true;
+  }
+
   /**
    * Creates a weighted discrete values with database operations for a workload to perform.
    * Weights/proportions are read from the properties list and defaults are used
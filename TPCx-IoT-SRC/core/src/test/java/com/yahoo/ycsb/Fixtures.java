@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.yahoo.ycsb.measurements.exporter.MeasurementsExporter;
+
+/**
+ * Workloads and exporters shared by the tests of this package.
+ */
+final class Fixtures {
+
+  private Fixtures() {
+  }
+
+  /** Inserts the same record over and over. */
+  static class InsertOnlyWorkload extends Workload {
+    @Override
+    public boolean doInsert(DB db, Object threadstate) {
+      HashMap<String, ByteIterator> values = new HashMap<String, ByteIterator>();
+      values.put("field0", new StringByteIterator("value"));
+      return db.insert("usertable", "key", values).isOk();
+    }
+
+    @Override
+    public boolean doTransaction(DB db, Object threadstate) {
+      return doInsert(db, threadstate);
+    }
+  }
+
+  /** Collects the names of the exported metrics, and the values by metric and measurement. */
+  static class ValueCollector implements MeasurementsExporter {
+    final Set<String> metrics = new HashSet<String>();
+    final HashMap<String, Double> values = new HashMap<String, Double>();
+
+    @Override
+    public void write(String metric, String measurement, int i) {
+      write(metric, measurement, (double) i);
+    }
+
+    @Override
+    public void write(String metric, String measurement, double d) {
+      metrics.add(metric);
+      values.put(metric + " " + measurement, d);
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.yahoo.ycsb.measurements.Measurements;
+
+public class TestAimdRateController {
+
+  private static final long SECOND_NS = TimeUnit.SECONDS.toNanos(1);
+
+  @BeforeClass
+  public void setUp() {
+    Measurements.setProperties(new Properties());
+  }
+
+  @Test
+  public void cutsOnOverloadAndRecoversAdditively() {
+    Properties props = new Properties();
+    props.setProperty(AimdRateController.INCREASE_PROPERTY, "100");
+    // 1000 ops/sec per thread.
+    ClientThread client = newClient(props, 1.0);
+    AimdRateController controller = new AimdRateController(props, client, "TEST_RATE");
+
+    long now = System.nanoTime();
+    // One healthy interval at the target keeps it.
+    now = interval(controller, now, 1000, Status.OK);
+    assertEquals(controller.getRate(), 1000.0, 1);
+
+    // One overload status in an interval halves the rate.
+    controller.onOutcome(Status.SERVICE_UNAVAILABLE, 100, now + 1);
+    now = interval(controller, now, 1000, Status.OK);
+    assertEquals(controller.getRate(), 500.0, 1);
+    assertEquals(client.getTargetPerMs(), 0.5, 0.001);
+
+    // Healthy intervals add 100 ops/sec each, up to the starting target.
+    now = interval(controller, now, 500, Status.OK);
+    assertEquals(controller.getRate(), 600.0, 1);
+    for (int i = 0; i < 10; i++) {
+      now = interval(controller, now, (int) controller.getRate(), Status.OK);
+    }
+    assertEquals(controller.getRate(), 1000.0, 1);
+    assertEquals(client.getTargetPerMs(), 1.0, 0.001);
+  }
+
+  @Test
+  public void cutsUnlimitedThreadsFromTheAchievedRateAndOnSlowOperations() {
+    Properties props = new Properties();
+    props.setProperty(AimdRateController.LATENCY_THRESHOLD_PROPERTY, "50");
+    props.setProperty(AimdRateController.MIN_RATE_PROPERTY, "10");
+    ClientThread client = newClient(props, -1);
+    AimdRateController controller = new AimdRateController(props, client, "TEST_RATE");
+    assertEquals(controller.getRate(), 0.0);
+
+    long now = System.nanoTime();
+    now = interval(controller, now, 400, Status.ERROR);
+    assertEquals(controller.getRate(), 200.0, 1);
+
+    // 60 ms is above the threshold although the status is fine.
+    controller.onOutcome(Status.OK, 60000, now + 1);
+    now = interval(controller, now, 200, Status.OK);
+    assertEquals(controller.getRate(), 100.0, 1);
+
+    // Statuses that do not mean overload are ignored, and the rate never drops below the minimum.
+    now = interval(controller, now, 100, Status.NOT_FOUND);
+    assertEquals(controller.getRate(), 110.0, 1);
+    for (int i = 0; i < 10; i++) {
+      now = interval(controller, now, 1, Status.ERROR);
+    }
+    assertEquals(controller.getRate(), 10.0, 1);
+  }
+
+  @Test
+  public void reportsTheAdmittedRateAsATimeSeries() throws Exception {
+    Properties props = new Properties();
+    ClientThread client = newClient(props, 1.0);
+    Measurements.getMeasurements().reset();
+    AimdRateController controller = new AimdRateController(props, client, "TEST_RATE");
+    long now = System.nanoTime();
+    now = interval(controller, now, 1000, Status.ERROR);
+    interval(controller, now, 500, Status.OK);
+
+    Fixtures.ValueCollector collector = new Fixtures.ValueCollector();
+    Measurements.getMeasurements().exportMeasurements(collector);
+    Measurements.getMeasurements().reset();
+    assertEquals(collector.values.get("TEST_RATE Samples"), 2.0);
+    assertEquals(collector.values.get("TEST_RATE Min"), 500.0);
+    assertEquals(collector.values.get("TEST_RATE Last"), 510.0);
+    assertTrue(collector.values.containsKey("TEST_RATE 0"), collector.values.toString());
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void rejectsAFactorThatDoesNotDecrease() {
+    Properties props = new Properties();
+    props.setProperty(AimdRateController.DECREASE_PROPERTY, "1.5");
+    new AimdRateController(props, newClient(props, 1.0), "TEST_RATE");
+  }
+
+  /**
+   * Reports the given number of operations spread over one second, the last of them
+   * closing the interval. The first interval is a little longer, as the controller starts
+   * timing when it is created, so rates are compared to within 1 op/sec.
+   *
+   * @return The end of the interval.
+   */
+  private static long interval(AimdRateController controller, long start, int ops, Status status) {
+    for (int i = 1; i <= ops; i++) {
+      controller.onOutcome(status, 100, start + SECOND_NS * i / ops);
+    }
+    return start + SECOND_NS;
+  }
+
+  private static ClientThread newClient(Properties props, double targetperthreadperms) {
+    return new ClientThread(new BasicDB(), true, null, props, 0, targetperthreadperms, new CountDownLatch(1));
+  }
+}
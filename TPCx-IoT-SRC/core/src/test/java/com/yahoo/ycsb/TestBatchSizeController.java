@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.yahoo.ycsb.measurements.Measurements;
+
+public class TestBatchSizeController {
+
+  private static final long US = TimeUnit.MICROSECONDS.toNanos(1);
+
+  @BeforeClass
+  public void setUp() {
+    Measurements.setProperties(new Properties());
+  }
+
+  @Test
+  public void keepsTheSizeWhenNotAdaptive() {
+    BatchSizeController controller = new BatchSizeController(new Properties(), "TEST", 3000);
+    assertFalse(controller.isAdaptive());
+    long now = System.nanoTime();
+    for (int i = 0; i < 100; i++) {
+      now += 10000 * US;
+      controller.onFlush(3000, 5000 * US, now);
+    }
+    assertEquals(controller.getBatchSize(), 3000);
+  }
+
+  @Test
+  public void growsUntilTheFlushLatencyTarget() {
+    Properties props = adaptive();
+    props.setProperty(BatchSizeController.TARGET_FLUSH_LATENCY_PROPERTY, "100");
+    BatchSizeController controller = new BatchSizeController(props, "TEST", 1000);
+
+    // A fixed cost per flush makes bigger batches faster; each record adds 20 us to the flush,
+    // so batches above 5000 records break the 100 ms target.
+    long now = System.nanoTime();
+    for (int i = 0; i < 500; i++) {
+      int size = controller.getBatchSize();
+      long flushNs = 20000 * US + size * 20 * US;
+      now += size * 5 * US + flushNs;
+      controller.onFlush(size, flushNs, now);
+    }
+    int size = controller.getBatchSize();
+    assertTrue(size >= 2500 && size <= 5000 * 1.25, "batch size " + size);
+  }
+
+  @Test
+  public void findsTheBestSizeBetweenTheBounds() {
+    Properties props = adaptive();
+    props.setProperty(BatchSizeController.MIN_PROPERTY, "100");
+    props.setProperty(BatchSizeController.MAX_PROPERTY, "100000");
+    BatchSizeController controller = new BatchSizeController(props, "TEST", 100);
+
+    // Flushes get disproportionately slow above 4000 records, so the records per second
+    // peak there.
+    long now = System.nanoTime();
+    int smallest = Integer.MAX_VALUE;
+    int largest = 0;
+    for (int i = 0; i < 1000; i++) {
+      int size = controller.getBatchSize();
+      long flushNs = 40000 * US + (long) size * size / 400 * US;
+      now += size * 5 * US + flushNs;
+      controller.onFlush(size, flushNs, now);
+      if (i >= 500) {
+        smallest = Math.min(smallest, controller.getBatchSize());
+        largest = Math.max(largest, controller.getBatchSize());
+      }
+    }
+    assertTrue(smallest >= 1500 && largest <= 10000, "batch sizes " + smallest + " to " + largest);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void rejectsAStepThatDoesNotGrow() {
+    Properties props = adaptive();
+    props.setProperty(BatchSizeController.STEP_PROPERTY, "1");
+    new BatchSizeController(props, "TEST", 100);
+  }
+
+  private static Properties adaptive() {
+    Properties props = new Properties();
+    props.setProperty(BatchSizeController.ADAPTIVE_PROPERTY, "true");
+    props.setProperty(BatchSizeController.WINDOW_PROPERTY, "2");
+    return props;
+  }
+}
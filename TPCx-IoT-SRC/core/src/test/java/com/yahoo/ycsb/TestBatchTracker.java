@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Properties;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.yahoo.ycsb.measurements.Measurements;
+
+public class TestBatchTracker {
+
+  @BeforeClass
+  public void setUp() {
+    Measurements.setProperties(new Properties());
+  }
+
+  @Test
+  public void reportsTheAckOfEveryRecordAndTheBatch() throws Exception {
+    Measurements.getMeasurements().reset();
+    BatchTracker tracker = new BatchTracker("TRACKED");
+    for (int i = 0; i < 1500; i++) {
+      tracker.add(100);
+    }
+    assertEquals(tracker.size(), 1500);
+    assertEquals(tracker.bytes(), 150000L);
+    tracker.complete(2000000, Status.OK);
+    assertEquals(tracker.size(), 0);
+
+    tracker.add(100);
+    tracker.add(300);
+    tracker.complete(1000000, Status.ERROR);
+    // Nothing buffered, nothing to report.
+    tracker.complete(1000000, Status.OK);
+
+    Fixtures.ValueCollector collector = new Fixtures.ValueCollector();
+    Measurements.getMeasurements().exportMeasurements(collector);
+    Measurements.getMeasurements().reset();
+    assertEquals(collector.values.get("TRACKED_ACK Operations"), 1500.0);
+    assertEquals(collector.values.get("TRACKED_ACK-FAILED Operations"), 2.0);
+    assertEquals(collector.values.get("TRACKED_FLUSH Operations"), 2.0);
+    assertEquals(collector.values.get("TRACKED_BATCH_RECORDS Samples"), 2.0);
+    assertEquals(collector.values.get("TRACKED_BATCH_RECORDS Max"), 1500.0);
+    assertEquals(collector.values.get("TRACKED_BATCH_BYTES Min"), 400.0);
+    assertFalse(collector.values.containsKey("TRACKED_ACK Return=ERROR"));
+  }
+
+  @Test
+  public void reportsTheOutcomeOfEachRecord() throws Exception {
+    Measurements.getMeasurements().reset();
+    BatchTracker tracker = new BatchTracker("EACH");
+    for (int i = 0; i < 3; i++) {
+      tracker.add(100);
+    }
+    tracker.complete(1000000, new Status[] {Status.OK, Status.SERVICE_UNAVAILABLE, Status.OK});
+
+    Fixtures.ValueCollector collector = new Fixtures.ValueCollector();
+    Measurements.getMeasurements().exportMeasurements(collector);
+    Measurements.getMeasurements().reset();
+    assertEquals(collector.values.get("EACH_ACK Operations"), 2.0);
+    assertEquals(collector.values.get("EACH_ACK-FAILED Operations"), 1.0);
+    assertEquals(collector.values.get("EACH_ACK-FAILED Return=SERVICE_UNAVAILABLE"), 1.0);
+    assertEquals(collector.values.get("EACH_BATCH_RECORDS Max"), 3.0);
+  }
+
+  @Test
+  public void measuresTheAckFromWhenTheRecordWasQueued() throws Exception {
+    Measurements.getMeasurements().reset();
+    BatchTracker tracker = new BatchTracker("QUEUED");
+    tracker.add(100, System.nanoTime() - 50000000L);
+    tracker.complete(1000000, Status.OK);
+
+    Fixtures.ValueCollector collector = new Fixtures.ValueCollector();
+    Measurements.getMeasurements().exportMeasurements(collector);
+    Measurements.getMeasurements().reset();
+    // Within the precision of the histogram.
+    assertTrue(collector.values.get("QUEUED_ACK MinLatency(us)") >= 49900.0);
+  }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.htrace.core.HTraceConfiguration;
+import org.apache.htrace.core.Tracer;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.yahoo.ycsb.measurements.Measurements;
+
+public class TestClientThreadGroups {
+
+  private static final long READY_AFTER_INSERTS = 10;
+
+  /** Queries become possible once a few inserts are done. */
+  static class GroupedWorkload extends Workload {
+    final AtomicLong inserts = new AtomicLong();
+    final AtomicLong queries = new AtomicLong();
+    final AtomicBoolean mixed = new AtomicBoolean();
+    final AtomicBoolean queriedTooEarly = new AtomicBoolean();
+
+    @Override
+    public boolean doInsert(DB db, Object threadstate) {
+      return false;
+    }
+
+    @Override
+    public boolean doTransaction(DB db, Object threadstate) {
+      mixed.set(true);
+      return false;
+    }
+
+    @Override
+    public boolean doIngestTransaction(DB db, Object threadstate) {
+      HashMap<String, ByteIterator> values = new HashMap<String, ByteIterator>();
+      values.put("field0", new StringByteIterator("value"));
+      db.insert("usertable", "client1:sensor1:" + inserts.get(), values);
+      inserts.incrementAndGet();
+      return true;
+    }
+
+    @Override
+    public boolean doQueryTransaction(DB db, Object threadstate) {
+      if (!isQueryReady()) {
+        queriedTooEarly.set(true);
+      }
+      db.scan("usertable", "sensor1", "client1", "0", null, 0,
+          new Vector<HashMap<String, ByteIterator>>(), new Vector<HashMap<String, ByteIterator>>());
+      queries.incrementAndGet();
+      return true;
+    }
+
+    @Override
+    public boolean isQueryReady() {
+      return inserts.get() >= READY_AFTER_INSERTS;
+    }
+  }
+
+  @BeforeClass
+  public void setUp() {
+    Measurements.setProperties(new Properties());
+  }
+
+  @Test
+  public void runsIngestAndQueriesOnSeparateThreads() throws Exception {
+    Properties props = new Properties();
+    props.setProperty(BasicDB.SIMULATE_DELAY, "1");
+    props.setProperty(BasicDB.RANDOMIZE_DELAY, "false");
+    props.setProperty(BasicDB.VERBOSE, "false");
+    Tracer tracer = new Tracer.Builder("TestClientThreadGroups").conf(HTraceConfiguration.EMPTY).build();
+    GroupedWorkload workload = new GroupedWorkload();
+    CountDownLatch completeLatch = new CountDownLatch(2);
+
+    DB ingestDb = DBFactory.newDB(BasicDB.class.getName(), props, tracer);
+    ((DBWrapper) ingestDb).setMeasurementPrefix("INGEST_");
+    ClientThread ingest = new ClientThread(ingestDb, true, workload, props, new WorkCounter(200), 10, -1,
+        completeLatch);
+    ingest.setRole(ClientThread.Role.INGEST);
+
+    DB queryDb = DBFactory.newDB(BasicDB.class.getName(), props, tracer);
+    ((DBWrapper) queryDb).setMeasurementPrefix("QUERY_");
+    ClientThread query = new ClientThread(queryDb, true, workload, props, new WorkCounter(0), 1, -1,
+        completeLatch);
+    query.setRole(ClientThread.Role.QUERY);
+
+    Thread queryThread = new Thread(query);
+    queryThread.start();
+    Thread ingestThread = new Thread(ingest);
+    ingestThread.start();
+
+    ingestThread.join(TimeUnit.SECONDS.toMillis(30));
+    assertFalse(ingestThread.isAlive());
+    assertTrue(queryThread.isAlive(), "an unbounded query thread stopped on its own");
+    query.requestStop();
+    queryThread.join(TimeUnit.SECONDS.toMillis(30));
+    assertFalse(queryThread.isAlive());
+
+    assertEquals(workload.inserts.get(), 200);
+    assertEquals(ingest.getOpsDone(), 200);
+    assertEquals(query.getOpsDone(), workload.queries.get());
+    assertTrue(workload.queries.get() > 0);
+    assertFalse(workload.queriedTooEarly.get(), "queried before the ingest wrote anything");
+    assertFalse(workload.mixed.get(), "a grouped thread ran the mixed workload");
+
+    Fixtures.ValueCollector names = new Fixtures.ValueCollector();
+    Measurements.getMeasurements().exportMeasurements(names);
+    assertTrue(names.metrics.contains("INGEST_INSERT"), names.metrics.toString());
+    assertTrue(names.metrics.contains("QUERY_SCAN"), names.metrics.toString());
+  }
+}
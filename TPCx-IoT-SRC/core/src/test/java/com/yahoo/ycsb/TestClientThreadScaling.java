@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.htrace.core.HTraceConfiguration;
+import org.apache.htrace.core.Tracer;
+import org.testng.SkipException;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.yahoo.ycsb.measurements.Measurements;
+
+/**
+ * Sweeps the number of concurrent clients on virtual threads against a
+ * {@link BasicDB} that injects a fixed latency per operation. The sweep is
+ * skipped on JVMs without virtual threads, where ten thousand clients would be
+ * as many platform threads.
+ */
+public class TestClientThreadScaling {
+
+  private static final int DELAY_MS = 5;
+  private static final int OPS_PER_CLIENT = 10;
+
+  /** Time from starting the clients of the last step until they all finished. */
+  private long elapsedNs;
+
+  @BeforeClass
+  public void setUp() {
+    Measurements.setProperties(new Properties());
+  }
+
+  @Test
+  public void sweepClients() throws Exception {
+    if (!VirtualThreads.isSupported()) {
+      throw new SkipException("No virtual threads in this JVM");
+    }
+    double previousThroughput = 0;
+    for (int clients : new int[] {100, 1000, 10000}) {
+      long ops = runClients(clients, true);
+      double throughput = ops / (elapsedNs / 1e9);
+
+      assertEquals(ops, (long) clients * OPS_PER_CLIENT);
+      if (clients == 1000) {
+        // The backend is latency bound, so more clients must mean more throughput.
+        assertTrue(throughput > previousThroughput * 2,
+            "throughput " + throughput + " did not scale from " + previousThroughput);
+      }
+      previousThroughput = throughput;
+    }
+  }
+
+  @Test
+  public void createsVirtualThreadsOnlyWhenSupported() {
+    Thread thread = VirtualThreads.newThread(new Runnable() {
+        @Override
+        public void run() {
+        }
+      }, "test", true);
+    assertEquals(VirtualThreads.isVirtual(thread), VirtualThreads.isSupported());
+    assertEquals(thread.getName(), "test");
+    assertTrue(!VirtualThreads.isVirtual(VirtualThreads.newThread(null, "test", false)));
+  }
+
+  private long runClients(int clientcount, boolean virtual) throws Exception {
+    Properties props = new Properties();
+    props.setProperty(BasicDB.SIMULATE_DELAY, String.valueOf(DELAY_MS));
+    props.setProperty(BasicDB.RANDOMIZE_DELAY, "false");
+    props.setProperty(BasicDB.VERBOSE, "false");
+    if (virtual) {
+      props.setProperty(Client.THREAD_MODE_PROPERTY, Client.THREAD_MODE_VIRTUAL);
+    }
+    Tracer tracer = new Tracer.Builder("TestClientThreadScaling")
+        .conf(HTraceConfiguration.EMPTY).build();
+    Workload workload = new Fixtures.InsertOnlyWorkload();
+    WorkCounter work = new WorkCounter((long) clientcount * OPS_PER_CLIENT);
+    CountDownLatch completeLatch = new CountDownLatch(clientcount);
+
+    List<ClientThread> clients = new ArrayList<ClientThread>(clientcount);
+    List<Thread> threads = new ArrayList<Thread>(clientcount);
+    for (int i = 0; i < clientcount; i++) {
+      DB db = DBFactory.newDB("com.yahoo.ycsb.BasicDB", props, tracer);
+      ClientThread client = new ClientThread(db, false, workload, props, work, 1, -1, completeLatch);
+      clients.add(client);
+      threads.add(VirtualThreads.newThread(client, "ClientThread-" + i, virtual));
+    }
+    long start = System.nanoTime();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    long opsDone = 0;
+    for (int i = 0; i < clientcount; i++) {
+      threads.get(i).join();
+      opsDone += clients.get(i).getOpsDone();
+    }
+    elapsedNs = System.nanoTime() - start;
+    tracer.close();
+    return opsDone;
+  }
+}
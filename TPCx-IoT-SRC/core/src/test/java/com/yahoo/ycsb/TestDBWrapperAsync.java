@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.htrace.core.HTraceConfiguration;
+import org.apache.htrace.core.Tracer;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.yahoo.ycsb.measurements.Measurements;
+
+public class TestDBWrapperAsync {
+
+  /** A binding whose operations complete only when the test says so. */
+  public static class PendingDB extends BasicDB implements AsyncDB {
+    final BlockingQueue<CompletableFuture<Status>> pending = new LinkedBlockingQueue<CompletableFuture<Status>>();
+
+    @Override
+    public CompletionStage<Status> insertAsync(String table, String key, HashMap<String, ByteIterator> values) {
+      CompletableFuture<Status> future = new CompletableFuture<Status>();
+      pending.add(future);
+      return future;
+    }
+
+    @Override
+    public CompletionStage<Status> scanAsync(String table, String key, String client, String timestamp,
+                                             Set<String> fields, long runStartTime,
+                                             Vector<HashMap<String, ByteIterator>> result1,
+                                             Vector<HashMap<String, ByteIterator>> result2) {
+      CompletableFuture<Status> future = new CompletableFuture<Status>();
+      pending.add(future);
+      return future;
+    }
+  }
+
+  @BeforeClass
+  public void setUp() {
+    Measurements.setProperties(new Properties());
+  }
+
+  private static DBWrapper newWrapper(DB db, int maxInFlight) throws DBException {
+    Properties props = new Properties();
+    props.setProperty(DBWrapper.MAX_IN_FLIGHT_PROPERTY, String.valueOf(maxInFlight));
+    props.setProperty(BasicDB.VERBOSE, "false");
+    db.setProperties(props);
+    DBWrapper wrapper = new DBWrapper(db, new Tracer.Builder("TestDBWrapperAsync")
+        .conf(HTraceConfiguration.EMPTY).build());
+    wrapper.init();
+    return wrapper;
+  }
+
+  private static HashMap<String, ByteIterator> values() {
+    HashMap<String, ByteIterator> values = new HashMap<String, ByteIterator>();
+    values.put("field0", new StringByteIterator("value"));
+    return values;
+  }
+
+  @Test
+  public void boundsOperationsInFlight() throws Exception {
+    final PendingDB db = new PendingDB();
+    final DBWrapper wrapper = newWrapper(db, 2);
+
+    assertEquals(wrapper.insert("usertable", "a", values()), Status.BATCHED_OK);
+    assertEquals(wrapper.insert("usertable", "b", values()), Status.BATCHED_OK);
+
+    Thread third = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          wrapper.insert("usertable", "c", values());
+        }
+      });
+    third.start();
+    third.join(200);
+    assertTrue(third.isAlive(), "a third operation was started while two were in flight");
+    assertEquals(db.pending.size(), 2);
+
+    db.pending.take().complete(Status.OK);
+    third.join(TimeUnit.SECONDS.toMillis(10));
+    assertFalse(third.isAlive());
+
+    Thread cleanup = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            wrapper.cleanup();
+          } catch (DBException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      });
+    cleanup.start();
+    cleanup.join(200);
+    assertTrue(cleanup.isAlive(), "cleanup did not wait for the operations in flight");
+    while (cleanup.isAlive()) {
+      CompletableFuture<Status> next = db.pending.poll(1, TimeUnit.SECONDS);
+      if (next != null) {
+        next.complete(Status.ERROR);
+      }
+    }
+  }
+
+  @Test
+  public void legacyBindingsCompleteInline() throws Exception {
+    DBWrapper wrapper = newWrapper(new BasicDB(), 4);
+    assertEquals(wrapper.insert("usertable", "a", values()), Status.OK);
+    wrapper.cleanup();
+  }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.htrace.core.HTraceConfiguration;
+import org.apache.htrace.core.Tracer;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.yahoo.ycsb.measurements.Measurements;
+
+public class TestIngestPipeline {
+
+  /** Generates numbered keys spread over a few series. */
+  static class NumberingWorkload extends Workload {
+    final AtomicLong next = new AtomicLong();
+
+    @Override
+    public boolean fillInsert(Object threadstate, IngestRecord record) {
+      long keynum = next.getAndIncrement();
+      String series = "client1:sensor" + (keynum % 7);
+      HashMap<String, ByteIterator> values = new HashMap<String, ByteIterator>();
+      values.put("field0", new StringByteIterator("value"));
+      record.set("usertable", series + ":" + keynum, series, values);
+      return true;
+    }
+
+    @Override
+    public boolean supportsFillInsert() {
+      return true;
+    }
+
+    @Override
+    public boolean doInsert(DB db, Object threadstate) {
+      return false;
+    }
+
+    @Override
+    public boolean doTransaction(DB db, Object threadstate) {
+      return false;
+    }
+  }
+
+  /** Remembers every key it was asked to insert. */
+  public static class RecordingDB extends BasicDB {
+    static final ConcurrentHashMap<String, Boolean> KEYS = new ConcurrentHashMap<String, Boolean>();
+
+    @Override
+    public Status insert(String table, String key, HashMap<String, ByteIterator> values) {
+      assertNull(KEYS.put(key, Boolean.TRUE), "inserted twice: " + key);
+      return Status.OK;
+    }
+  }
+
+  @BeforeClass
+  public void setUp() {
+    Measurements.setProperties(new Properties());
+  }
+
+  @Test
+  public void ringHandsEveryRecordToExactlyOneConsumer() throws Exception {
+    final RecordRing ring = new RecordRing(16);
+    assertEquals(ring.capacity(), 16);
+    final int count = 100000;
+    final ConcurrentHashMap<String, Boolean> seen = new ConcurrentHashMap<String, Boolean>();
+    final AtomicLong taken = new AtomicLong();
+    List<Thread> consumers = new ArrayList<Thread>();
+    for (int i = 0; i < 3; i++) {
+      Thread consumer = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            IngestRecord spare = new IngestRecord();
+            while (taken.get() < count) {
+              IngestRecord record = ring.poll(spare);
+              if (record != null) {
+                assertNull(seen.put(record.getKey(), Boolean.TRUE));
+                spare = record;
+                taken.incrementAndGet();
+              } else {
+                Thread.yield();
+              }
+            }
+          }
+        });
+      consumer.start();
+      consumers.add(consumer);
+    }
+    for (int i = 0; i < count; i++) {
+      IngestRecord record;
+      while ((record = ring.claim()) == null) {
+        Thread.yield();
+      }
+      record.set("usertable", String.valueOf(i), "series", null);
+      ring.publish();
+    }
+    for (Thread consumer : consumers) {
+      consumer.join(TimeUnit.SECONDS.toMillis(30));
+    }
+    assertEquals(seen.size(), count);
+    assertEquals(ring.size(), 0);
+  }
+
+  @Test
+  public void sendsEveryGeneratedRecord() throws Exception {
+    Properties props = new Properties();
+    props.setProperty(BasicDB.VERBOSE, "false");
+    props.setProperty(IngestPipeline.GENERATORS_PROPERTY, "2");
+    props.setProperty(IngestPipeline.BATCHERS_PROPERTY, "2");
+    props.setProperty(IngestPipeline.RING_SIZE_PROPERTY, "64");
+    props.setProperty(IngestPipeline.BATCH_SIZE_PROPERTY, "10");
+    Tracer tracer = new Tracer.Builder("TestIngestPipeline").conf(HTraceConfiguration.EMPTY).build();
+
+    int senders = 3;
+    List<DB> dbs = new ArrayList<DB>();
+    for (int i = 0; i < senders; i++) {
+      dbs.add(DBFactory.newDB(RecordingDB.class.getName(), props, tracer));
+    }
+    CountDownLatch completeLatch = new CountDownLatch(senders);
+    long total = 20000;
+    IngestPipeline pipeline = new IngestPipeline(props, new NumberingWorkload(), dbs,
+        new WorkCounter(total), 100, -1, completeLatch);
+    for (Thread thread : pipeline.getThreads()) {
+      thread.start();
+    }
+    assertTrue(completeLatch.await(60, TimeUnit.SECONDS), "pipeline did not drain");
+
+    long opsDone = 0;
+    for (ClientProgress sender : pipeline.getSenders()) {
+      opsDone += sender.getOpsDone();
+    }
+    assertEquals(opsDone, total);
+    assertEquals(RecordingDB.KEYS.size(), (int) total);
+  }
+}
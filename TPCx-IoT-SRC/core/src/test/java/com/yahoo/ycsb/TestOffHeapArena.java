@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.testng.annotations.Test;
+
+public class TestOffHeapArena {
+
+  @Test
+  public void stagesValuesAcrossSlabs() {
+    OffHeapArena arena = new OffHeapArena(100, 4);
+    OffHeapArena.Batch batch = arena.newBatch();
+    for (int i = 0; i < 10; i++) {
+      assertEquals(batch.append(new StringByteIterator("value-" + i + "-0123456789")), i);
+    }
+    assertEquals(batch.size(), 10);
+    assertEquals(batch.bytes(), 10 * 18);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(new String(batch.toArray(i)), "value-" + i + "-0123456789");
+    }
+
+    ByteBuffer view = batch.view(3);
+    assertTrue(view.isReadOnly());
+    assertEquals(view.remaining(), 18);
+    assertEquals((char) view.get(6), '3');
+  }
+
+  @Test
+  public void recyclesSlabsOnRelease() {
+    OffHeapArena arena = new OffHeapArena(1024, 2);
+    OffHeapArena.Batch batch = arena.newBatch();
+    byte[] value = new byte[300];
+    for (int i = 0; i < 10; i++) {
+      batch.append(value, 0, value.length);
+    }
+    // 3 values fit in a slab.
+    assertEquals(arena.getAllocatedBytes(), 4 * 1024);
+    batch.release();
+    assertEquals(batch.size(), 0);
+    // Only 2 slabs are kept.
+    assertEquals(arena.getPooledSlabs(), 2);
+    assertEquals(arena.getAllocatedBytes(), 2 * 1024);
+
+    for (int i = 0; i < 6; i++) {
+      batch.append(value, 0, value.length);
+    }
+    assertEquals(arena.getPooledSlabs(), 0);
+    assertEquals(arena.getAllocatedBytes(), 2 * 1024);
+  }
+
+  @Test
+  public void givesLargeValuesTheirOwnBuffer() {
+    OffHeapArena arena = new OffHeapArena(64, 4);
+    OffHeapArena.Batch batch = arena.newBatch();
+    byte[] large = new byte[1000];
+    large[999] = 7;
+    int index = batch.append(large, 0, large.length);
+    assertEquals(batch.length(index), 1000);
+    assertEquals(batch.toArray(index)[999], 7);
+    batch.release();
+    assertEquals(arena.getPooledSlabs(), 0);
+    assertEquals(arena.getAllocatedBytes(), 0);
+  }
+
+  @Test(expectedExceptions = IndexOutOfBoundsException.class)
+  public void rejectsValuesOfReleasedBatches() {
+    OffHeapArena.Batch batch = new OffHeapArena(64, 4).newBatch();
+    batch.append(new byte[8], 0, 8);
+    batch.release();
+    batch.toArray(0);
+  }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.yahoo.ycsb.measurements.Measurements;
+
+public class TestOperationTracer {
+
+  private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  @BeforeClass
+  public void setUp() {
+    Measurements.setProperties(new Properties());
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    OperationTracer.shutdown();
+  }
+
+  @Test
+  public void tracesNothingWhenOff() throws Exception {
+    OperationTracer.start(new Properties());
+    assertNull(OperationTracer.begin(System.nanoTime()));
+    assertEquals(OperationTracer.start(), 0);
+    OperationTracer.span("encode", 0);
+  }
+
+  @Test
+  public void tracesOneInNOperationsWithTheirStages() throws Exception {
+    File file = File.createTempFile("trace", ".log");
+    file.deleteOnExit();
+    Properties props = new Properties();
+    props.setProperty(OperationTracer.SAMPLE_PROPERTY, "3");
+    props.setProperty(OperationTracer.FILE_PROPERTY, file.getPath());
+    OperationTracer.start(props);
+
+    for (int i = 0; i < 6; i++) {
+      long st = System.nanoTime();
+      OperationTracer.Trace trace = OperationTracer.begin(st);
+      long traceStart = OperationTracer.start();
+      assertEquals(trace != null, traceStart != 0);
+      OperationTracer.span("encode", traceStart);
+      OperationTracer.span("flush", OperationTracer.start());
+      if (trace != null) {
+        OperationTracer.end(trace, "INSERT", Status.OK, System.nanoTime());
+      }
+      // Nothing is recorded between operations.
+      assertEquals(OperationTracer.start(), 0);
+    }
+    OperationTracer.shutdown();
+
+    List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    assertEquals(lines.size(), 2);
+    for (String line : lines) {
+      assertTrue(line.matches("INSERT OK \\d+us sampled encode=\\+\\d+/\\d+us flush=\\+\\d+/\\d+us"), line);
+    }
+  }
+
+  @Test
+  public void tracesSlowOperations() throws Exception {
+    Properties props = new Properties();
+    props.setProperty(OperationTracer.SLOW_PROPERTY, "10");
+    props.setProperty(OperationTracer.FILE_PROPERTY, File.createTempFile("trace", ".log").getPath());
+    OperationTracer.start(props);
+
+    // Every operation records its stages, as it may turn out slow.
+    OperationTracer.Trace trace = OperationTracer.begin(1000 * MS);
+    assertNotNull(trace);
+    assertFalse(OperationTracer.start() == 0);
+    OperationTracer.end(trace, "SCAN", Status.OK, 1005 * MS);
+
+    trace = OperationTracer.begin(1000 * MS);
+    String line = OperationTracer.format(trace, "SCAN", Status.ERROR, 1012 * MS, true);
+    assertEquals(line, "SCAN ERROR 12000us slow");
+    OperationTracer.end(trace, "SCAN", Status.ERROR, 1012 * MS);
+  }
+
+  @Test
+  public void measuresEachStageOfEveryOperation() throws Exception {
+    Properties props = new Properties();
+    props.setProperty(Measurements.MEASUREMENT_STAGES_PROPERTY, "true");
+    OperationTracer.start(props);
+    Measurements.getMeasurements().reset();
+
+    for (int i = 0; i < 3; i++) {
+      OperationTracer.Trace trace = OperationTracer.begin(System.nanoTime());
+      assertNotNull(trace);
+      // Two queries, whose round trips add up to one measurement.
+      OperationTracer.span(OperationTracer.STAGE_RPC, OperationTracer.start());
+      OperationTracer.span(OperationTracer.STAGE_RPC, OperationTracer.start());
+      OperationTracer.span(OperationTracer.STAGE_DECODE, OperationTracer.start());
+      OperationTracer.end(trace, "STAGED_SCAN", Status.OK, System.nanoTime());
+    }
+
+    Fixtures.ValueCollector collector = new Fixtures.ValueCollector();
+    Measurements.getMeasurements().exportMeasurements(collector);
+    Measurements.getMeasurements().reset();
+    assertEquals(collector.values.get("STAGED_SCAN.rpc Operations"), 3.0);
+    assertEquals(collector.values.get("STAGED_SCAN.decode Operations"), 3.0);
+  }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.htrace.core.HTraceConfiguration;
+import org.apache.htrace.core.Tracer;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.yahoo.ycsb.measurements.Measurements;
+
+public class TestPhaseScheduler {
+
+  @BeforeClass
+  public void setUp() {
+    Measurements.setProperties(new Properties());
+  }
+
+  @Test
+  public void parsesPhasesWithDefaults() {
+    Properties props = new Properties();
+    props.setProperty(PhaseScheduler.PHASES_PROPERTY, "warmup, steady");
+    props.setProperty("phase.warmup.duration", "60");
+    props.setProperty("phase.warmup.measure", "false");
+    props.setProperty("phase.warmup.threads", "4");
+    props.setProperty("phase.steady.duration", "600");
+    props.setProperty("phase.steady.target", "1000");
+    props.setProperty("phase.steady.ramp", "true");
+
+    List<PhaseScheduler.Phase> phases = PhaseScheduler.parse(props, 16, 500);
+    assertEquals(phases.size(), 2);
+    PhaseScheduler.Phase warmup = phases.get(0);
+    assertEquals(warmup.getName(), "warmup");
+    assertEquals(warmup.getDurationMs(), 60000);
+    assertEquals(warmup.getThreads(), 4);
+    assertEquals(warmup.getTarget(), 500);
+    assertFalse(warmup.isMeasured());
+    PhaseScheduler.Phase steady = phases.get(1);
+    assertEquals(steady.getThreads(), 16);
+    assertEquals(steady.getTarget(), 1000);
+    assertTrue(steady.isRamp());
+    assertTrue(steady.isMeasured());
+    assertEquals(PhaseScheduler.getMaxThreads(phases), 16);
+
+    assertTrue(PhaseScheduler.parse(new Properties(), 1, 0).isEmpty());
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void requiresADuration() {
+    Properties props = new Properties();
+    props.setProperty(PhaseScheduler.PHASES_PROPERTY, "steady");
+    PhaseScheduler.parse(props, 1, 0);
+  }
+
+  @Test
+  public void runsThePhasesAndExportsTheMeasuredOnes() throws Exception {
+    Properties props = new Properties();
+    props.setProperty(BasicDB.SIMULATE_DELAY, "1");
+    props.setProperty(BasicDB.RANDOMIZE_DELAY, "false");
+    props.setProperty(BasicDB.VERBOSE, "false");
+    props.setProperty(PhaseScheduler.PHASES_PROPERTY, "warmup,steady");
+    props.setProperty("phase.warmup.duration", "1");
+    props.setProperty("phase.warmup.measure", "false");
+    props.setProperty("phase.warmup.threads", "1");
+    props.setProperty("phase.steady.duration", "1");
+    props.setProperty("phase.steady.target", "200");
+    Tracer tracer = new Tracer.Builder("TestPhaseScheduler").conf(HTraceConfiguration.EMPTY).build();
+    List<PhaseScheduler.Phase> phases = PhaseScheduler.parse(props, 2, 0);
+
+    CountDownLatch completeLatch = new CountDownLatch(2);
+    Workload workload = new Fixtures.InsertOnlyWorkload();
+    WorkCounter work = new WorkCounter(0);
+    List<ClientThread> clients = new ArrayList<ClientThread>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 2; i++) {
+      DB db = DBFactory.newDB(BasicDB.class.getName(), props, tracer);
+      ClientThread client = new ClientThread(db, true, workload, props, work, 1, -1, completeLatch);
+      clients.add(client);
+      threads.add(new Thread(client));
+    }
+    PhaseScheduler scheduler = new PhaseScheduler(phases, clients);
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    scheduler.start();
+
+    // The warm-up runs one thread only.
+    Thread.sleep(500);
+    assertEquals(clients.get(1).getOpsDone(), 0);
+
+    assertTrue(completeLatch.await(30, TimeUnit.SECONDS), "the threads did not stop after the schedule");
+    scheduler.join();
+    assertTrue(clients.get(1).getOpsDone() > 0);
+
+    Fixtures.ValueCollector collector = new Fixtures.ValueCollector();
+    scheduler.exportPhases(collector);
+    assertTrue(collector.metrics.contains("steady_OVERALL"), collector.metrics.toString());
+    assertTrue(collector.metrics.contains("steady_INSERT"), collector.metrics.toString());
+    for (String metric : collector.metrics) {
+      assertFalse(metric.startsWith("warmup_"), metric);
+    }
+    // 200 ops/sec for a second, give or take the scheduling of this host.
+    double throughput = collector.values.get("steady_OVERALL Throughput(ops/sec)");
+    assertTrue(throughput > 100 && throughput < 300, "steady throughput " + throughput);
+  }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.Vector;
+
+import org.testng.annotations.Test;
+
+public class TestScanResultProcessor {
+
+  @Test
+  public void logsTheAveragesOfBothWindowsFromItsOwnThread() throws Exception {
+    File file = File.createTempFile("scanresults", ".log");
+    file.deleteOnExit();
+    Properties props = new Properties();
+    props.setProperty(ScanResultProcessor.OUTPUT_PROPERTY, file.getPath());
+    ScanResultProcessor processor = new ScanResultProcessor(props);
+
+    processor.submit("cent_9_Humidity", rows(0.25, 0.75), rows(0.5));
+    processor.submit("side_8_Humidity", rows(), rows(0.5));
+    processor.submit(rows(0.125));
+    processor.close();
+
+    List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    assertEquals(lines, Arrays.asList(
+        "Latest Time Interval :: Avg Value for cent_9_Humidity=0.5",
+        "30 Min Window Time Interval :: Avg Value for cent_9_Humidity=0.5",
+        "Avg Value for cent_9_Humidity=0.125"));
+
+    Fixtures.ValueCollector collector = export(processor);
+    assertEquals(collector.values.get("SCAN_RESULTS Scans"), 3.0);
+    assertEquals(collector.values.get("SCAN_RESULTS EmptyScans"), 1.0);
+    assertEquals(collector.values.get("SCAN_RESULTS Rows"), 5.0);
+    assertEquals(collector.values.get("SCAN_RESULTS MeanLatestAvg"), 0.5);
+  }
+
+  @Test
+  public void keepsTheAggregatesWithoutPrinting() throws Exception {
+    Properties props = new Properties();
+    props.setProperty(ScanResultProcessor.OUTPUT_PROPERTY, "none");
+    props.setProperty(ScanResultProcessor.ASYNC_PROPERTY, "false");
+    ScanResultProcessor processor = new ScanResultProcessor(props);
+
+    processor.submit("cent_9_Humidity", rows(0.25), rows(0.5, 1.0));
+    processor.submit("cent_9_Humidity", rows(0.75), rows(0.5));
+    HashMap<String, ByteIterator> malformed = new HashMap<String, ByteIterator>();
+    malformed.put("field0", new StringByteIterator("no sensor value"));
+    processor.submit("cent_9_Humidity", new Vector<HashMap<String, ByteIterator>>(Arrays.asList(malformed)),
+        rows());
+    processor.close();
+
+    Fixtures.ValueCollector collector = export(processor);
+    assertEquals(collector.values.get("SCAN_RESULTS MeanLatestAvg"), 0.5);
+    assertEquals(collector.values.get("SCAN_RESULTS MeanWindowAvg"), 0.625);
+    assertEquals(collector.values.get("SCAN_RESULTS Malformed"), 1.0);
+    assertFalse(collector.values.containsKey("SCAN_RESULTS ProcessedOnClientThread"));
+  }
+
+  @Test
+  public void weighsAggregateRowsByTheirCount() throws Exception {
+    Properties props = new Properties();
+    props.setProperty(ScanResultProcessor.OUTPUT_PROPERTY, "none");
+    props.setProperty(ScanResultProcessor.ASYNC_PROPERTY, "false");
+    ScanResultProcessor processor = new ScanResultProcessor(props);
+
+    Vector<HashMap<String, ByteIterator>> latest = rows(1.0);
+    latest.add(ScanResultProcessor.aggregateRow(3, 1.0, 0.25, 0.5));
+    Vector<HashMap<String, ByteIterator>> window = new Vector<HashMap<String, ByteIterator>>();
+    window.add(ScanResultProcessor.aggregateRow(4, 3.0, 0.5, 1.0));
+    processor.submit("cent_9_Humidity", latest, window);
+    processor.close();
+
+    Fixtures.ValueCollector collector = export(processor);
+    assertEquals(collector.values.get("SCAN_RESULTS Rows"), 8.0);
+    assertEquals(collector.values.get("SCAN_RESULTS MeanLatestAvg"), 0.5);
+    assertEquals(collector.values.get("SCAN_RESULTS MeanWindowAvg"), 0.75);
+  }
+
+  @Test
+  public void processesOnTheClientThreadWhenTheQueueIsFull() throws Exception {
+    Properties props = new Properties();
+    props.setProperty(ScanResultProcessor.OUTPUT_PROPERTY, "none");
+    props.setProperty(ScanResultProcessor.QUEUE_SIZE_PROPERTY, "0");
+    ScanResultProcessor processor = new ScanResultProcessor(props);
+
+    processor.submit("cent_9_Humidity", rows(0.25), rows());
+    Fixtures.ValueCollector collector = export(processor);
+    processor.close();
+    assertEquals(collector.values.get("SCAN_RESULTS Scans"), 1.0);
+    assertEquals(collector.values.get("SCAN_RESULTS ProcessedOnClientThread"), 1.0);
+    assertNull(collector.values.get("SCAN_RESULTS MeanWindowAvg"));
+  }
+
+  private static Fixtures.ValueCollector export(ScanResultProcessor processor) throws Exception {
+    Fixtures.ValueCollector collector = new Fixtures.ValueCollector();
+    processor.export(collector);
+    return collector;
+  }
+
+  /** @return Rows in the payload format of the workload, with the given sensor values. */
+  private static Vector<HashMap<String, ByteIterator>> rows(double... values) {
+    Vector<HashMap<String, ByteIterator>> rows = new Vector<HashMap<String, ByteIterator>>();
+    for (double value : values) {
+      HashMap<String, ByteIterator> row = new HashMap<String, ByteIterator>();
+      row.put("field0", new StringByteIterator(
+          "cent_9_Humidity:cent_9_Humidity_value:" + value + ":timestamp:1510000000000:12345"));
+      rows.add(row);
+    }
+    return rows;
+  }
+}
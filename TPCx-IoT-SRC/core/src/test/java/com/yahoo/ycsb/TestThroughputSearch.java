@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.htrace.core.HTraceConfiguration;
+import org.apache.htrace.core.Tracer;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.yahoo.ycsb.measurements.Measurements;
+
+public class TestThroughputSearch {
+
+  @BeforeClass
+  public void setUp() {
+    Measurements.setProperties(new Properties());
+  }
+
+  @Test
+  public void reportsPercentiles() {
+    Measurements measurements = new Measurements(new Properties());
+    assertEquals(measurements.getPercentileLatency("INSERT", 99), -1.0);
+    for (int latency = 1; latency <= 1000; latency++) {
+      measurements.measure("INSERT", latency);
+    }
+    double p99 = measurements.getPercentileLatency("INSERT", 99);
+    assertTrue(p99 >= 985 && p99 <= 995, "p99 " + p99);
+    // Reading a percentile leaves the interval of the status thread alone.
+    assertTrue(measurements.getSummary().contains("Count=1000"), measurements.getSummary());
+    measurements.reset();
+    assertEquals(measurements.getPercentileLatency("INSERT", 99), -1.0);
+
+    Properties props = new Properties();
+    props.setProperty(Measurements.MEASUREMENT_TYPE_PROPERTY, "histogram");
+    Measurements buckets = new Measurements(props);
+    for (int latency = 1; latency <= 100; latency++) {
+      buckets.measure("INSERT", latency * 1000);
+    }
+    assertEquals(buckets.getPercentileLatency("INSERT", 99), 99000.0);
+    assertTrue(buckets.hasPercentiles());
+
+    props.setProperty(Measurements.MEASUREMENT_TYPE_PROPERTY, "raw");
+    assertFalse(new Measurements(props).hasPercentiles());
+  }
+
+  @Test
+  public void findsTheHighestTargetWithinTheSla() throws Exception {
+    Properties props = searchProperties();
+    props.setProperty(ThroughputSearch.SLA_PROPERTY_PREFIX + "insert", "1000");
+    props.setProperty(ThroughputSearch.MIN_TARGET_PROPERTY, "50");
+    props.setProperty(ThroughputSearch.MAX_TARGET_PROPERTY, "200");
+
+    Fixtures.ValueCollector result = search(props);
+    assertEquals(result.values.get("SEARCH SustainableTarget(ops/sec)"), 200.0);
+    assertEquals(result.values.get("SEARCH Steps"), 3.0);
+    assertEquals(result.values.get("SEARCH_STEP_1 Target(ops/sec)"), 50.0);
+    assertEquals(result.values.get("SEARCH_STEP_3 Passed"), 1.0);
+  }
+
+  @Test
+  public void reportsNoTargetWhenTheSlaCannotBeMet() throws Exception {
+    Properties props = searchProperties();
+    // BasicDB takes 2 ms per operation.
+    props.setProperty(ThroughputSearch.SLA_PROPERTY_PREFIX + "insert", "0.5");
+    props.setProperty(ThroughputSearch.MIN_TARGET_PROPERTY, "100");
+    props.setProperty(ThroughputSearch.MAX_STEPS_PROPERTY, "2");
+
+    Fixtures.ValueCollector result = search(props);
+    assertEquals(result.values.get("SEARCH SustainableTarget(ops/sec)"), 0.0);
+    assertEquals(result.values.get("SEARCH_STEP_1 Passed"), 0.0);
+    assertEquals(result.values.get("SEARCH_STEP_2 Target(ops/sec)"), 50.0);
+    assertTrue(result.values.get("SEARCH_STEP_1 INSERT-99thPercentileLatency(us)") > 500);
+  }
+
+  @Test
+  public void failsProbesWithoutSuccessfulOperations() throws Exception {
+    Properties props = searchProperties();
+    // The workload only inserts, so no SCAN is ever measured.
+    props.setProperty(ThroughputSearch.SLA_PROPERTY_PREFIX + "scan", "1000");
+    props.setProperty(ThroughputSearch.MIN_TARGET_PROPERTY, "50");
+    props.setProperty(ThroughputSearch.MAX_STEPS_PROPERTY, "1");
+
+    Fixtures.ValueCollector result = search(props);
+    assertEquals(result.values.get("SEARCH_STEP_1 SCAN-99thPercentileLatency(us)"), -1.0);
+    assertEquals(result.values.get("SEARCH_STEP_1 Passed"), 0.0);
+    assertEquals(result.values.get("SEARCH SustainableTarget(ops/sec)"), 0.0);
+  }
+
+  @Test
+  public void stopsBeforeAnUnthrottledTarget() throws Exception {
+    Properties props = searchProperties();
+    props.setProperty(ThroughputSearch.SLA_PROPERTY_PREFIX + "insert", "0.5");
+    props.setProperty(ThroughputSearch.MIN_TARGET_PROPERTY, "2");
+
+    Fixtures.ValueCollector result = search(props);
+    assertEquals(result.values.get("SEARCH SustainableTarget(ops/sec)"), 0.0);
+    assertEquals(result.values.get("SEARCH Steps"), 2.0);
+    assertEquals(result.values.get("SEARCH_STEP_2 Target(ops/sec)"), 1.0);
+  }
+
+  private static Properties searchProperties() {
+    Properties props = new Properties();
+    props.setProperty(BasicDB.SIMULATE_DELAY, "2");
+    props.setProperty(BasicDB.RANDOMIZE_DELAY, "false");
+    props.setProperty(BasicDB.VERBOSE, "false");
+    props.setProperty(ThroughputSearch.STEP_TIME_PROPERTY, "1");
+    return props;
+  }
+
+  private static Fixtures.ValueCollector search(Properties props) throws Exception {
+    Tracer tracer = new Tracer.Builder("TestThroughputSearch").conf(HTraceConfiguration.EMPTY).build();
+    CountDownLatch completeLatch = new CountDownLatch(2);
+    Workload workload = new Fixtures.InsertOnlyWorkload();
+    WorkCounter work = new WorkCounter(0);
+    List<ClientThread> clients = new ArrayList<ClientThread>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 2; i++) {
+      DB db = DBFactory.newDB(BasicDB.class.getName(), props, tracer);
+      ClientThread client = new ClientThread(db, true, workload, props, work, 1, -1, completeLatch);
+      clients.add(client);
+      threads.add(new Thread(client));
+    }
+    ThroughputSearch search = new ThroughputSearch(props, clients);
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    search.start();
+    assertTrue(completeLatch.await(60, TimeUnit.SECONDS), "the threads did not stop after the search");
+    search.join();
+
+    Fixtures.ValueCollector collector = new Fixtures.ValueCollector();
+    search.exportSearch(collector);
+    return collector;
+  }
+}
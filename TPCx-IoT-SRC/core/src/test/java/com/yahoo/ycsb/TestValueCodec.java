@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2017 YCSB contributors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.yahoo.ycsb.workloads.CoreWorkload;
+
+public class TestValueCodec {
+
+  private static final byte[] PAYLOAD = ("cent_9_Humidity:cent_9_Humidity_value:0.1234:timestamp:1510000000000:"
+      + "-1234567:cent_9_Humidity_value:0.1234:timestamp:1510000000001:98765432").getBytes(StandardCharsets.UTF_8);
+
+  @BeforeClass
+  public void setUp() {
+    ValueCodec.setPayloadDictionary(CoreWorkload.buildPayloadDictionary());
+  }
+
+  @Test
+  public void passesValuesThroughByDefault() throws Exception {
+    ValueCodec codec = new ValueCodec(new Properties());
+    assertFalse(codec.isEnabled());
+    assertSame(codec.encode(PAYLOAD), PAYLOAD);
+    assertSame(codec.decode(PAYLOAD), PAYLOAD);
+  }
+
+  @Test
+  public void roundTripsWithThePayloadDictionary() throws Exception {
+    ValueCodec codec = new ValueCodec(deflate("payload"));
+    byte[] encoded = codec.encode(PAYLOAD);
+    assertTrue(encoded.length < PAYLOAD.length / 2, "encoded to " + encoded.length + " bytes");
+    assertEquals(codec.decode(encoded), PAYLOAD);
+
+    // The dictionary helps: the same value compresses worse without it.
+    byte[] plain = new ValueCodec(deflate("none")).encode(PAYLOAD);
+    assertTrue(encoded.length < plain.length, encoded.length + " vs " + plain.length);
+
+    // Empty values and uncompressed values read back as they are.
+    assertEquals(codec.decode(codec.encode(new byte[0])), new byte[0]);
+    assertSame(codec.decode(PAYLOAD), PAYLOAD);
+  }
+
+  @Test
+  public void readsTheDictionaryFromAFile() throws Exception {
+    File file = File.createTempFile("dictionary", ".bin");
+    file.deleteOnExit();
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(PAYLOAD);
+    }
+    ValueCodec codec = new ValueCodec(deflate(file.getPath()));
+    assertEquals(codec.decode(codec.encode(PAYLOAD)), PAYLOAD);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void rejectsValuesCompressedWithAnotherDictionary() throws Exception {
+    byte[] encoded = new ValueCodec(deflate("payload")).encode(PAYLOAD);
+    new ValueCodec(deflate("none")).decode(encoded);
+  }
+
+  @Test
+  public void exportsTheCompressionRatio() throws Exception {
+    ValueCodec.resetStatistics();
+    ValueCodec codec = new ValueCodec(deflate("payload"));
+    codec.decode(codec.encode(PAYLOAD));
+
+    Fixtures.ValueCollector collector = new Fixtures.ValueCollector();
+    ValueCodec.exportMeasurements(collector);
+    ValueCodec.resetStatistics();
+    assertEquals(collector.values.get("CODEC EncodedBytes"), (double) PAYLOAD.length);
+    assertEquals(collector.values.get("CODEC DecodedBytes"), (double) PAYLOAD.length);
+    assertEquals(collector.values.get("CODEC CompressionRatio"),
+        PAYLOAD.length / collector.values.get("CODEC CompressedBytes"), 1e-9);
+    assertTrue(collector.values.containsKey("CODEC EncodeTime(ms/MB)"));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void rejectsUnknownCodecs() throws Exception {
+    Properties props = new Properties();
+    props.setProperty(ValueCodec.CODEC_PROPERTY, "lz4");
+    new ValueCodec(props);
+  }
+
+  private static Properties deflate(String dictionary) {
+    Properties props = new Properties();
+    props.setProperty(ValueCodec.CODEC_PROPERTY, "deflate");
+    props.setProperty(ValueCodec.DICTIONARY_PROPERTY, dictionary);
+    return props;
+  }
+}
@@ -21,12 +21,15 @@ import com.couchbase.client.core.env.DefaultCoreEnvironment;
 import com.couchbase.client.core.env.resources.IoPoolShutdownHook;
 import com.couchbase.client.core.logging.CouchbaseLogger;
 import com.couchbase.client.core.logging.CouchbaseLoggerFactory;
+import com.couchbase.client.core.time.Delay;
 import com.couchbase.client.core.metrics.DefaultLatencyMetricsCollectorConfig;
 import com.couchbase.client.core.metrics.DefaultMetricsCollectorConfig;
 import com.couchbase.client.core.metrics.LatencyMetricsCollectorConfig;
 import com.couchbase.client.core.metrics.MetricsCollectorConfig;
 import com.couchbase.client.deps.com.fasterxml.jackson.core.JsonFactory;
 import com.couchbase.client.deps.com.fasterxml.jackson.core.JsonGenerator;
+import com.couchbase.client.deps.com.fasterxml.jackson.core.JsonParser;
+import com.couchbase.client.deps.com.fasterxml.jackson.core.JsonToken;
 import com.couchbase.client.deps.com.fasterxml.jackson.databind.JsonNode;
 import com.couchbase.client.deps.com.fasterxml.jackson.databind.node.ObjectNode;
 import com.couchbase.client.deps.io.netty.channel.DefaultSelectStrategyFactory;
@@ -43,29 +46,44 @@ import com.couchbase.client.java.CouchbaseCluster;
 import com.couchbase.client.java.PersistTo;
 import com.couchbase.client.java.ReplicateTo;
 import com.couchbase.client.java.document.Document;
+import com.couchbase.client.java.document.JsonDocument;
 import com.couchbase.client.java.document.RawJsonDocument;
 import com.couchbase.client.java.document.json.JsonArray;
 import com.couchbase.client.java.document.json.JsonObject;
 import com.couchbase.client.java.env.CouchbaseEnvironment;
 import com.couchbase.client.java.env.DefaultCouchbaseEnvironment;
+import com.couchbase.client.java.error.CannotRetryException;
+import com.couchbase.client.java.error.DocumentAlreadyExistsException;
+import com.couchbase.client.java.error.DocumentDoesNotExistException;
 import com.couchbase.client.java.error.TemporaryFailureException;
 import com.couchbase.client.java.query.*;
 import com.couchbase.client.java.transcoder.JacksonTransformers;
 import com.couchbase.client.java.util.Blocking;
+import com.couchbase.client.java.util.retry.RetryBuilder;
+import com.couchbase.client.java.util.retry.RetryWhenFunction;
+import com.yahoo.ycsb.AsyncDB;
+import com.yahoo.ycsb.BatchSizeController;
+import com.yahoo.ycsb.BatchTracker;
 import com.yahoo.ycsb.ByteIterator;
 import com.yahoo.ycsb.DB;
 import com.yahoo.ycsb.DBException;
 import com.yahoo.ycsb.Status;
 import com.yahoo.ycsb.StringByteIterator;
+import com.yahoo.ycsb.measurements.Measurements;
 import rx.Observable;
 import rx.Subscriber;
 import rx.functions.Action1;
 import rx.functions.Func1;
+import rx.functions.Func2;
 
+import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.channels.spi.SelectorProvider;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.LockSupport;
@@ -95,9 +113,52 @@ import java.util.concurrent.locks.LockSupport;
  * <li><b>couchbase.runtimeMetricsInterval=0</b> The interval in seconds when runtime metrics will be logged.</li>
  * <li><b>couchbase.documentExpiry=0</b> Document Expiry is the amount of time until a document expires in
  *      Couchbase.</li>
+ * <li><b>couchbase.batchSize=1</b> If > 1, KV inserts are buffered per thread and sent as a batch of that many
+ *      documents through the async API; the size adapts with batchsize.adaptive.</li>
+ * <li><b>couchbase.batchConcurrency=64</b> The most documents of a batch in flight at once.</li>
+ * <li><b>couchbase.kvScan=false</b> If set to true, TPCx-IoT window queries get the documents of the window by
+ *      id through KV instead of running a N1QL range query.</li>
+ * <li><b>couchbase.kvScanInterval=100</b> The interval in ms between the timestamps of the keys, as generated
+ *      by the workload.</li>
+ * <li><b>couchbase.timeBucketMs=0</b> If > 0, KV inserts append the sample to one document per sensor and
+ *      time bucket of that many ms, and window queries get the buckets of the window.</li>
+ * <li><b>couchbase.coveringIndex=false</b> If set to true, the first client creates a GSI covering the
+ *      TPCx-IoT window query unless it exists, and window queries select the covered fields.</li>
+ * <li><b>couchbase.coveringFields=field0</b> The fields the covering index holds, comma separated.</li>
  * </ul>
+ *
+ * <p> The client implements {@link AsyncDB}, so with "-p maxinflight=N" a single client thread keeps up to N
+ * KV inserts or TPCx-IoT queries outstanding on the SDK's event loops. Inserts are retried on TMPFAIL like
+ * the blocking ones.
+ *
+ * <p> With couchbase.batchSize, a thread instead returns from an insert once the document is buffered, with
+ * or without maxinflight, and sends the whole batch at once, with at most couchbase.batchConcurrency
+ * documents in flight. Each document is retried on TMPFAIL like a single insert, and acknowledged on its
+ * own as COUCHBASE_ACK or COUCHBASE_ACK-FAILED, see {@link BatchTracker}; the batch is measured as
+ * COUCHBASE_FLUSH with the COUCHBASE_BATCH_RECORDS, COUCHBASE_BATCH_BYTES and COUCHBASE_BATCH_CONCURRENCY
+ * gauges.
+ *
+ * <p> The keys of a sensor are usertable:client:sensor:timestamp, with the timestamps on the grid of the
+ * workload's timestamp generator, so with couchbase.kvScan the ids a window can hold are known up front. They
+ * are all fetched at once, and the ids no reading was written under are skipped; this needs neither the query
+ * service nor an index on the ids. Both modes are measured as SCAN, so runs with and without it compare
+ * directly.
+ *
+ * <p> With couchbase.timeBucketMs, the samples of a sensor are instead kept in one document per time bucket,
+ * usertable:client:sensor:bucketStart, as {"samples": [{"ts": timestamp, "field0": ...}, ...]}. An insert
+ * appends its sample with a sub-document arrayAppend, and creates the document if it is the first of the
+ * bucket, so far fewer documents, with their metadata, take up the memory quota and go through DCP. A window
+ * query gets the one or two buckets it spans and keeps the samples in the window. Only insert and the
+ * TPCx-IoT scan know about the layout; read, update and delete of a single key still address a document
+ * per sample.
+ *
+ * <p> Otherwise window queries go through N1QL. Unless couchbase.adhoc is set, each client prepares the
+ * window statement under a name of its own once and executes it by name, without going through the plan
+ * cache the SDK shares between threads; a plan the query service does not know any more is prepared again
+ * for the next window. Rows are decoded from their bytes into the result as they stream in. With
+ * couchbase.coveringIndex the statement is answered from the index alone, without fetching the documents.
  */
-public class Couchbase2Client extends DB {
+public class Couchbase2Client extends DB implements AsyncDB {
 
   static {
     // No need to send the full encoded_plan for this benchmark workload, less network overhead!
@@ -105,10 +166,20 @@ public class Couchbase2Client extends DB {
   }
 
   private static final String SEPARATOR = ":";
+  /** The length of a TPCx-IoT query window, in ms. */
+  private static final long WINDOW_MS = 5000;
+  /** The array of a time bucket document holding its samples. */
+  private static final String SAMPLES = "samples";
+  /** The field of a sample in a time bucket holding its timestamp. */
+  private static final String SAMPLE_TIMESTAMP = "ts";
   private static final CouchbaseLogger LOGGER = CouchbaseLoggerFactory.getInstance(Couchbase2Client.class);
   private static final Object INIT_COORDINATOR = new Object();
 
   private static volatile CouchbaseEnvironment env = null;
+  /** The name of the GSI covering the TPCx-IoT window query. */
+  private static final String COVERING_INDEX = "ycsb_iot_window";
+  /** Guarded by INIT_COORDINATOR. */
+  private static boolean coveringIndexChecked;
 
   private Cluster cluster;
   private Bucket bucket;
@@ -130,7 +201,20 @@ public class Couchbase2Client extends DB {
   private int runtimeMetricsInterval;
   private String scanAllQuery;
   private int documentExpiry;
-  
+  private boolean kvScan;
+  private long kvScanInterval;
+  private long timeBucketMs;
+  /** Null unless couchbase.coveringIndex is set. */
+  private Set<String> coveringFields;
+  /** The prepared statements of this client, by statement. */
+  private final Map<String, PreparedPayload> plans = new ConcurrentHashMap<String, PreparedPayload>();
+
+  /** Null unless inserts are batched. */
+  private BatchSizeController batchSizeController;
+  private int batchConcurrency;
+  private final List<RawJsonDocument> batch = new ArrayList<RawJsonDocument>();
+  private final BatchTracker acks = new BatchTracker("COUCHBASE");
+
   @Override
   public void init() throws DBException {
     Properties props = getProperties();
@@ -156,6 +240,24 @@ public class Couchbase2Client extends DB {
     networkMetricsInterval = Integer.parseInt(props.getProperty("couchbase.networkMetricsInterval", "0"));
     runtimeMetricsInterval = Integer.parseInt(props.getProperty("couchbase.runtimeMetricsInterval", "0"));
     documentExpiry = Integer.parseInt(props.getProperty("couchbase.documentExpiry", "0"));
+    int batchSize = Integer.parseInt(props.getProperty("couchbase.batchSize", "1"));
+    if (batchSize > 1) {
+      batchSizeController = new BatchSizeController(props, "COUCHBASE", batchSize);
+    }
+    batchConcurrency = Integer.parseInt(props.getProperty("couchbase.batchConcurrency", "64"));
+    kvScan = props.getProperty("couchbase.kvScan", "false").equals("true");
+    kvScanInterval = Long.parseLong(props.getProperty("couchbase.kvScanInterval", "100"));
+    if (kvScanInterval <= 0) {
+      throw new DBException("couchbase.kvScanInterval must be positive.");
+    }
+    if (props.getProperty("couchbase.coveringIndex", "false").equals("true")) {
+      coveringFields = new LinkedHashSet<String>(
+          Arrays.asList(props.getProperty("couchbase.coveringFields", "field0").split(",")));
+    }
+    timeBucketMs = Long.parseLong(props.getProperty("couchbase.timeBucketMs", "0"));
+    if (timeBucketMs > 0 && (!kv || batchSizeController != null)) {
+      throw new DBException("couchbase.timeBucketMs needs couchbase.kv and does not batch inserts.");
+    }
     scanAllQuery =  "SELECT RAW meta().id FROM `" + bucketName +
       "` WHERE meta().id >= '$1' ORDER BY meta().id LIMIT $2";
 
@@ -215,6 +317,37 @@ public class Couchbase2Client extends DB {
     if (!kv && !syncMutResponse) {
       throw new DBException("Not waiting for N1QL responses on mutations not yet implemented.");
     }
+
+    if (coveringFields != null) {
+      synchronized (INIT_COORDINATOR) {
+        if (!coveringIndexChecked) {
+          createCoveringIndex();
+          coveringIndexChecked = true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates the GSI covering the TPCx-IoT window query, see couchbase.coveringIndex, unless it exists.
+   */
+  private void createCoveringIndex() throws DBException {
+    N1qlQueryResult existing = bucket.query(N1qlQuery.parameterized(
+        "SELECT RAW name FROM system:indexes WHERE keyspace_id = $1 AND name = $2",
+        JsonArray.from(bucketName, COVERING_INDEX)
+    ));
+    if (!existing.finalSuccess()) {
+      throw new DBException("Could not look up the covering index: " + existing.errors());
+    }
+    if (!existing.allRows().isEmpty()) {
+      return;
+    }
+    String create = "CREATE INDEX `" + COVERING_INDEX + "` ON `" + bucketName + "`(meta().id, "
+        + joinFields(coveringFields) + ") USING GSI";
+    N1qlQueryResult created = bucket.query(N1qlQuery.simple(create));
+    if (!created.finalSuccess()) {
+      throw new DBException("Could not create the covering index: " + create + ", Errors: " + created.errors());
+    }
   }
 
   /**
@@ -231,6 +364,9 @@ public class Couchbase2Client extends DB {
     sb.append(", syncMutResponse=").append(syncMutResponse);
     sb.append(", adhoc=").append(adhoc);
     sb.append(", kv=").append(kv);
+    sb.append(", kvScan=").append(kvScan);
+    sb.append(", timeBucketMs=").append(timeBucketMs);
+    sb.append(", coveringFields=").append(coveringFields);
     sb.append(", maxParallelism=").append(maxParallelism);
     sb.append(", queryEndpoints=").append(queryEndpoints);
     sb.append(", kvEndpoints=").append(kvEndpoints);
@@ -239,6 +375,8 @@ public class Couchbase2Client extends DB {
     sb.append(", boost=").append(boost);
     sb.append(", networkMetricsInterval=").append(networkMetricsInterval);
     sb.append(", runtimeMetricsInterval=").append(runtimeMetricsInterval);
+    sb.append(", batchSize=").append(batchSizeController == null ? 1 : batchSizeController.getBatchSize());
+    sb.append(", batchConcurrency=").append(batchConcurrency);
 
    //System.out.println("===> Using Params: " + sb.toString());
   }
@@ -395,7 +533,11 @@ public class Couchbase2Client extends DB {
     try {
     
       
-      if (kv) {
+      if (timeBucketMs > 0) {
+        return insertBucketed(table, key, values).toBlocking().single();
+      } else if (kv && batchSizeController != null) {
+        return insertBatched(docId, values);
+      } else if (kv) {
 
         return insertKv(docId, values);
       } else {
@@ -449,6 +591,165 @@ public class Couchbase2Client extends DB {
       "Check your server.");
   }
 
+  /**
+   * Performs the {@link #insert(String, String, HashMap)} operation by buffering the document, and sends the
+   * buffer once the batch size is reached.
+   *
+   * @param docId the document ID
+   * @param values the values to update the document with.
+   * @return The result of the operation, OK once buffered; the outcome of the document is reported when its
+   *         batch completes.
+   */
+  private Status insertBatched(final String docId, final HashMap<String, ByteIterator> values) {
+    String content = encode(values);
+    batch.add(RawJsonDocument.create(docId, documentExpiry, content));
+    acks.add(content.length());
+    if (batch.size() >= batchSizeController.getBatchSize()) {
+      flushBatch();
+    }
+    return Status.OK;
+  }
+
+  /**
+   * Upserts the buffered documents through the async API, at most couchbase.batchConcurrency at a time,
+   * and waits for all of them. A document that keeps failing with TMPFAIL is given up on after about a
+   * minute, like with {@link #insertKv(String, HashMap)}, without failing the others.
+   */
+  private void flushBatch() {
+    final int size = batch.size();
+    if (size == 0) {
+      return;
+    }
+    final Status[] outcomes = new Status[size];
+    long flushStart = System.nanoTime();
+    Observable.range(0, size)
+        .flatMap(new Func1<Integer, Observable<RawJsonDocument>>() {
+          @Override
+          public Observable<RawJsonDocument> call(final Integer i) {
+            return bucket.async()
+                .upsert(batch.get(i), persistTo, replicateTo)
+                .timeout(kvTimeout, TimeUnit.MILLISECONDS)
+                .retryWhen(retryOnTmpfail())
+                .doOnNext(new Action1<RawJsonDocument>() {
+                  @Override
+                  public void call(RawJsonDocument document) {
+                    outcomes[i] = Status.OK;
+                  }
+                })
+                .onErrorResumeNext(new Func1<Throwable, Observable<RawJsonDocument>>() {
+                  @Override
+                  public Observable<RawJsonDocument> call(Throwable e) {
+                    outcomes[i] = toStatus(e);
+                    return Observable.empty();
+                  }
+                });
+          }
+        }, batchConcurrency)
+        .toBlocking()
+        .lastOrDefault(null);
+    long flushNs = System.nanoTime() - flushStart;
+    acks.complete(flushNs, outcomes);
+    Measurements.getMeasurements().measureGauge("COUCHBASE_BATCH_CONCURRENCY", Math.min(batchConcurrency, size));
+    batchSizeController.onFlush(size, flushNs);
+    batch.clear();
+  }
+
+  /**
+   * @return A retry of KV operations on TMPFAIL for about a minute, like {@link #insertKv(String, HashMap)}.
+   */
+  private static RetryWhenFunction retryOnTmpfail() {
+    return RetryBuilder.anyOf(TemporaryFailureException.class)
+        .delay(Delay.fixed(1, TimeUnit.SECONDS))
+        .max(60)
+        .build();
+  }
+
+  /**
+   * @return The status of a KV operation that failed with the given error.
+   */
+  private static Status toStatus(Throwable e) {
+    Throwable cause = e instanceof CannotRetryException && e.getCause() != null ? e.getCause() : e;
+    return cause instanceof TemporaryFailureException ? Status.SERVICE_UNAVAILABLE : Status.ERROR;
+  }
+
+  /**
+   * Performs the {@link #insert(String, String, HashMap)} operation by appending the sample to its time
+   * bucket, see couchbase.timeBucketMs.
+   *
+   * @param table The name of the table
+   * @param key The record key, client:sensor:timestamp.
+   * @param values the values of the sample.
+   * @return a single element, the result of the operation.
+   */
+  private Observable<Status> insertBucketed(final String table, final String key,
+                                            final HashMap<String, ByteIterator> values) {
+    int sep = key.lastIndexOf(SEPARATOR);
+    long timestamp = Long.parseLong(key.substring(sep + 1));
+    final String docId = formatId(table, key.substring(0, sep)) + SEPARATOR
+        + (timestamp - Math.floorMod(timestamp, timeBucketMs));
+    final JsonObject sample = valuesToJsonObject(values).put(SAMPLE_TIMESTAMP, timestamp);
+    return appendSample(docId, sample)
+        .onErrorResumeNext(new Func1<Throwable, Observable<Status>>() {
+          @Override
+          public Observable<Status> call(Throwable e) {
+            if (!(e instanceof DocumentDoesNotExistException)) {
+              return Observable.error(e);
+            }
+            JsonDocument first = JsonDocument.create(docId, documentExpiry,
+                JsonObject.create().put(SAMPLES, JsonArray.create().add(sample)));
+            return bucket.async()
+                .insert(first, persistTo, replicateTo)
+                .timeout(kvTimeout, TimeUnit.MILLISECONDS)
+                .map(new Func1<JsonDocument, Status>() {
+                  @Override
+                  public Status call(JsonDocument document) {
+                    return Status.OK;
+                  }
+                })
+                .onErrorResumeNext(new Func1<Throwable, Observable<Status>>() {
+                  @Override
+                  public Observable<Status> call(Throwable e) {
+                    // Another thread created the bucket first.
+                    return e instanceof DocumentAlreadyExistsException ? appendSample(docId, sample)
+                        : Observable.<Status>error(e);
+                  }
+                });
+          }
+        })
+        .retryWhen(retryOnTmpfail())
+        .onErrorReturn(new Func1<Throwable, Status>() {
+          @Override
+          public Status call(Throwable e) {
+            return toStatus(e);
+          }
+        });
+  }
+
+  private Observable<Status> appendSample(String docId, JsonObject sample) {
+    return bucket.async()
+        .mutateIn(docId)
+        .arrayAppend(SAMPLES, sample, false)
+        .withExpiry(documentExpiry)
+        .withDurability(persistTo, replicateTo)
+        .execute()
+        .timeout(kvTimeout, TimeUnit.MILLISECONDS)
+        .map(new Func1<Object, Status>() {
+          @Override
+          public Status call(Object fragment) {
+            return Status.OK;
+          }
+        });
+  }
+
+  @Override
+  public void cleanup() throws DBException {
+    try {
+      flushBatch();
+    } catch (RuntimeException e) {
+      throw new DBException("Could not send the last batch of inserts.", e);
+    }
+  }
+
   /**
    * Performs the {@link #insert(String, String, HashMap)} operation via N1QL ("INSERT").
    *
@@ -615,15 +916,22 @@ public class Couchbase2Client extends DB {
                      Set<String> fields, long runStartTime,
                      Vector<HashMap<String, ByteIterator>> result1, Vector<HashMap<String, ByteIterator >> result2) {
 
-    Status s1 = scanHelper(table, filter, clientFilter, Long.valueOf(timestamp), fields, result1);
-    long oldTimeStamp;
-    if (runStartTime > 0) {
-      long time= Long.valueOf(timestamp) - runStartTime;
-      oldTimeStamp = Long.valueOf(timestamp) - time;
-    } else {
-      oldTimeStamp = Long.valueOf(timestamp) - (1800000);
+    long latest = Long.valueOf(timestamp);
+    long timestampVal = olderWindowStart(latest, runStartTime);
+    if (timeBucketMs > 0 || kvScan) {
+      return Observable.zip(
+          scanWindowKv(filter, clientFilter, latest, latest, fields, result1),
+          scanWindowKv(filter, clientFilter, timestampVal, latest, fields, result2),
+          new Func2<Boolean, Boolean, Status>() {
+            @Override
+            public Status call(Boolean s1, Boolean s2) {
+              return s1 && s2 ? Status.OK : Status.ERROR;
+            }
+          })
+          .toBlocking()
+          .single();
     }
-    long timestampVal = oldTimeStamp + (long)(Math.random() * (Long.valueOf(timestamp)- 10000 - oldTimeStamp));
+    Status s1 = scanHelper(table, filter, clientFilter, latest, fields, result1);
     Status s2 = scanHelper(table, filter, clientFilter, timestampVal, fields, result2);
     if (s1.isOk() && s2.isOk()) {
       return Status.OK;
@@ -631,70 +939,308 @@ public class Couchbase2Client extends DB {
     return Status.ERROR;
   }
 
+  /**
+   * Gets the documents of a window by id, see couchbase.kvScan, or the time buckets it spans, see
+   * couchbase.timeBucketMs.
+   *
+   * @param start the start of the window.
+   * @param anchor a timestamp on the grid of the keys, e.g. the start of the latest window; the start of an
+   *               older window is random.
+   * @return a single element, true if all gets succeeded or found nothing.
+   */
+  private Observable<Boolean> scanWindowKv(String filter, String clientFilter, final long start, long anchor,
+                                           final Set<String> fields,
+                                           final Vector<HashMap<String, ByteIterator>> result) {
+    final String prefix = "usertable:" + clientFilter + ":" + filter + ":";
+    List<String> ids = new ArrayList<String>();
+    if (timeBucketMs > 0) {
+      for (long t = start - Math.floorMod(start, timeBucketMs); t <= start + WINDOW_MS; t += timeBucketMs) {
+        ids.add(prefix + t);
+      }
+    } else {
+      for (long t = start + Math.floorMod(anchor - start, kvScanInterval); t <= start + WINDOW_MS;
+           t += kvScanInterval) {
+        ids.add(prefix + t);
+      }
+    }
+    return Observable.from(ids)
+        .flatMap(new Func1<String, Observable<RawJsonDocument>>() {
+          @Override
+          public Observable<RawJsonDocument> call(String id) {
+            // Empty if there is no document with the id.
+            return bucket.async().get(id, RawJsonDocument.class).timeout(kvTimeout, TimeUnit.MILLISECONDS);
+          }
+        })
+        .doOnNext(new Action1<RawJsonDocument>() {
+          @Override
+          public void call(RawJsonDocument document) {
+            if (timeBucketMs > 0) {
+              decodeBucket(document.content(), start, start + WINDOW_MS, fields, result);
+              return;
+            }
+            HashMap<String, ByteIterator> tuple = new HashMap<String, ByteIterator>();
+            decode(document.content(), fields, tuple);
+            result.add(tuple);
+          }
+        })
+        .ignoreElements()
+        .cast(Boolean.class)
+        .concatWith(Observable.just(true))
+        .onErrorReturn(new Func1<Throwable, Boolean>() {
+          @Override
+          public Boolean call(Throwable e) {
+            System.out.println("Error while getting the window " + prefix + start + ": " + e.getMessage());
+            return false;
+          }
+        });
+  }
 
-  private Status scanHelper(String table, String filter, String clientFilter, long timestamp,
-                            Set<String> fields, Vector<HashMap<String, ByteIterator>> result) {
-    String scanSpecQuery = "SELECT " + joinFields(fields) + " FROM `" + bucketName
-            + "` WHERE meta().id >= $1 and meta().id <= $2";
-
-    StringBuffer startKey = new StringBuffer();
-    startKey.append("usertable");
-    startKey.append(":");
-    startKey.append(clientFilter);
-    startKey.append(":");
-    startKey.append(filter);
-    startKey.append(":");
-    startKey.append(timestamp);
-
-    StringBuffer endKey = new StringBuffer();
-    endKey.append("usertable");
-    endKey.append(":");
-    endKey.append(clientFilter);
-    endKey.append(":");
-    endKey.append(filter);
-    endKey.append(":");
-    endKey.append(timestamp+5000);
-
-
-    //System.out.println("Start Key "+startKey);
-    //System.out.println("End Key "+ endKey);
-
-  try {
-    N1qlQueryResult queryResult = bucket.query(N1qlQuery.parameterized(
-            scanSpecQuery,
-            JsonArray.from(startKey.toString(), endKey.toString()),
-            N1qlParams.build().adhoc(adhoc).maxParallelism(maxParallelism)
-    ));
+  /**
+   * Picks the start of the second, randomly placed, TPCx-IoT query window.
+   *
+   * @param timestamp the start of the latest window.
+   * @param runStartTime the start of the run, or 0 to look back at most 30 minutes.
+   * @return the start of the older window.
+   */
+  private static long olderWindowStart(long timestamp, long runStartTime) {
+    long oldTimeStamp;
+    if (runStartTime > 0) {
+      long time= timestamp - runStartTime;
+      oldTimeStamp = timestamp - time;
+    } else {
+      oldTimeStamp = timestamp - (1800000);
+    }
+    return oldTimeStamp + (long)(Math.random() * (timestamp- 10000 - oldTimeStamp));
+  }
 
-    if (!queryResult.parseSuccess() || !queryResult.finalSuccess()) {
-      System.out.println("Error while parsing N1QL Result. Query: " + scanSpecQuery
-              + ", Errors: " + queryResult.errors());
-      return Status.ERROR;
+  @Override
+  public CompletionStage<Status> insertAsync(final String table, final String key,
+                                             final HashMap<String, ByteIterator> values) {
+    if (!kv || batchSizeController != null) {
+      // A batched insert only buffers the document, or sends the whole batch.
+      return CompletableFuture.completedFuture(insert(table, key, values));
     }
-    boolean allFields = fields == null || fields.isEmpty();
-    for (N1qlQueryRow row : queryResult) {
-      JsonObject value = row.value();
-      if (fields == null) {
-        value = value.getObject(bucketName);
-      }
-      Set<String> f = allFields ? value.getNames() : fields;
-      HashMap<String, ByteIterator> tuple = new HashMap<String, ByteIterator>(f.size());
-      for (String field : f) {
-        tuple.put(field, new StringByteIterator(value.getString(field)));
-      }
-      result.add(tuple);
+    final CompletableFuture<Status> future = new CompletableFuture<Status>();
+    if (timeBucketMs > 0) {
+      insertBucketed(table, key, values)
+          .subscribe(new Action1<Status>() {
+            @Override
+            public void call(Status status) {
+              future.complete(status);
+            }
+          });
+      return future;
     }
-  } catch (Exception e){
-    System.out.println("Error while running N1QL Query: " + "start Key = " +startKey + " end Key = " +endKey
-            + ", Errors: " + e.getMessage());
-    e.printStackTrace();
-    return Status.ERROR;
+    bucket.async()
+        .upsert(RawJsonDocument.create(formatId(table, key), documentExpiry, encode(values)), persistTo, replicateTo)
+        .timeout(kvTimeout, TimeUnit.MILLISECONDS)
+        .retryWhen(retryOnTmpfail())
+        .subscribe(new Subscriber<RawJsonDocument>() {
+          @Override
+          public void onCompleted() {
+            future.complete(Status.OK);
+          }
+
+          @Override
+          public void onError(Throwable e) {
+            future.complete(toStatus(e));
+          }
+
+          @Override
+          public void onNext(RawJsonDocument document) {
+          }
+        });
+    return future;
   }
 
+  @Override
+  public CompletionStage<Status> scanAsync(String table, String filter, String clientFilter, String timestamp,
+                                           Set<String> fields, long runStartTime,
+                                           Vector<HashMap<String, ByteIterator>> result1,
+                                           Vector<HashMap<String, ByteIterator>> result2) {
+    long latest = Long.valueOf(timestamp);
+    long older = olderWindowStart(latest, runStartTime);
+    final CompletableFuture<Status> future = new CompletableFuture<Status>();
+    Observable.zip(
+        timeBucketMs > 0 || kvScan ? scanWindowKv(filter, clientFilter, latest, latest, fields, result1)
+            : scanHelperAsync(filter, clientFilter, latest, fields, result1),
+        timeBucketMs > 0 || kvScan ? scanWindowKv(filter, clientFilter, older, latest, fields, result2)
+            : scanHelperAsync(filter, clientFilter, older, fields, result2),
+        new Func2<Boolean, Boolean, Status>() {
+          @Override
+          public Status call(Boolean s1, Boolean s2) {
+            return s1 && s2 ? Status.OK : Status.ERROR;
+          }
+        })
+        .subscribe(new Subscriber<Status>() {
+          @Override
+          public void onCompleted() {
+          }
+
+          @Override
+          public void onError(Throwable e) {
+            System.out.println("Error while running N1QL Query: " + e.getMessage());
+            future.complete(Status.ERROR);
+          }
 
-    //System.out.println("N1Q1 query result size = "+queryResult.allRows().size());
+          @Override
+          public void onNext(Status status) {
+            future.complete(status);
+          }
+        });
+    return future;
+  }
 
-    return Status.OK;
+  /**
+   * Non-blocking version of {@link #scanHelper(String, String, String, long, Set, Vector)}.
+   *
+   * @return a single element, true if the query succeeded.
+   */
+  private Observable<Boolean> scanHelperAsync(String filter, String clientFilter, long timestamp,
+                                              Set<String> fields,
+                                              final Vector<HashMap<String, ByteIterator>> result) {
+    if (fields == null && coveringFields != null) {
+      fields = coveringFields;
+    }
+    final Set<String> selected = fields;
+    final String scanSpecQuery = "SELECT " + joinFields(selected) + " FROM `" + bucketName + "`"
+        + (coveringFields != null ? " USE INDEX (`" + COVERING_INDEX + "` USING GSI)" : "")
+        + " WHERE meta().id >= $1 and meta().id <= $2";
+    String startKey = "usertable:" + clientFilter + ":" + filter + ":" + timestamp;
+    String endKey = "usertable:" + clientFilter + ":" + filter + ":" + (timestamp + WINDOW_MS);
+
+    return query(scanSpecQuery, JsonArray.from(startKey, endKey))
+        .flatMap(new Func1<AsyncN1qlQueryResult, Observable<Boolean>>() {
+          @Override
+          public Observable<Boolean> call(AsyncN1qlQueryResult queryResult) {
+            return queryResult.rows()
+                .doOnNext(new Action1<AsyncN1qlQueryRow>() {
+                  @Override
+                  public void call(AsyncN1qlQueryRow row) {
+                    result.add(decodeRow(row.byteValue(), selected));
+                  }
+                })
+                .ignoreElements()
+                .cast(Boolean.class)
+                .concatWith(queryResult.finalSuccess());
+          }
+        })
+        .lastOrDefault(false)
+        .doOnNext(new Action1<Boolean>() {
+          @Override
+          public void call(Boolean success) {
+            if (!success) {
+              // Maybe the plan is gone from the query service; prepare it again next time.
+              plans.remove(scanSpecQuery);
+            }
+          }
+        });
+  }
+
+  /**
+   * Runs a query, by the name this client prepared it under unless couchbase.adhoc is set.
+   *
+   * @param statement the statement.
+   * @param args its positional parameters.
+   * @return a single element, the result.
+   */
+  private Observable<AsyncN1qlQueryResult> query(final String statement, final JsonArray args) {
+    if (adhoc) {
+      return bucket.async().query(N1qlQuery.parameterized(
+          statement, args, N1qlParams.build().adhoc(true).maxParallelism(maxParallelism)));
+    }
+    PreparedPayload plan = plans.get(statement);
+    Observable<PreparedPayload> prepared = plan != null ? Observable.just(plan) : prepare(statement);
+    return prepared.flatMap(new Func1<PreparedPayload, Observable<AsyncN1qlQueryResult>>() {
+        @Override
+        public Observable<AsyncN1qlQueryResult> call(PreparedPayload plan) {
+          // Executed by name; adhoc keeps the SDK from looking the plan up in its own cache.
+          PreparedN1qlQuery query = new PreparedN1qlQuery(plan, args,
+              N1qlParams.build().adhoc(true).maxParallelism(maxParallelism));
+          query.setEncodedPlanEnabled(false);
+          return bucket.async().query(query);
+        }
+      });
+  }
+
+  /**
+   * Prepares a statement under a name of this client and caches the plan.
+   *
+   * @return a single element, the plan.
+   */
+  private Observable<PreparedPayload> prepare(final String statement) {
+    final String name = "ycsb-" + UUID.randomUUID();
+    final PrepareStatement prepare = PrepareStatement.prepare(PrepareStatement.prepare(statement).originalStatement(),
+        name);
+    return bucket.async()
+        .query(N1qlQuery.simple(prepare))
+        .flatMap(new Func1<AsyncN1qlQueryResult, Observable<AsyncN1qlQueryRow>>() {
+          @Override
+          public Observable<AsyncN1qlQueryRow> call(AsyncN1qlQueryResult result) {
+            return result.rows();
+          }
+        })
+        .single()
+        .map(new Func1<AsyncN1qlQueryRow, PreparedPayload>() {
+          @Override
+          public PreparedPayload call(AsyncN1qlQueryRow row) {
+            PreparedPayload plan = new PreparedPayload(prepare.originalStatement(), name,
+                row.value().getString("encoded_plan"));
+            plans.put(statement, plan);
+            return plan;
+          }
+        });
+  }
+
+  /**
+   * Decodes a N1QL result row into the field/value pairs passed back to YCSB, straight from its bytes.
+   *
+   * @param row the row.
+   * @param fields the fields selected, or null for the whole document, which is nested under the bucket name.
+   * @return the field/value pairs.
+   */
+  private HashMap<String, ByteIterator> decodeRow(byte[] row, Set<String> fields) {
+    HashMap<String, ByteIterator> tuple = new HashMap<String, ByteIterator>();
+    try {
+      JsonParser parser = JacksonTransformers.MAPPER.getFactory().createParser(row);
+      try {
+        parser.nextToken();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String name = parser.getCurrentName();
+          JsonToken value = parser.nextToken();
+          if (value == JsonToken.START_OBJECT && (fields == null || fields.isEmpty()) && name.equals(bucketName)) {
+            // The fields of the document follow.
+            continue;
+          }
+          if (!value.isScalarValue()) {
+            parser.skipChildren();
+          } else if (value != JsonToken.VALUE_NULL) {
+            tuple.put(name, new StringByteIterator(parser.getText()));
+          }
+        }
+      } finally {
+        parser.close();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Could not decode JSON", e);
+    }
+    return tuple;
+  }
+
+  private Status scanHelper(String table, String filter, String clientFilter, long timestamp,
+                            Set<String> fields, Vector<HashMap<String, ByteIterator>> result) {
+    try {
+      if (scanHelperAsync(filter, clientFilter, timestamp, fields, result).toBlocking().single()) {
+        return Status.OK;
+      }
+      System.out.println("Error while running N1QL Query for the window " + clientFilter + ":" + filter + ":"
+          + timestamp);
+    } catch (Exception e) {
+      System.out.println("Error while running N1QL Query for the window " + clientFilter + ":" + filter + ":"
+          + timestamp + ", Errors: " + e.getMessage());
+      e.printStackTrace();
+    }
+    return Status.ERROR;
   }
 
   /**
@@ -974,6 +1520,44 @@ public class Couchbase2Client extends DB {
     }
   }
 
+  /**
+   * Decodes the samples of a time bucket document that fall in a window.
+   *
+   * @param source the loaded time bucket.
+   * @param from the first timestamp of the window.
+   * @param to the last timestamp of the window.
+   * @param fields the fields to check.
+   * @param dest the results passed back to YCSB.
+   */
+  private static void decodeBucket(final String source, long from, long to, final Set<String> fields,
+                                   final Vector<HashMap<String, ByteIterator>> dest) {
+    try {
+      JsonNode samples = JacksonTransformers.MAPPER.readTree(source).path(SAMPLES);
+      boolean checkFields = fields != null && !fields.isEmpty();
+      for (JsonNode sample : samples) {
+        long timestamp = sample.path(SAMPLE_TIMESTAMP).asLong();
+        if (timestamp < from || timestamp > to) {
+          continue;
+        }
+        HashMap<String, ByteIterator> tuple = new HashMap<String, ByteIterator>();
+        for (Iterator<Map.Entry<String, JsonNode>> jsonFields = sample.fields(); jsonFields.hasNext();) {
+          Map.Entry<String, JsonNode> jsonField = jsonFields.next();
+          String name = jsonField.getKey();
+          if (name.equals(SAMPLE_TIMESTAMP) || checkFields && !fields.contains(name)) {
+            continue;
+          }
+          JsonNode jsonValue = jsonField.getValue();
+          if (jsonValue != null && !jsonValue.isNull()) {
+            tuple.put(name, new StringByteIterator(jsonValue.asText()));
+          }
+        }
+        dest.add(tuple);
+      }
+    } catch (Exception e) {
+      throw new RuntimeException("Could not decode JSON");
+    }
+  }
+
   /**
    * Encode the source into a String for storage.
    *
@@ -0,0 +1,220 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb.db;
+
+import com.yahoo.ycsb.BatchTracker;
+import com.yahoo.ycsb.Status;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFileContext;
+import org.apache.hadoop.hbase.io.hfile.HFileContextBuilder;
+import org.apache.hadoop.hbase.mapreduce.LoadIncrementalHFiles;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Loads the puts of one client thread as HFiles instead of through the write
+ * path of the region servers, which spends most of a load phase in the WAL,
+ * memstore flushes and compactions.
+ *
+ * The cells of the puts are buffered until {@link HBaseClient10#BULK_LOAD_BUFFER_PROPERTY}
+ * is reached, then sorted and written as one HFile per region, with the
+ * compression, encoding and bloom filter of the column family, to a directory
+ * under {@link HBaseClient10#BULK_LOAD_DIR_PROPERTY}, and handed to
+ * LoadIncrementalHFiles, which moves them into the regions. The rows are those
+ * a put would write, so the keys and payloads are the ones of the workload;
+ * the cells are stamped with the time they were added, as a put would be.
+ *
+ * Each load is reported as a batch named HBASE_BULKLOAD, see {@link BatchTracker}.
+ * A loader is not thread safe, there is one per client.
+ */
+final class BulkLoader {
+
+  private final Connection connection;
+  private final Configuration conf;
+  private final TableName tableName;
+  private final Path dir;
+  private final long bufferBytes;
+
+  private final List<KeyValue> cells = new ArrayList<KeyValue>();
+  private long bytes;
+  private final BatchTracker acks = new BatchTracker("HBASE_BULKLOAD");
+
+  BulkLoader(Connection connection, Configuration conf, TableName tableName, String dir, long bufferBytes) {
+    this.connection = connection;
+    this.conf = conf;
+    this.tableName = tableName;
+    this.dir = new Path(dir);
+    this.bufferBytes = bufferBytes;
+  }
+
+  /** Buffers the cells of a put; loads the buffer once it is full. */
+  void add(Put p) throws IOException {
+    long now = System.currentTimeMillis();
+    for (List<Cell> family : p.getFamilyCellMap().values()) {
+      for (Cell c : family) {
+        cells.add(new KeyValue(CellUtil.cloneRow(c), CellUtil.cloneFamily(c), CellUtil.cloneQualifier(c), now,
+            KeyValue.Type.Put, CellUtil.cloneValue(c)));
+      }
+    }
+    bytes += p.heapSize();
+    acks.add(p.heapSize());
+    if (bytes >= bufferBytes) {
+      flush();
+    }
+  }
+
+  /** Loads what is buffered. */
+  void flush() throws IOException {
+    if (cells.isEmpty()) {
+      return;
+    }
+    long st = System.nanoTime();
+    Status outcome = Status.ERROR;
+    try {
+      load();
+      outcome = Status.OK;
+    } finally {
+      acks.complete(System.nanoTime() - st, outcome);
+      cells.clear();
+      bytes = 0;
+    }
+  }
+
+  private void load() throws IOException {
+    Collections.sort(cells, KeyValue.COMPARATOR);
+    Path spill = new Path(dir, UUID.randomUUID().toString());
+    FileSystem fs = spill.getFileSystem(conf);
+    HTable table = (HTable) connection.getTable(tableName);
+    try {
+      byte[][] startKeys = startKeys();
+      HColumnDescriptor family = null;
+      StoreFile.Writer writer = null;
+      int region = -1;
+      try {
+        for (KeyValue kv : cells) {
+          int r = regionOf(startKeys, kv);
+          if (family == null || !CellUtil.matchingFamily(kv, family.getName())) {
+            family = table.getTableDescriptor().getFamily(CellUtil.cloneFamily(kv));
+            if (family == null) {
+              throw new IOException("No column family " + Bytes.toString(CellUtil.cloneFamily(kv)) + " in "
+                  + tableName);
+            }
+            region = -1;
+          }
+          if (r != region) {
+            close(writer);
+            writer = null;
+            writer = newWriter(fs, new Path(spill, family.getNameAsString()), family);
+            region = r;
+          }
+          writer.append(kv);
+        }
+      } finally {
+        close(writer);
+      }
+      newLoader().doBulkLoad(spill, table);
+    } finally {
+      table.close();
+      fs.delete(spill, true);
+    }
+  }
+
+  /** @return The first row of each region of the table, as it is split now. */
+  private byte[][] startKeys() throws IOException {
+    RegionLocator locator = connection.getRegionLocator(tableName);
+    try {
+      return locator.getStartKeys();
+    } finally {
+      locator.close();
+    }
+  }
+
+  /** @return The index of the region of the row of a cell. */
+  private static int regionOf(byte[][] startKeys, KeyValue kv) {
+    int low = 0;
+    int high = startKeys.length - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (Bytes.compareTo(startKeys[mid], 0, startKeys[mid].length,
+          kv.getRowArray(), kv.getRowOffset(), kv.getRowLength()) <= 0) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /** Writes an HFile like HFileOutputFormat2 does, in the given family directory. */
+  private StoreFile.Writer newWriter(FileSystem fs, Path familyDir, HColumnDescriptor family) throws IOException {
+    Configuration writerConf = new Configuration(conf);
+    // Nothing to cache for files only written here.
+    writerConf.setFloat(HConstants.HFILE_BLOCK_CACHE_SIZE_KEY, 0.0f);
+    HFileContext context = new HFileContextBuilder()
+        .withCompression(family.getCompressionType())
+        .withDataBlockEncoding(family.getDataBlockEncoding())
+        .withBlockSize(family.getBlocksize())
+        .build();
+    return new StoreFile.WriterBuilder(writerConf, new CacheConfig(writerConf), fs)
+        .withOutputDir(familyDir)
+        .withBloomType(family.getBloomFilterType())
+        .withComparator(KeyValue.COMPARATOR)
+        .withFileContext(context)
+        .build();
+  }
+
+  private static void close(StoreFile.Writer writer) throws IOException {
+    if (writer == null) {
+      return;
+    }
+    writer.appendFileInfo(StoreFile.BULKLOAD_TIME_KEY, Bytes.toBytes(System.currentTimeMillis()));
+    writer.appendFileInfo(StoreFile.BULKLOAD_TASK_KEY, Bytes.toBytes("ycsb"));
+    writer.appendFileInfo(StoreFile.MAJOR_COMPACTION_KEY, Bytes.toBytes(true));
+    writer.appendFileInfo(StoreFile.EXCLUDE_FROM_MINOR_COMPACTION_KEY, Bytes.toBytes(false));
+    writer.appendTrackedTimestampsToMetadata();
+    writer.close();
+  }
+
+  private LoadIncrementalHFiles newLoader() throws IOException {
+    try {
+      return new LoadIncrementalHFiles(conf);
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+  }
+}
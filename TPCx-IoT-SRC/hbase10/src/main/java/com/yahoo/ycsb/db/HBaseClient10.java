@@ -18,10 +18,15 @@ package com.yahoo.ycsb.db;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 
+import com.yahoo.ycsb.BatchSizeController;
+import com.yahoo.ycsb.BatchTracker;
 import com.yahoo.ycsb.ByteArrayByteIterator;
 import com.yahoo.ycsb.ByteIterator;
 import com.yahoo.ycsb.DBException;
+import com.yahoo.ycsb.OperationTracer;
+import com.yahoo.ycsb.ScanResultProcessor;
 import com.yahoo.ycsb.Status;
+import com.yahoo.ycsb.ValueCodec;
 import com.yahoo.ycsb.measurements.Measurements;
 
 import org.apache.hadoop.hbase.filter.*;
@@ -30,7 +35,11 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableExistsException;
 import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
 import org.apache.hadoop.hbase.client.BufferedMutator;
 import org.apache.hadoop.hbase.client.BufferedMutatorParams;
 import org.apache.hadoop.hbase.client.Connection;
@@ -43,17 +52,34 @@ import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.client.coprocessor.Batch;
+import org.apache.hadoop.hbase.ipc.BlockingRpcCallback;
+import org.apache.hadoop.hbase.ipc.ServerRpcController;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.protobuf.generated.AggregateProtos.AggregateRequest;
+import org.apache.hadoop.hbase.protobuf.generated.AggregateProtos.AggregateResponse;
+import org.apache.hadoop.hbase.protobuf.generated.AggregateProtos.AggregateService;
+import org.apache.hadoop.hbase.protobuf.generated.HBaseProtos.BytesBytesPair;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
 import org.apache.hadoop.hbase.exceptions.DeserializationException;
 import org.apache.hadoop.hbase.filter.FilterList.Operator;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.ArrayList;  
 import java.util.List;
@@ -72,6 +98,98 @@ import static com.yahoo.ycsb.workloads.CoreWorkload.TABLENAME_PROPERTY_DEFAULT;
  * durability.
  */
 public class HBaseClient10 extends com.yahoo.ycsb.DB {
+  /**
+   * The number of buckets to salt the row keys with; 0 keeps the plain keys.
+   *
+   * The keys client:sensor:timestamp of a client rise with the time, so all its
+   * inserts go to the last region of its key range. Salted, a row is keyed
+   * bucket:client:sensor:timestamp, with the bucket taken from a hash of the
+   * key, and the inserts spread over the regions of all buckets. A table that
+   * does not exist yet is created with one region per bucket. Scans then query
+   * every bucket, in parallel, and merge the rows back in key order.
+   */
+  public static final String SALT_BUCKETS_PROPERTY = "hbase.saltbuckets";
+  public static final String SALT_BUCKETS_PROPERTY_DEFAULT = "0";
+
+  /** The threads shared by all clients to scan the buckets of salted keys. */
+  public static final String SCAN_THREADS_PROPERTY = "hbase.scanthreads";
+  public static final String SCAN_THREADS_PROPERTY_DEFAULT = "32";
+
+  /**
+   * The layout of the row keys: string keeps the keys as they are, binary and
+   * binary-reversed encode them as series id and timestamp; see {@link RowKeyCodec}.
+   */
+  public static final String ROW_KEY_PROPERTY = "hbase.rowkey";
+  public static final String ROW_KEY_PROPERTY_DEFAULT = "string";
+
+  /**
+   * With a span in ms, the readings of a series share one row per time bucket
+   * of that span, with a column per reading, instead of a row each. A window
+   * query is then a Get of the columns of the window from the one or two rows
+   * it touches; see {@link RowKeyCodec}. 0 keeps a row per reading.
+   */
+  public static final String ROW_BUCKET_PROPERTY = "hbase.rowbucketms";
+  public static final String ROW_BUCKET_PROPERTY_DEFAULT = "0";
+
+  /**
+   * If true, all client threads write through one {@link SharedMutator} per
+   * table, flushed by a thread of its own, instead of a BufferedMutator or a
+   * put per insert each. Takes precedence over clientbuffering.
+   */
+  public static final String SHARED_MUTATOR_PROPERTY = "hbase.sharedmutator";
+  public static final String SHARED_MUTATOR_PROPERTY_DEFAULT = "false";
+
+  /** The bytes of mutations of all threads to flush at once. */
+  public static final String SHARED_MUTATOR_FLUSH_BYTES_PROPERTY = "hbase.sharedmutator.flushbytes";
+  public static final String SHARED_MUTATOR_FLUSH_BYTES_PROPERTY_DEFAULT = "33554432";
+
+  /** The longest a mutation waits for a flush, in ms. */
+  public static final String SHARED_MUTATOR_FLUSH_MS_PROPERTY = "hbase.sharedmutator.flushms";
+  public static final String SHARED_MUTATOR_FLUSH_MS_PROPERTY_DEFAULT = "1000";
+
+  /** How often a mutation the mutator gave up on is retried. */
+  public static final String SHARED_MUTATOR_REQUEUES_PROPERTY = "hbase.sharedmutator.requeues";
+  public static final String SHARED_MUTATOR_REQUEUES_PROPERTY_DEFAULT = "3";
+
+  /**
+   * If true, inserts are written as HFiles and bulk loaded by a {@link BulkLoader}
+   * per client instead of put, to populate a table quickly before a query
+   * benchmark. Takes precedence over hbase.sharedmutator and clientbuffering.
+   */
+  public static final String BULK_LOAD_PROPERTY = "hbase.bulkload";
+  public static final String BULK_LOAD_PROPERTY_DEFAULT = "false";
+
+  /**
+   * The directory the HFiles are written to before they are loaded, on the
+   * default filesystem unless qualified; the region servers must be able to
+   * read it.
+   */
+  public static final String BULK_LOAD_DIR_PROPERTY = "hbase.bulkload.dir";
+  public static final String BULK_LOAD_DIR_PROPERTY_DEFAULT = "/tmp/ycsb-bulkload";
+
+  /** The MB of puts a client buffers before it writes and loads them. */
+  public static final String BULK_LOAD_BUFFER_PROPERTY = "hbase.bulkload.buffermb";
+  public static final String BULK_LOAD_BUFFER_PROPERTY_DEFAULT = "64";
+
+  /**
+   * If true, a TPCx-IoT window query asks the AggregateImplementation endpoint
+   * of the table for the count, sum, min and max of the sensor values, see
+   * {@link SensorValueInterpreter}, and returns them as one row instead of the
+   * rows of the window. Needs a row per reading and values stored as they are,
+   * and the jar of this binding on the classpath of the region servers, which
+   * load the interpreter by name.
+   */
+  public static final String AGGREGATE_PROPERTY = "hbase.aggregate";
+  public static final String AGGREGATE_PROPERTY_DEFAULT = "false";
+
+  /** The endpoint to load on a table created here for hbase.aggregate. */
+  public static final String AGGREGATE_ENDPOINT = "org.apache.hadoop.hbase.coprocessor.AggregateImplementation";
+
+  /** The field whose payload holds the sensor value, as read by the ScanResultProcessor. */
+  private static final String AGGREGATE_FIELD = "field0";
+
+  private static final SensorValueInterpreter INTERPRETER = new SensorValueInterpreter();
+
   private Configuration config = HBaseConfiguration.create();
 
   private static AtomicInteger threadCount = new AtomicInteger(0);
@@ -90,10 +208,26 @@ public class HBaseClient10 extends com.yahoo.ycsb.DB {
   private static Connection connection = null;
   private static final Object CONNECTION_LOCK = new Object();
 
+  /** Scans the buckets of salted keys; like the connection, guarded by CONNECTION_LOCK. */
+  private static ExecutorService scanPool = null;
+
+  /** The prefix of the keys of each bucket; a single empty one without salting. */
+  private String[] saltPrefixes = {""};
+
+  private RowKeyCodec rowKeys;
+
+  private boolean aggregate = false;
+
   // Depending on the value of clientSideBuffering, either bufferedMutator
   // (clientSideBuffering) or currentTable (!clientSideBuffering) will be used.
   private Table currentTable = null;
   private BufferedMutator bufferedMutator = null;
+  /** Used instead of either with hbase.sharedmutator. */
+  private SharedMutator sharedMutator = null;
+  private boolean useSharedMutator = false;
+  /** Used instead of all of them with hbase.bulkload. */
+  private BulkLoader bulkLoader = null;
+  private boolean bulkLoad = false;
 
   private String columnFamily = "";
   private byte[] columnFamilyBytes;
@@ -114,6 +248,24 @@ public class HBaseClient10 extends com.yahoo.ycsb.DB {
   private boolean clientSideBuffering = false;
   private long writeBufferSize = 1024 * 1024 * 12;
 
+  /**
+   * With batchsize.adaptive, chooses the write buffer size in bytes. The
+   * buffered mutator is then flushed here rather than by its own size limit.
+   */
+  private BatchSizeController writeBufferController;
+  private long pendingBytes = 0;
+
+  /**
+   * The puts buffered since the last flush, to report when they became
+   * durable. Only followed while the flushes are issued here, i.e. with
+   * batchsize.adaptive, as the mutator does not tell when it flushes by itself.
+   */
+  private final BatchTracker acks = new BatchTracker("HBASE");
+  private int pendingPuts = 0;
+
+  /** Compresses the values put and decompresses the ones read. */
+  private ValueCodec codec;
+
   /**
    * Initialize any state for this DB. Called once per DB instance; there is one
    * DB instance per client thread.
@@ -128,6 +280,24 @@ public class HBaseClient10 extends com.yahoo.ycsb.DB {
       writeBufferSize =
           Long.parseLong(getProperties().getProperty("writebuffersize"));
     }
+    useSharedMutator = Boolean.parseBoolean(
+        getProperties().getProperty(SHARED_MUTATOR_PROPERTY, SHARED_MUTATOR_PROPERTY_DEFAULT));
+    bulkLoad = Boolean.parseBoolean(getProperties().getProperty(BULK_LOAD_PROPERTY, BULK_LOAD_PROPERTY_DEFAULT));
+    if (bulkLoad) {
+      useSharedMutator = false;
+    }
+    if (useSharedMutator || bulkLoad) {
+      clientSideBuffering = false;
+    }
+    if (clientSideBuffering) {
+      writeBufferController = new BatchSizeController(getProperties(), "HBASE_WRITEBUFFER",
+          (int) Math.min(Integer.MAX_VALUE, writeBufferSize));
+    }
+    try {
+      codec = new ValueCodec(getProperties());
+    } catch (IOException | IllegalArgumentException e) {
+      throw new DBException("Cannot set up the value codec", e);
+    }
 
     if (getProperties().getProperty("durability") != null) {
       this.durability =
@@ -179,6 +349,32 @@ public class HBaseClient10 extends com.yahoo.ycsb.DB {
     }
     columnFamilyBytes = Bytes.toBytes(columnFamily);
 
+    try {
+      rowKeys = new RowKeyCodec(getProperties().getProperty(ROW_KEY_PROPERTY, ROW_KEY_PROPERTY_DEFAULT),
+          Long.parseLong(getProperties().getProperty(ROW_BUCKET_PROPERTY, ROW_BUCKET_PROPERTY_DEFAULT)));
+    } catch (IllegalArgumentException e) {
+      throw new DBException(e);
+    }
+
+    aggregate = Boolean.parseBoolean(getProperties().getProperty(AGGREGATE_PROPERTY, AGGREGATE_PROPERTY_DEFAULT));
+    if (aggregate && (rowKeys.isWide() || codec.isEnabled())) {
+      // The endpoint reads the plain payload of a cell per reading.
+      throw new DBException(AGGREGATE_PROPERTY + " needs " + ROW_BUCKET_PROPERTY + "=0 and "
+          + ValueCodec.CODEC_PROPERTY + "=none, and the jar of this binding on the classpath of the region servers");
+    }
+
+    int saltBuckets = Integer.parseInt(
+        getProperties().getProperty(SALT_BUCKETS_PROPERTY, SALT_BUCKETS_PROPERTY_DEFAULT));
+    if (saltBuckets > 1) {
+      saltPrefixes = saltPrefixes(saltBuckets);
+      synchronized (CONNECTION_LOCK) {
+        if (scanPool == null) {
+          scanPool = newScanPool(Integer.parseInt(
+              getProperties().getProperty(SCAN_THREADS_PROPERTY, SCAN_THREADS_PROPERTY_DEFAULT)));
+        }
+      }
+    }
+
     // Terminate right now if table does not exist, since the client
     // will not propagate this error upstream once the workload
     // starts.
@@ -186,6 +382,9 @@ public class HBaseClient10 extends com.yahoo.ycsb.DB {
     try {
       final TableName tName = TableName.valueOf(table);
       synchronized (CONNECTION_LOCK) {
+        if (saltPrefixes.length > 1) {
+          createSaltedTable(tName);
+        }
         connection.getTable(tName).getTableDescriptor();
       }
     } catch (IOException e) {
@@ -193,6 +392,84 @@ public class HBaseClient10 extends com.yahoo.ycsb.DB {
     }
   }
 
+  /**
+   * @return The prefix of the keys of each bucket, the bucket number padded to
+   *         the same width, so that the buckets sort in order.
+   */
+  @VisibleForTesting
+  static String[] saltPrefixes(int buckets) {
+    String format = "%0" + Integer.toString(buckets - 1).length() + "d:";
+    String[] prefixes = new String[buckets];
+    for (int i = 0; i < buckets; i++) {
+      prefixes[i] = String.format(format, i);
+    }
+    return prefixes;
+  }
+
+  /**
+   * Creates the table with one region per bucket if it does not exist yet.
+   * The caller must hold CONNECTION_LOCK.
+   */
+  private void createSaltedTable(TableName tName) throws IOException {
+    Admin admin = connection.getAdmin();
+    try {
+      if (admin.tableExists(tName)) {
+        return;
+      }
+      HTableDescriptor descriptor = new HTableDescriptor(tName);
+      descriptor.addFamily(new HColumnDescriptor(columnFamilyBytes));
+      if (aggregate) {
+        descriptor.addCoprocessor(AGGREGATE_ENDPOINT);
+      }
+      byte[][] splits = new byte[saltPrefixes.length - 1][];
+      for (int i = 1; i < saltPrefixes.length; i++) {
+        splits[i - 1] = Bytes.toBytes(saltPrefixes[i]);
+      }
+      admin.createTable(descriptor, splits);
+    } catch (TableExistsException e) {
+      // Created by a client of another JVM in the meantime.
+    } finally {
+      admin.close();
+    }
+  }
+
+  private static ExecutorService newScanPool(int threads) {
+    return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "HBaseClient10-scan-" + count.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        }
+      });
+  }
+
+  /**
+   * @return The key of the row a record is stored in, salted if buckets are
+   *         configured. With wide rows all records of a bucket share the row,
+   *         and the salt.
+   */
+  private byte[] rowKey(String key) {
+    String row = rowKeys.rowOf(key);
+    if (saltPrefixes.length == 1) {
+      return rowKeys.encode(row);
+    }
+    return Bytes.add(Bytes.toBytes(saltPrefixes[saltBucket(row, saltPrefixes.length)]), rowKeys.encode(row));
+  }
+
+  /** @return The column of a field of the record at an offset of its row. */
+  private byte[] qualifier(long offset, String field) {
+    return rowKeys.isWide() ? RowKeyCodec.column(offset, field) : Bytes.toBytes(field);
+  }
+
+  /** @return The bucket of a key; String.hashCode is the same in every JVM. */
+  @VisibleForTesting
+  static int saltBucket(String key, int buckets) {
+    return (key.hashCode() & Integer.MAX_VALUE) % buckets;
+  }
+
   /**
    * Cleanup any state for this DB. Called once per DB instance; there is one DB
    * instance per client thread.
@@ -205,14 +482,29 @@ public class HBaseClient10 extends com.yahoo.ycsb.DB {
     Measurements measurements = Measurements.getMeasurements();
     try {
       long st = System.nanoTime();
+      if (bulkLoader != null) {
+        bulkLoader.flush();
+        bulkLoader = null;
+      }
+      if (sharedMutator != null) {
+        // Only the last thread flushes what is left.
+        sharedMutator.release();
+        sharedMutator = null;
+      }
       if (bufferedMutator != null) {
-        bufferedMutator.close();
+        Status outcome = Status.ERROR;
+        try {
+          bufferedMutator.close();
+          outcome = Status.OK;
+        } finally {
+          acks.complete(System.nanoTime() - st, outcome);
+        }
       }
       if (currentTable != null) {
         currentTable.close();
       }
       long en = System.nanoTime();
-      final String type = clientSideBuffering ? "UPDATE" : "CLEANUP";
+      final String type = clientSideBuffering || useSharedMutator || bulkLoad ? "UPDATE" : "CLEANUP";
       measurements.measure(type, (int) ((en - st) / 1000));
       threadCount.decrementAndGet();
       if (threadCount.get() <= 0) {
@@ -222,6 +514,10 @@ public class HBaseClient10 extends com.yahoo.ycsb.DB {
             connection.close();
             connection = null;
           }
+          if (scanPool != null) {
+            scanPool.shutdown();
+            scanPool = null;
+          }
         }
       }
     } catch (IOException e) {
@@ -233,9 +529,31 @@ public class HBaseClient10 extends com.yahoo.ycsb.DB {
     final TableName tName = TableName.valueOf(table);
     synchronized (CONNECTION_LOCK) {
       this.currentTable = connection.getTable(tName);
+      if (bulkLoad) {
+        if (bulkLoader != null) {
+          bulkLoader.flush();
+        }
+        this.bulkLoader = new BulkLoader(connection, config, tName,
+            getProperties().getProperty(BULK_LOAD_DIR_PROPERTY, BULK_LOAD_DIR_PROPERTY_DEFAULT),
+            Long.parseLong(getProperties().getProperty(BULK_LOAD_BUFFER_PROPERTY,
+                BULK_LOAD_BUFFER_PROPERTY_DEFAULT)) * 1024 * 1024);
+      }
+      if (useSharedMutator) {
+        if (sharedMutator != null) {
+          sharedMutator.release();
+        }
+        this.sharedMutator = SharedMutator.acquire(connection, tName,
+            Long.parseLong(getProperties().getProperty(SHARED_MUTATOR_FLUSH_BYTES_PROPERTY,
+                SHARED_MUTATOR_FLUSH_BYTES_PROPERTY_DEFAULT)),
+            Long.parseLong(getProperties().getProperty(SHARED_MUTATOR_FLUSH_MS_PROPERTY,
+                SHARED_MUTATOR_FLUSH_MS_PROPERTY_DEFAULT)),
+            Integer.parseInt(getProperties().getProperty(SHARED_MUTATOR_REQUEUES_PROPERTY,
+                SHARED_MUTATOR_REQUEUES_PROPERTY_DEFAULT)));
+      }
       if (clientSideBuffering) {
         final BufferedMutatorParams p = new BufferedMutatorParams(tName);
-        p.writeBufferSize(writeBufferSize);
+        p.writeBufferSize(writeBufferController.isAdaptive()
+            ? writeBufferController.getMaxBatchSize() : writeBufferSize);
         this.bufferedMutator = connection.getBufferedMutator(p);
       }
     }
@@ -276,15 +594,22 @@ public class HBaseClient10 extends com.yahoo.ycsb.DB {
             .println("Doing read from HBase columnfamily " + columnFamily);
         System.out.println("Doing read for key: " + key);
       }
-      Get g = new Get(Bytes.toBytes(key));
+      Get g = new Get(rowKey(key));
+      long offset = rowKeys.offsetOf(key);
       if (fields == null) {
         g.addFamily(columnFamilyBytes);
+        if (rowKeys.isWide()) {
+          g.setFilter(new ColumnRangeFilter(RowKeyCodec.offsetColumn(offset), true,
+              RowKeyCodec.offsetColumn(offset + 1), false));
+        }
       } else {
         for (String field : fields) {
-          g.addColumn(columnFamilyBytes, Bytes.toBytes(field));
+          g.addColumn(columnFamilyBytes, qualifier(offset, field));
         }
       }
+      long traceStart = OperationTracer.start();
       r = currentTable.get(g);
+      OperationTracer.span(OperationTracer.STAGE_RPC, traceStart);
     } catch (IOException e) {
       if (debug) {
         System.err.println("Error doing get: " + e);
@@ -301,8 +626,9 @@ public class HBaseClient10 extends com.yahoo.ycsb.DB {
 
     while (r.advance()) {
       final Cell c = r.current();
-      result.put(Bytes.toString(CellUtil.cloneQualifier(c)),
-          new ByteArrayByteIterator(CellUtil.cloneValue(c)));
+      final byte[] q = CellUtil.cloneQualifier(c);
+      result.put(rowKeys.isWide() ? RowKeyCodec.fieldOfColumn(q) : Bytes.toString(q),
+          new ByteArrayByteIterator(codec.decode(CellUtil.cloneValue(c))));
       if (debug) {
         System.out.println(
             "Result for field: " + Bytes.toString(CellUtil.cloneQualifier(c))
@@ -344,66 +670,58 @@ public class HBaseClient10 extends com.yahoo.ycsb.DB {
       }
     }
 
-    Scan s = new Scan(Bytes.toBytes(startkey));
-    // HBase has no record limit. Here, assume recordcount is small enough to
-    // bring back in one call.
-    // We get back recordcount records
-    s.setCaching(recordcount);
-    if (this.usePageFilter) {
-      s.setFilter(new PageFilter(recordcount));
-    }
+    Scan[] scans = new Scan[saltPrefixes.length];
+    for (int i = 0; i < scans.length; i++) {
+      Scan s = new Scan(Bytes.add(Bytes.toBytes(saltPrefixes[i]), rowKeys.encode(rowKeys.rowOf(startkey))));
+      if (scans.length > 1) {
+        s.setStopRow(saltStopRow(saltPrefixes[i]));
+      }
+      // HBase has no record limit. Here, assume recordcount is small enough to
+      // bring back in one call.
+      // We get back recordcount records
+      s.setCaching(recordcount);
+      if (this.usePageFilter) {
+        s.setFilter(new PageFilter(recordcount));
+      }
 
-    // add specified fields or else all fields
-    if (fields == null) {
-      s.addFamily(columnFamilyBytes);
-    } else {
-      for (String field : fields) {
-        s.addColumn(columnFamilyBytes, Bytes.toBytes(field));
+      // add specified fields or else all fields
+      if (fields == null || rowKeys.isWide()) {
+        s.addFamily(columnFamilyBytes);
+      } else {
+        for (String field : fields) {
+          s.addColumn(columnFamilyBytes, Bytes.toBytes(field));
+        }
       }
+      scans[i] = s;
     }
 
     // get results
-    ResultScanner scanner = null;
     try {
-      scanner = currentTable.getScanner(s);
-      int numResults = 0;
-      for (Result rr = scanner.next(); rr != null; rr = scanner.next()) {
-        // get row key
-        String key = Bytes.toString(rr.getRow());
-
+      // Wide rows hold the records of their bucket from the first one on.
+      byte[] startRow = rowKeys.encode(rowKeys.rowOf(startkey));
+      long startOffset = rowKeys.offsetOf(startkey);
+      int prefixLength = saltPrefixes[0].length();
+      List<HashMap<String, ByteIterator>> records = new ArrayList<HashMap<String, ByteIterator>>();
+      // PageFilter does not guarantee that the number of results is <=
+      // pageSize, so the rows are limited to recordcount here.
+      for (Result rr : scanBuckets(scans, recordcount)) {
         if (debug) {
-          System.out.println("Got scan result for key: " + key);
-        }
-
-        HashMap<String, ByteIterator> rowResult =
-            new HashMap<String, ByteIterator>();
-
-        while (rr.advance()) {
-          final Cell cell = rr.current();
-          rowResult.put(Bytes.toString(CellUtil.cloneQualifier(cell)),
-              new ByteArrayByteIterator(CellUtil.cloneValue(cell)));
+          System.out.println("Got scan result for key: " + Bytes.toStringBinary(rr.getRow()));
         }
-
-        // add rowResult to result vector
-        result.add(rowResult);
-        numResults++;
-
-        // PageFilter does not guarantee that the number of results is <=
-        // pageSize, so this
-        // break is required.
-        if (numResults >= recordcount) {// if hit recordcount, bail out
+        byte[] row = rr.getRow();
+        boolean first = Bytes.equals(row, prefixLength, row.length - prefixLength,
+            startRow, 0, startRow.length);
+        addRecords(rr, first ? startOffset : 0, fields, records);
+        if (records.size() >= recordcount) {
           break;
         }
       } // done with row
+      result.addAll(records.size() > recordcount ? records.subList(0, recordcount) : records);
     } catch (IOException e) {
       if (debug) {
         System.out.println("Error in getting/parsing scan result: " + e);
       }
       return Status.ERROR;
-    } finally {
-      if (scanner != null) {
-        scanner.close();
-      }
     }
 
     return Status.OK;
@@ -586,67 +904,48 @@ public class HBaseClient10 extends com.yahoo.ycsb.DB {
     private Status scanHelper(String table, String filter, String clientFilter, long timestamp,
                               Set<String> fields, Vector<HashMap<String, ByteIterator>> result){
 
-      Scan s = new Scan();
-      ResultScanner scanner = null;
       try {
-       s.setTimeRange(timestamp, timestamp + 5000);
-       StringBuffer startKey = new StringBuffer();
-
-        startKey.append(clientFilter);
-        startKey.append(":");
-        startKey.append(filter);
-        startKey.append(":");
-        startKey.append(timestamp);
-
-
-        StringBuffer endKey = new StringBuffer();
-
-        endKey.append(clientFilter);
-        endKey.append(":");
-        endKey.append(filter);
-        endKey.append(":");
-        endKey.append(timestamp+5000);
-
-
-        s.setStartRow(startKey.toString().getBytes());
-        s.setStopRow(endKey.toString().getBytes());
-        // add specified fields or else all fields
-        if (fields == null) {
-          s.addFamily(columnFamilyBytes);
-        } else {
-          for (String field : fields) {
-            s.addColumn(columnFamilyBytes, Bytes.toBytes(field));
+        if (rowKeys.isWide()) {
+          getWindow(clientFilter, filter, timestamp, timestamp + 5000, fields, result);
+          return Status.OK;
+        }
+        byte[][] range = rowKeys.timeRange(clientFilter, filter, timestamp, timestamp + 5000);
+        Scan[] scans = new Scan[saltPrefixes.length];
+        for (int i = 0; i < scans.length; i++) {
+          Scan s = new Scan();
+          s.setTimeRange(timestamp, timestamp + 5000);
+          byte[] prefix = Bytes.toBytes(saltPrefixes[i]);
+          s.setStartRow(Bytes.add(prefix, range[0]));
+          s.setStopRow(Bytes.add(prefix, range[1]));
+          if (aggregate) {
+            s.addColumn(columnFamilyBytes, Bytes.toBytes(AGGREGATE_FIELD));
+          } else if (fields == null) {
+            // add specified fields or else all fields
+            s.addFamily(columnFamilyBytes);
+          } else {
+            for (String field : fields) {
+              s.addColumn(columnFamilyBytes, Bytes.toBytes(field));
+            }
           }
+          scans[i] = s;
+        }
+        if (aggregate) {
+          aggregateWindow(scans, result);
+          return Status.OK;
         }
         // get results
-        scanner = currentTable.getScanner(s);
-        int numResults = 0;
-        for (Result rr = scanner.next(); rr != null; rr = scanner.next()) {
-          // get row key
-          String key = Bytes.toString(rr.getRow());
-
-         if (debug) {
-            System.out.println("Got scan result for key: " + key);
-         }
-
-          HashMap<String, ByteIterator> rowResult =
-                  new HashMap<String, ByteIterator>();
-
-          while (rr.advance()) {
-            final Cell cell = rr.current();
-            rowResult.put(Bytes.toString(CellUtil.cloneQualifier(cell)),
-                    new ByteArrayByteIterator(CellUtil.cloneValue(cell)));
+        long traceStart = OperationTracer.start();
+        List<Result> rows = scanBuckets(scans, Integer.MAX_VALUE);
+        OperationTracer.span(OperationTracer.STAGE_RPC, traceStart);
+        traceStart = OperationTracer.start();
+        for (Result rr : rows) {
+          if (debug) {
+            System.out.println("Got scan result for key: " + Bytes.toStringBinary(rr.getRow()));
           }
-
           // add rowResult to result vector
-          result.add(rowResult);
-          numResults++;
-
-          // PageFilter does not guarantee that the number of results is <=
-          // pageSize, so this
-          // break is required.
-
+          addRecords(rr, 0, fields, result);
         } // done with row
+        OperationTracer.span(OperationTracer.STAGE_DECODE, traceStart);
       } catch (IOException e) {
         if (debug) {
           System.out.println("Error in getting/parsing scan result: " + e);
@@ -657,15 +956,260 @@ public class HBaseClient10 extends com.yahoo.ycsb.DB {
           System.out.println("Error in getting/parsing scan result: " + e);
         }
         return Status.ERROR;
-      }finally {
-        if (scanner != null) {
-          scanner.close();
-        }
       }
 
       return Status.OK;
     }
 
+  /**
+   * Runs the scan of each bucket, in parallel if there are several, and
+   * merges their rows in the order of the keys without the salt.
+   *
+   * @param scans The scan of each bucket.
+   * @param limit The most rows to return.
+   * @return The rows, at most limit.
+   */
+  private List<Result> scanBuckets(Scan[] scans, final int limit) throws IOException {
+    if (scans.length == 1) {
+      return scanRows(currentTable, scans[0], limit);
+    }
+    List<Result> rows = new ArrayList<Result>();
+    for (List<Result> bucket : callBuckets(scans, new BucketCall<List<Result>>() {
+        @Override
+        public List<Result> call(Table table, Scan scan) throws IOException {
+          return scanRows(table, scan, limit);
+        }
+      })) {
+      rows.addAll(bucket);
+    }
+    Collections.sort(rows, new UnsaltedOrder(saltPrefixes[0].length()));
+    return rows.size() > limit ? rows.subList(0, limit) : rows;
+  }
+
+  /** A call against the scan of one bucket. */
+  private interface BucketCall<T> {
+    T call(Table table, Scan scan) throws IOException;
+  }
+
+  /**
+   * Makes a call for the scan of each bucket, in parallel on the scan pool.
+   *
+   * @return The result of each call, in the order of the scans.
+   */
+  private <T> List<T> callBuckets(Scan[] scans, final BucketCall<T> call) throws IOException {
+    final TableName tName = currentTable.getName();
+    List<Future<T>> futures = new ArrayList<Future<T>>(scans.length);
+    List<T> results = new ArrayList<T>(scans.length);
+    try {
+      for (final Scan scan : scans) {
+        futures.add(scanPool.submit(new Callable<T>() {
+            @Override
+            public T call() throws IOException {
+              // A Table is not thread safe, but cheap to get from the connection.
+              Table t = connection.getTable(tName);
+              try {
+                return call.call(t, scan);
+              } finally {
+                t.close();
+              }
+            }
+          }));
+      }
+      for (Future<T> future : futures) {
+        results.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while scanning the salt buckets");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } finally {
+      for (Future<T> future : futures) {
+        future.cancel(true);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Aggregates the sensor values of a window on the region servers and adds
+   * them as one row, unless the window is empty.
+   *
+   * @param scans The scan of each bucket.
+   */
+  private void aggregateWindow(Scan[] scans, List<HashMap<String, ByteIterator>> result) throws IOException {
+    long traceStart = OperationTracer.start();
+    SensorValueInterpreter.Stats stats = null;
+    if (scans.length == 1) {
+      stats = aggregate(currentTable, scans[0]);
+    } else {
+      for (SensorValueInterpreter.Stats bucket : callBuckets(scans, new BucketCall<SensorValueInterpreter.Stats>() {
+          @Override
+          public SensorValueInterpreter.Stats call(Table table, Scan scan) throws IOException {
+            return aggregate(table, scan);
+          }
+        })) {
+        stats = INTERPRETER.add(stats, bucket);
+      }
+    }
+    OperationTracer.span(OperationTracer.STAGE_RPC, traceStart);
+    if (stats != null && stats.getCount() > 0) {
+      result.add(ScanResultProcessor.aggregateRow(stats.getCount(), stats.getSum(), stats.getMin(),
+          stats.getMax()));
+    }
+  }
+
+  /**
+   * Calls getSum of the AggregateImplementation endpoint of each region of a
+   * scan, which {@link SensorValueInterpreter} turns into count, sum, min and
+   * max, and merges what the regions return.
+   */
+  private static SensorValueInterpreter.Stats aggregate(Table table, Scan scan) throws IOException {
+    final AggregateRequest request = AggregateRequest.newBuilder()
+        .setInterpreterClassName(SensorValueInterpreter.class.getName())
+        .setScan(ProtobufUtil.toScan(scan))
+        .setInterpreterSpecificBytes(INTERPRETER.getRequestData().toByteString())
+        .build();
+    Map<byte[], SensorValueInterpreter.Stats> regions;
+    try {
+      regions = table.coprocessorService(AggregateService.class, scan.getStartRow(), scan.getStopRow(),
+          new Batch.Call<AggregateService, SensorValueInterpreter.Stats>() {
+            @Override
+            public SensorValueInterpreter.Stats call(AggregateService instance) throws IOException {
+              ServerRpcController controller = new ServerRpcController();
+              BlockingRpcCallback<AggregateResponse> callback = new BlockingRpcCallback<AggregateResponse>();
+              instance.getSum(controller, request, callback);
+              AggregateResponse response = callback.get();
+              if (controller.failedOnException()) {
+                throw controller.getFailedOn();
+              }
+              if (response == null || response.getFirstPartCount() == 0) {
+                return null;
+              }
+              return INTERPRETER.getPromotedValueFromProto(BytesBytesPair.parseFrom(response.getFirstPart(0)));
+            }
+          });
+    } catch (IOException e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new IOException("Could not aggregate " + table.getName()
+          + "; is the jar of this binding on the classpath of the region servers?", t);
+    }
+    SensorValueInterpreter.Stats stats = null;
+    for (SensorValueInterpreter.Stats region : regions.values()) {
+      stats = INTERPRETER.add(stats, region);
+    }
+    return stats;
+  }
+
+  private static List<Result> scanRows(Table table, Scan scan, int limit) throws IOException {
+    List<Result> rows = new ArrayList<Result>();
+    ResultScanner scanner = table.getScanner(scan);
+    try {
+      while (rows.size() < limit) {
+        Result rr = scanner.next();
+        if (rr == null) {
+          break;
+        }
+        rows.add(rr);
+      }
+    } finally {
+      scanner.close();
+    }
+    return rows;
+  }
+
+  /** @return The first row after the keys of a bucket, ':' being followed by ';'. */
+  private static byte[] saltStopRow(String prefix) {
+    return Bytes.toBytes(prefix.substring(0, prefix.length() - 1) + ';');
+  }
+
+  /**
+   * Reads the records of a series in a time window from its wide rows: one Get
+   * for each bucket the window touches, of the columns in the window.
+   */
+  private void getWindow(String client, String sensor, long from, long to, Set<String> fields,
+                         List<HashMap<String, ByteIterator>> result) throws IOException {
+    List<Get> gets = new ArrayList<Get>(2);
+    long span = rowKeys.getBucketMs();
+    for (long bucket = rowKeys.bucketStart(from); bucket < to; bucket += span) {
+      Get g = new Get(rowKey(client + ":" + sensor + ":" + bucket));
+      g.setTimeRange(from, to);
+      g.addFamily(columnFamilyBytes);
+      g.setFilter(new ColumnRangeFilter(RowKeyCodec.offsetColumn(Math.max(from, bucket) - bucket), true,
+          RowKeyCodec.offsetColumn(Math.min(to, bucket + span) - bucket), false));
+      gets.add(g);
+    }
+    long traceStart = OperationTracer.start();
+    Result[] rows = currentTable.get(gets);
+    OperationTracer.span(OperationTracer.STAGE_RPC, traceStart);
+    traceStart = OperationTracer.start();
+    for (Result rr : rows) {
+      addRecords(rr, 0, fields, result);
+    }
+    OperationTracer.span(OperationTracer.STAGE_DECODE, traceStart);
+  }
+
+  /**
+   * Adds the records of a row: the row itself, or for a wide row each record
+   * in it from an offset on, limited to the given fields unless null.
+   */
+  private void addRecords(Result rr, long fromOffset, Set<String> fields,
+                          List<HashMap<String, ByteIterator>> result) {
+    if (!rowKeys.isWide()) {
+      HashMap<String, ByteIterator> rowResult =
+          new HashMap<String, ByteIterator>();
+
+      while (rr.advance()) {
+        final Cell cell = rr.current();
+        rowResult.put(Bytes.toString(CellUtil.cloneQualifier(cell)),
+            new ByteArrayByteIterator(codec.decode(CellUtil.cloneValue(cell))));
+      }
+      result.add(rowResult);
+      return;
+    }
+    HashMap<String, ByteIterator> record = null;
+    int recordOffset = -1;
+    while (rr.advance()) {
+      final Cell cell = rr.current();
+      final byte[] q = CellUtil.cloneQualifier(cell);
+      int offset = RowKeyCodec.offsetOfColumn(q);
+      String field = RowKeyCodec.fieldOfColumn(q);
+      if (offset < fromOffset || (fields != null && !fields.contains(field))) {
+        continue;
+      }
+      if (record == null || offset != recordOffset) {
+        record = new HashMap<String, ByteIterator>();
+        recordOffset = offset;
+        result.add(record);
+      }
+      record.put(field, new ByteArrayByteIterator(codec.decode(CellUtil.cloneValue(cell))));
+    }
+  }
+
+  /**
+   * Orders rows by their key without the salt prefix, which has the same length
+   * for all buckets.
+   */
+  private static final class UnsaltedOrder implements Comparator<Result> {
+    private final int prefixLength;
+
+    private UnsaltedOrder(int prefixLength) {
+      this.prefixLength = prefixLength;
+    }
+
+    @Override
+    public int compare(Result a, Result b) {
+      byte[] x = a.getRow();
+      byte[] y = b.getRow();
+      return Bytes.compareTo(x, prefixLength, x.length - prefixLength,
+          y, prefixLength, y.length - prefixLength);
+    }
+  }
+
   /**
    * Update a record in the database. Any field/value pairs in the specified
    * values HashMap will be written into the record with the specified record
@@ -697,23 +1241,52 @@ public class HBaseClient10 extends com.yahoo.ycsb.DB {
     if (debug) {
       System.out.println("Setting up put for key: " + key);
     }
-    Put p = new Put(Bytes.toBytes(key));
+    long traceStart = OperationTracer.start();
+    // With wide rows, a column append to the row of the bucket.
+    Put p = new Put(rowKey(key));
+    long offset = rowKeys.offsetOf(key);
     p.setDurability(durability);
     for (Map.Entry<String, ByteIterator> entry : values.entrySet()) {
-      byte[] value = entry.getValue().toArray();
+      byte[] value = codec.encode(entry.getValue().toArray());
       if (debug) {
         System.out.println("Adding field/value " + entry.getKey() + "/"
             + Bytes.toStringBinary(value) + " to put request");
       }
-      p.addColumn(columnFamilyBytes, Bytes.toBytes(entry.getKey()), value);
+      p.addColumn(columnFamilyBytes, qualifier(offset, entry.getKey()), value);
     }
+    OperationTracer.span(OperationTracer.STAGE_ENCODE, traceStart);
 
     try {
-      if (clientSideBuffering) {
+      if (bulkLoader != null) {
+        traceStart = OperationTracer.start();
+        // Blocks while the buffer is written and loaded, once it is full.
+        bulkLoader.add(p);
+        OperationTracer.span(OperationTracer.STAGE_QUEUE_WAIT, traceStart);
+      } else if (sharedMutator != null) {
+        traceStart = OperationTracer.start();
+        // Only blocks while the flusher is far behind.
+        sharedMutator.mutate(p);
+        OperationTracer.span(OperationTracer.STAGE_QUEUE_WAIT, traceStart);
+      } else if (clientSideBuffering) {
         Preconditions.checkNotNull(bufferedMutator);
+        traceStart = OperationTracer.start();
+        // Blocks while the buffer is flushed, if the mutator flushes by size.
         bufferedMutator.mutate(p);
+        OperationTracer.span(OperationTracer.STAGE_QUEUE_WAIT, traceStart);
+        if (writeBufferController.isAdaptive()) {
+          pendingBytes += p.heapSize();
+          pendingPuts++;
+          acks.add(p.heapSize());
+          if (pendingBytes >= writeBufferController.getBatchSize()) {
+            traceStart = OperationTracer.start();
+            flushWriteBuffer();
+            OperationTracer.span(OperationTracer.STAGE_FLUSH, traceStart);
+          }
+        }
       } else {
+        traceStart = OperationTracer.start();
         currentTable.put(p);
+        OperationTracer.span(OperationTracer.STAGE_RPC, traceStart);
       }
     } catch (IOException e) {
       if (debug) {
@@ -774,10 +1347,23 @@ public class HBaseClient10 extends com.yahoo.ycsb.DB {
       System.out.println("Doing delete for key: " + key);
     }
 
-    final Delete d = new Delete(Bytes.toBytes(key));
+    final Delete d = new Delete(rowKey(key));
     d.setDurability(durability);
+    if (rowKeys.isWide()) {
+      // Only the columns of the record; the row holds the rest of its bucket.
+      HashMap<String, ByteIterator> fields = new HashMap<String, ByteIterator>();
+      Status found = read(table, key, null, fields);
+      if (!found.isOk()) {
+        return found;
+      }
+      for (String field : fields.keySet()) {
+        d.addColumns(columnFamilyBytes, qualifier(rowKeys.offsetOf(key), field));
+      }
+    }
     try {
-      if (clientSideBuffering) {
+      if (sharedMutator != null) {
+        sharedMutator.mutate(d);
+      } else if (clientSideBuffering) {
         Preconditions.checkNotNull(bufferedMutator);
         bufferedMutator.mutate(d);
       } else {
@@ -793,6 +1379,27 @@ public class HBaseClient10 extends com.yahoo.ycsb.DB {
     return Status.OK;
   }
 
+  /**
+   * Flushes the buffered mutations and reports the flush to the write buffer
+   * controller.
+   */
+  private void flushWriteBuffer() throws IOException {
+    int puts = pendingPuts;
+    pendingBytes = 0;
+    pendingPuts = 0;
+    long st = System.nanoTime();
+    long flushNs;
+    Status outcome = Status.ERROR;
+    try {
+      bufferedMutator.flush();
+      outcome = Status.OK;
+    } finally {
+      flushNs = System.nanoTime() - st;
+      acks.complete(flushNs, outcome);
+    }
+    writeBufferController.onFlush(puts, flushNs);
+  }
+
   @VisibleForTesting
   void setConfiguration(final Configuration newConfig) {
     this.config = newConfig;
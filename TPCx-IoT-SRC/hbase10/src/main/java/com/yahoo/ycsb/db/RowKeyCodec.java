@@ -0,0 +1,218 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb.db;
+
+import com.yahoo.ycsb.workloads.CoreWorkload;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the keys client:sensor:timestamp of the TPCx-IoT workload into row keys.
+ *
+ * As strings, the keys are about 40 bytes, repeated in every cell, and a range
+ * of them only holds the rows of its time window while all timestamps have the
+ * same number of digits. The binary layouts key a row by its series id and the
+ * timestamp as 8 bytes big endian, so that a range scan is exact:
+ *
+ * <pre>
+ * | client length (1) | client (n) | sensor id (2) | timestamp (8) |
+ * </pre>
+ *
+ * The sensor id is the position of the sensor in the list of the workload, the
+ * dictionary every driver shares. The client name is kept as it is, behind its
+ * length, so two clients never share a series and all drivers agree on the ids
+ * without coordinating; the keys of one client all have the same width. The
+ * reversed layout stores Long.MAX_VALUE - timestamp instead, so the latest
+ * readings of a series come first.
+ *
+ * Keys not in that form, e.g. those of the plain YCSB workloads or of clients
+ * with names over 255 bytes, stay strings.
+ *
+ * With wide rows, the readings of a series share one row per time bucket, keyed
+ * like a reading at the start of the bucket, and each reading is stored in the
+ * columns of its offset in the bucket: the offset as 4 bytes big endian followed
+ * by the field name, so that the columns sort by time.
+ */
+final class RowKeyCodec {
+
+  private static final int MAX_CLIENT_LENGTH = 255;
+
+  private static final Map<String, Short> SENSOR_IDS = new HashMap<String, Short>();
+
+  static {
+    List<String> sensors = CoreWorkload.getSensorNames();
+    for (int i = 0; i < sensors.size(); i++) {
+      SENSOR_IDS.put(sensors.get(i), (short) i);
+    }
+  }
+
+  private final boolean binary;
+  private final boolean reversed;
+  /** The span of the rows, in ms; 0 stores every reading in its own row. */
+  private final long bucketMs;
+
+  RowKeyCodec(String layout) {
+    this(layout, 0);
+  }
+
+  RowKeyCodec(String layout, long bucketMs) {
+    if (bucketMs < 0 || bucketMs > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Bucket span out of range: " + bucketMs);
+    }
+    this.bucketMs = bucketMs;
+    if ("string".equals(layout)) {
+      binary = false;
+      reversed = false;
+    } else if ("binary".equals(layout)) {
+      binary = true;
+      reversed = false;
+    } else if ("binary-reversed".equals(layout)) {
+      binary = true;
+      reversed = true;
+    } else {
+      throw new IllegalArgumentException("Unknown row key layout: " + layout);
+    }
+  }
+
+  /** @return True if the readings of a series share one row per time bucket. */
+  boolean isWide() {
+    return bucketMs > 0;
+  }
+
+  long getBucketMs() {
+    return bucketMs;
+  }
+
+  /** @return The start of the bucket of a time. */
+  long bucketStart(long timestamp) {
+    return timestamp - timestamp % bucketMs;
+  }
+
+  /**
+   * @return The key of the row a record is stored in: with wide rows
+   *         client:sensor:start of its bucket, else the key itself.
+   */
+  String rowOf(String key) {
+    long timestamp = isWide() ? timestampOf(key) : -1;
+    if (timestamp < 0) {
+      return key;
+    }
+    return key.substring(0, key.lastIndexOf(':') + 1) + bucketStart(timestamp);
+  }
+
+  /** @return The offset of a record in the row of its bucket; 0 without wide rows. */
+  long offsetOf(String key) {
+    long timestamp = isWide() ? timestampOf(key) : -1;
+    return timestamp < 0 ? 0 : timestamp % bucketMs;
+  }
+
+  /** @return The first column of the reading at an offset of a wide row. */
+  static byte[] offsetColumn(long offset) {
+    return Bytes.toBytes((int) offset);
+  }
+
+  /** @return The column of a field of the reading at an offset of a wide row. */
+  static byte[] column(long offset, String field) {
+    return Bytes.add(offsetColumn(offset), Bytes.toBytes(field));
+  }
+
+  /** @return The offset of the reading a column of a wide row belongs to. */
+  static int offsetOfColumn(byte[] qualifier) {
+    return Bytes.toInt(qualifier, 0);
+  }
+
+  /** @return The field a column of a wide row holds. */
+  static String fieldOfColumn(byte[] qualifier) {
+    return Bytes.toString(qualifier, Bytes.SIZEOF_INT, qualifier.length - Bytes.SIZEOF_INT);
+  }
+
+  /** @return The row key of a record key. */
+  byte[] encode(String key) {
+    if (binary) {
+      int sensorEnd = key.lastIndexOf(':');
+      int clientEnd = sensorEnd > 0 ? key.lastIndexOf(':', sensorEnd - 1) : -1;
+      if (clientEnd > 0) {
+        Short sensor = SENSOR_IDS.get(key.substring(clientEnd + 1, sensorEnd));
+        long timestamp = parseTimestamp(key, sensorEnd + 1);
+        byte[] client = sensor != null && timestamp >= 0 ? clientOf(key.substring(0, clientEnd)) : null;
+        if (client != null) {
+          return row(client, sensor, timestamp);
+        }
+      }
+    }
+    return Bytes.toBytes(key);
+  }
+
+  /**
+   * @return The first and the stop row of the readings of a series from one time
+   *         up to, but not including, another.
+   */
+  byte[][] timeRange(String client, String sensor, long from, long to) {
+    Short id = binary ? SENSOR_IDS.get(sensor) : null;
+    byte[] name = id != null ? clientOf(client) : null;
+    if (name == null) {
+      String series = client + ":" + sensor + ":";
+      return new byte[][] {Bytes.toBytes(series + from), Bytes.toBytes(series + to)};
+    }
+    if (reversed) {
+      // Later times sort first; from the last time of the range down to the first one.
+      return new byte[][] {row(name, id, to - 1), row(name, id, from - 1)};
+    }
+    return new byte[][] {row(name, id, from), row(name, id, to)};
+  }
+
+  /** @return The bytes of a client name, or null if it is too long for its length byte. */
+  private static byte[] clientOf(String client) {
+    byte[] name = Bytes.toBytes(client);
+    return name.length <= MAX_CLIENT_LENGTH ? name : null;
+  }
+
+  private byte[] row(byte[] client, short sensor, long timestamp) {
+    int series = 1 + client.length;
+    byte[] row = new byte[series + Bytes.SIZEOF_SHORT + Bytes.SIZEOF_LONG];
+    row[0] = (byte) client.length;
+    System.arraycopy(client, 0, row, 1, client.length);
+    Bytes.putShort(row, series, sensor);
+    Bytes.putLong(row, series + Bytes.SIZEOF_SHORT, reversed ? Long.MAX_VALUE - timestamp : timestamp);
+    return row;
+  }
+
+  /** @return The time at the end of a key, or -1 if there is none. */
+  private static long timestampOf(String key) {
+    int sensorEnd = key.lastIndexOf(':');
+    return sensorEnd > 0 ? parseTimestamp(key, sensorEnd + 1) : -1;
+  }
+
+  /** @return The non negative decimal number at the end of the key, or -1. */
+  private static long parseTimestamp(String key, int start) {
+    if (start >= key.length() || key.length() - start > 18) {
+      return -1;
+    }
+    long timestamp = 0;
+    for (int i = start; i < key.length(); i++) {
+      char c = key.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      timestamp = timestamp * 10 + (c - '0');
+    }
+    return timestamp;
+  }
+}
@@ -0,0 +1,209 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb.db;
+
+import com.google.protobuf.ByteString;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.coprocessor.ColumnInterpreter;
+import org.apache.hadoop.hbase.protobuf.generated.HBaseProtos.BytesBytesPair;
+import org.apache.hadoop.hbase.protobuf.generated.HBaseProtos.DoubleMsg;
+import org.apache.hadoop.hbase.protobuf.generated.HBaseProtos.EmptyMsg;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Reads the sensor value out of the TPCx-IoT payload of a cell, for the
+ * AggregateImplementation endpoint that ships with HBase to aggregate a window
+ * on the region servers.
+ *
+ * The sum is promoted to a {@link Stats} of count, sum, min and max, so that a
+ * single getSum call per region returns all four; the binding asks for nothing
+ * else. The other calls of the endpoint work on the sum of the Stats too, so
+ * getAvg, getStd and getMedian give the same results as for plain doubles.
+ * The payload is sensor:name:value:..., as parsed by the ScanResultProcessor of
+ * the driver; cells not in that form are skipped.
+ *
+ * To deploy it, put the jar of this binding on the classpath of the region
+ * servers and load org.apache.hadoop.hbase.coprocessor.AggregateImplementation
+ * on the table, see {@link HBaseClient10#AGGREGATE_PROPERTY}. It must not use
+ * the classes of the driver, which the region servers do not have.
+ */
+public class SensorValueInterpreter
+    extends ColumnInterpreter<Double, SensorValueInterpreter.Stats, EmptyMsg, DoubleMsg, BytesBytesPair> {
+
+  /** The readings of a window, or of a part of it. */
+  public static final class Stats {
+    private final long count;
+    private final double sum;
+    private final double min;
+    private final double max;
+
+    Stats(long count, double sum, double min, double max) {
+      this.count = count;
+      this.sum = sum;
+      this.min = min;
+      this.max = max;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public double getSum() {
+      return sum;
+    }
+
+    public double getMin() {
+      return min;
+    }
+
+    public double getMax() {
+      return max;
+    }
+  }
+
+  @Override
+  public Double getValue(byte[] colFamily, byte[] colQualifier, Cell c) {
+    if (colQualifier != null && !CellUtil.matchingQualifier(c, colQualifier)) {
+      return null;
+    }
+    return parseValue(c.getValueArray(), c.getValueOffset(), c.getValueLength());
+  }
+
+  /** @return The third field of a payload, or null if there is none. */
+  static Double parseValue(byte[] b, int offset, int length) {
+    int end = offset + length;
+    int start = -1;
+    int colons = 0;
+    for (int i = offset; i < end; i++) {
+      if (b[i] != ':') {
+        continue;
+      }
+      if (++colons == 2) {
+        start = i + 1;
+      } else if (colons == 3) {
+        end = i;
+        break;
+      }
+    }
+    if (start < 0) {
+      return null;
+    }
+    try {
+      return Double.valueOf(Bytes.toString(b, start, end - start));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public Stats add(Stats l1, Stats l2) {
+    if (l1 == null) {
+      return l2;
+    }
+    if (l2 == null) {
+      return l1;
+    }
+    return new Stats(l1.count + l2.count, l1.sum + l2.sum, Math.min(l1.min, l2.min), Math.max(l1.max, l2.max));
+  }
+
+  @Override
+  public Double getMaxValue() {
+    return Double.MAX_VALUE;
+  }
+
+  @Override
+  public Double getMinValue() {
+    return -Double.MAX_VALUE;
+  }
+
+  /** The product of the sums, as one reading; getStd squares single readings with it. */
+  @Override
+  public Stats multiply(Stats o1, Stats o2) {
+    if (o1 == null || o2 == null) {
+      return null;
+    }
+    double product = o1.sum * o2.sum;
+    return new Stats(1, product, product, product);
+  }
+
+  /** Counts one more reading, leaving the sum as it is. */
+  @Override
+  public Stats increment(Stats o) {
+    return o == null ? null : new Stats(o.count + 1, o.sum, o.min, o.max);
+  }
+
+  @Override
+  public Stats castToReturnType(Double o) {
+    return o == null ? null : new Stats(1, o, o, o);
+  }
+
+  @Override
+  public int compare(Double l1, Double l2) {
+    if (l1 == null ^ l2 == null) {
+      return l1 == null ? -1 : 1;
+    }
+    return l1 == null ? 0 : Double.compare(l1, l2);
+  }
+
+  @Override
+  public double divideForAvg(Stats o, Long l) {
+    return o == null || l == null ? Double.NaN : o.sum / l;
+  }
+
+  @Override
+  public EmptyMsg getRequestData() {
+    return EmptyMsg.getDefaultInstance();
+  }
+
+  @Override
+  public void initialize(EmptyMsg msg) {
+    // Nothing to configure; the column is the one of the scan.
+  }
+
+  @Override
+  public DoubleMsg getProtoForCellType(Double t) {
+    return DoubleMsg.newBuilder().setDoubleMsg(t).build();
+  }
+
+  @Override
+  public Double getCellValueFromProto(DoubleMsg q) {
+    return q.getDoubleMsg();
+  }
+
+  /** Count and sum go in the first part, min and max in the second. */
+  @Override
+  public BytesBytesPair getProtoForPromotedType(Stats s) {
+    return BytesBytesPair.newBuilder()
+        .setFirst(ByteString.copyFrom(Bytes.add(Bytes.toBytes(s.count), Bytes.toBytes(s.sum))))
+        .setSecond(ByteString.copyFrom(Bytes.add(Bytes.toBytes(s.min), Bytes.toBytes(s.max))))
+        .build();
+  }
+
+  @Override
+  public Stats getPromotedValueFromProto(BytesBytesPair r) {
+    byte[] first = r.getFirst().toByteArray();
+    byte[] second = r.getSecond().toByteArray();
+    return new Stats(Bytes.toLong(first, 0), Bytes.toDouble(first, Bytes.SIZEOF_LONG),
+        Bytes.toDouble(second, 0), Bytes.toDouble(second, Bytes.SIZEOF_DOUBLE));
+  }
+
+  @Override
+  public Double castToCellType(Stats response) {
+    return response == null ? null : response.sum;
+  }
+}
@@ -0,0 +1,264 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb.db;
+
+import com.yahoo.ycsb.BatchTracker;
+import com.yahoo.ycsb.Status;
+import com.yahoo.ycsb.measurements.Measurements;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One BufferedMutator per table for all client threads of the JVM.
+ *
+ * The client threads only put their mutations on a lock-free queue. A thread of
+ * its own drains the queue into the mutator and flushes it once
+ * {@link HBaseClient10#SHARED_MUTATOR_FLUSH_BYTES_PROPERTY} are waiting, or
+ * {@link HBaseClient10#SHARED_MUTATOR_FLUSH_MS_PROPERTY} after the last flush,
+ * so the writes of all threads share their RPCs and no thread waits for them.
+ * A thread only blocks while four times the flush size is waiting.
+ *
+ * Mutations the mutator gives up on are put back on the queue, up to
+ * {@link HBaseClient10#SHARED_MUTATOR_REQUEUES_PROPERTY} times each, and keep
+ * the time they were first queued. Each flush is reported as a batch named
+ * HBASE_SHARED, see {@link BatchTracker}, with an outcome per mutation, along
+ * with the HBASE_SHARED_PENDING_BYTES gauge.
+ *
+ * The last client thread to release the mutator flushes what is left and
+ * closes it, instead of every thread flushing its own at the end of the run.
+ */
+final class SharedMutator {
+
+  /** How often a failed mutation was put back on the queue. */
+  private static final String REQUEUES_ATTRIBUTE = "ycsb.requeues";
+
+  /** Guarded by the class. */
+  private static final Map<TableName, SharedMutator> MUTATORS = new HashMap<TableName, SharedMutator>();
+
+  private final TableName tableName;
+  private final BufferedMutator mutator;
+  private final long flushBytes;
+  private final long flushNs;
+  private final int maxRequeues;
+  private final Thread flusher;
+
+  private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<Pending>();
+  private final AtomicLong pendingBytes = new AtomicLong();
+  private volatile boolean closed;
+  /** Guarded by the class. */
+  private int users;
+
+  /** Only used by the flusher thread. */
+  private final BatchTracker acks = new BatchTracker("HBASE_SHARED");
+  private final List<Mutation> failed = new ArrayList<Mutation>();
+  private long dropped;
+
+  /** A mutation waiting on the queue. */
+  private static final class Pending {
+    private final Mutation mutation;
+    private final long bytes;
+    private final long enqueuedNs;
+
+    private Pending(Mutation mutation, long bytes, long enqueuedNs) {
+      this.mutation = mutation;
+      this.bytes = bytes;
+      this.enqueuedNs = enqueuedNs;
+    }
+  }
+
+  private SharedMutator(Connection connection, TableName tableName, long flushBytes, long flushMs,
+                        int maxRequeues) throws IOException {
+    this.tableName = tableName;
+    this.flushBytes = flushBytes;
+    this.flushNs = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushMs));
+    this.maxRequeues = maxRequeues;
+    BufferedMutatorParams params = new BufferedMutatorParams(tableName);
+    // Flushed here; the mutator must not flush a part of a batch by itself.
+    params.writeBufferSize(Long.MAX_VALUE);
+    params.listener(new BufferedMutator.ExceptionListener() {
+        @Override
+        public void onException(RetriesExhaustedWithDetailsException e, BufferedMutator m) {
+          for (int i = 0; i < e.getNumExceptions(); i++) {
+            failed.add((Mutation) e.getRow(i));
+          }
+        }
+      });
+    mutator = connection.getBufferedMutator(params);
+    flusher = new Thread("SharedMutator-" + tableName.getNameAsString()) {
+        @Override
+        public void run() {
+          flushLoop();
+        }
+      };
+    flusher.setDaemon(true);
+    flusher.start();
+  }
+
+  /**
+   * @return The mutator of a table, created for the first user. Each user must
+   *         call {@link #release()} once done.
+   */
+  static synchronized SharedMutator acquire(Connection connection, TableName tableName, long flushBytes,
+                                            long flushMs, int maxRequeues) throws IOException {
+    SharedMutator shared = MUTATORS.get(tableName);
+    if (shared == null) {
+      shared = new SharedMutator(connection, tableName, flushBytes, flushMs, maxRequeues);
+      MUTATORS.put(tableName, shared);
+    }
+    shared.users++;
+    return shared;
+  }
+
+  /**
+   * Queues a mutation. Blocks only while too many bytes are waiting for the
+   * flusher.
+   */
+  void mutate(Mutation m) throws IOException {
+    if (closed) {
+      throw new IOException("The shared mutator of " + tableName + " is closed");
+    }
+    long bytes = m.heapSize();
+    queue.offer(new Pending(m, bytes, System.nanoTime()));
+    long pending = pendingBytes.addAndGet(bytes);
+    if (pending >= flushBytes) {
+      LockSupport.unpark(flusher);
+      while (pendingBytes.get() >= 4 * flushBytes && !closed) {
+        LockSupport.parkNanos(this, TimeUnit.MICROSECONDS.toNanos(100));
+      }
+    }
+  }
+
+  /**
+   * Releases the mutator; the last user flushes what is left and closes it.
+   */
+  void release() throws IOException {
+    synchronized (SharedMutator.class) {
+      if (--users > 0) {
+        return;
+      }
+      MUTATORS.remove(tableName);
+    }
+    closed = true;
+    LockSupport.unpark(flusher);
+    try {
+      flusher.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    mutator.close();
+    if (dropped > 0) {
+      System.err.println("Gave up on " + dropped + " mutations of " + tableName + " after "
+          + maxRequeues + " retries");
+    }
+  }
+
+  private void flushLoop() {
+    long lastFlush = System.nanoTime();
+    while (true) {
+      long now = System.nanoTime();
+      if (closed || pendingBytes.get() >= flushBytes || now - lastFlush >= flushNs) {
+        flush();
+        lastFlush = System.nanoTime();
+        // Mutations put back after a failure are flushed by the next round.
+        if (closed && queue.isEmpty()) {
+          return;
+        }
+        continue;
+      }
+      LockSupport.parkNanos(this, flushNs - (now - lastFlush));
+    }
+  }
+
+  private void flush() {
+    List<Pending> pendings = new ArrayList<Pending>();
+    List<Mutation> batch = new ArrayList<Mutation>();
+    long bytes = 0;
+    for (Pending p = queue.poll(); p != null; p = queue.poll()) {
+      pendings.add(p);
+      batch.add(p.mutation);
+      acks.add(p.bytes, p.enqueuedNs);
+      bytes += p.bytes;
+    }
+    if (batch.isEmpty()) {
+      return;
+    }
+    failed.clear();
+    long st = System.nanoTime();
+    try {
+      mutator.mutate(batch);
+      mutator.flush();
+    } catch (IOException e) {
+      // Whatever did not make it is retried like a failed mutation.
+      System.err.println("Error flushing the shared mutator of " + tableName + ": " + e);
+      failed.clear();
+      failed.addAll(batch);
+    }
+    long flushTook = System.nanoTime() - st;
+    Status[] outcomes = new Status[batch.size()];
+    Arrays.fill(outcomes, Status.OK);
+    Map<Mutation, Integer> positions = new IdentityHashMap<Mutation, Integer>(batch.size());
+    for (int i = 0; i < batch.size(); i++) {
+      positions.put(batch.get(i), i);
+    }
+    List<Pending> retries = new ArrayList<Pending>(failed.size());
+    for (Mutation m : failed) {
+      Integer i = positions.remove(m);
+      if (i != null) {
+        outcomes[i] = Status.ERROR;
+        retries.add(pendings.get(i));
+      }
+    }
+    acks.complete(flushTook, outcomes);
+    long pending = pendingBytes.addAndGet(-bytes);
+    Measurements.getMeasurements().measureGauge("HBASE_SHARED_PENDING_BYTES",
+        (int) Math.min(Integer.MAX_VALUE, pending));
+    for (Pending p : retries) {
+      requeue(p);
+    }
+  }
+
+  private void requeue(Pending p) {
+    byte[] attribute = p.mutation.getAttribute(REQUEUES_ATTRIBUTE);
+    int requeues = attribute == null ? 0 : Bytes.toInt(attribute);
+    if (requeues >= maxRequeues) {
+      dropped++;
+      return;
+    }
+    p.mutation.setAttribute(REQUEUES_ATTRIBUTE, Bytes.toBytes(requeues + 1));
+    // The attribute changed the size; the ack latency still counts from the first try.
+    long bytes = p.mutation.heapSize();
+    queue.offer(new Pending(p.mutation, bytes, p.enqueuedNs));
+    pendingBytes.addAndGet(bytes);
+  }
+}
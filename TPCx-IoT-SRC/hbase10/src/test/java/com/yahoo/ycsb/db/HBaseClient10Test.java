@@ -24,6 +24,7 @@ import static org.junit.Assert.fail;
 import static org.junit.Assume.assumeTrue;
 
 import com.yahoo.ycsb.ByteIterator;
+import com.yahoo.ycsb.ScanResultProcessor;
 import com.yahoo.ycsb.Status;
 import com.yahoo.ycsb.StringByteIterator;
 import com.yahoo.ycsb.measurements.Measurements;
@@ -79,6 +80,7 @@ public class HBaseClient10Test {
     // Skip if windows.
     assumeTrue(!isWindows());
     testingUtil = HBaseTestingUtility.createLocalHTU();
+    testingUtil.getConfiguration().set("hbase.coprocessor.region.classes", HBaseClient10.AGGREGATE_ENDPOINT);
     testingUtil.startMiniCluster();
   }
 
@@ -204,6 +206,188 @@ public class HBaseClient10Test {
     }
   }
 
+  @Test
+  public void testSaltedKeys() throws Exception {
+    final HBaseClient10 salted = new HBaseClient10();
+    salted.setConfiguration(new Configuration(testingUtil.getConfiguration()));
+    Properties p = new Properties();
+    p.setProperty("columnfamily", COLUMN_FAMILY);
+    p.setProperty(HBaseClient10.SALT_BUCKETS_PROPERTY, "16");
+    salted.setProperties(p);
+    salted.init();
+
+    final long timestamp = System.currentTimeMillis();
+    for (int i = 0; i < 5; i++) {
+      final HashMap<String, String> input = new HashMap<String, String>();
+      input.put("field0", "value" + i);
+      final String key = "client1:sensor1:" + (timestamp + i * 1000);
+      assertEquals(Status.OK, salted.insert(tableName, key, StringByteIterator.getByteIteratorMap(input)));
+      // Stored under the bucket of the key, read back by the plain key.
+      final String saltedKey = HBaseClient10.saltPrefixes(16)[HBaseClient10.saltBucket(key, 16)] + key;
+      assertFalse(table.get(new Get(Bytes.toBytes(saltedKey))).isEmpty());
+      final HashMap<String, ByteIterator> result = new HashMap<String, ByteIterator>();
+      assertEquals(Status.OK, salted.read(tableName, key, null, result));
+      assertEquals("value" + i, result.get("field0").toString());
+    }
+
+    // The rows of all buckets come back merged in the order of the time.
+    final Vector<HashMap<String, ByteIterator>> latest = new Vector<HashMap<String, ByteIterator>>();
+    final Vector<HashMap<String, ByteIterator>> window = new Vector<HashMap<String, ByteIterator>>();
+    assertEquals(Status.OK, salted.scan(tableName, "sensor1", "client1", Long.toString(timestamp),
+        null, 0, latest, window));
+    assertEquals(5, latest.size());
+    for (int i = 0; i < 5; i++) {
+      assertEquals("value" + i, latest.get(i).get("field0").toString());
+    }
+
+    final Vector<HashMap<String, ByteIterator>> rows = new Vector<HashMap<String, ByteIterator>>();
+    assertEquals(Status.OK, salted.scan(tableName, "client1:sensor1:" + (timestamp + 1000), 3, null, rows));
+    assertEquals(3, rows.size());
+    assertEquals("value1", rows.get(0).get("field0").toString());
+    assertEquals("value3", rows.get(2).get("field0").toString());
+    salted.cleanup();
+  }
+
+  @Test
+  public void testWideRows() throws Exception {
+    final HBaseClient10 wide = new HBaseClient10();
+    wide.setConfiguration(new Configuration(testingUtil.getConfiguration()));
+    Properties p = new Properties();
+    p.setProperty("columnfamily", COLUMN_FAMILY);
+    p.setProperty(HBaseClient10.ROW_BUCKET_PROPERTY, "60000");
+    wide.setProperties(p);
+    wide.init();
+
+    final long timestamp = System.currentTimeMillis();
+    for (int i = 0; i < 4; i++) {
+      final HashMap<String, String> input = new HashMap<String, String>();
+      input.put("field0", "value" + i);
+      assertEquals(Status.OK, wide.insert(tableName, "client1:sensor1:" + (timestamp + i * 1000),
+          StringByteIterator.getByteIteratorMap(input)));
+    }
+    final HashMap<String, ByteIterator> result = new HashMap<String, ByteIterator>();
+    assertEquals(Status.OK, wide.read(tableName, "client1:sensor1:" + (timestamp + 1000), null, result));
+    assertEquals(1, result.size());
+    assertEquals("value1", result.get("field0").toString());
+
+    // The readings of a bucket share its row, with a column each.
+    final long bucket = timestamp / 60000 * 60000;
+    int inBucket = 0;
+    for (int i = 0; i < 4; i++) {
+      inBucket += (timestamp + i * 1000) / 60000 * 60000 == bucket ? 1 : 0;
+    }
+    assertEquals(inBucket, table.get(new Get(Bytes.toBytes("client1:sensor1:" + bucket))).size());
+
+    // The window may span two buckets; the records come back in time order.
+    final Vector<HashMap<String, ByteIterator>> latest = new Vector<HashMap<String, ByteIterator>>();
+    final Vector<HashMap<String, ByteIterator>> window = new Vector<HashMap<String, ByteIterator>>();
+    assertEquals(Status.OK, wide.scan(tableName, "sensor1", "client1", Long.toString(timestamp),
+        null, 0, latest, window));
+    assertEquals(4, latest.size());
+    for (int i = 0; i < 4; i++) {
+      assertEquals("value" + i, latest.get(i).get("field0").toString());
+    }
+    wide.cleanup();
+  }
+
+  @Test
+  public void testSharedMutator() throws Exception {
+    Properties p = new Properties();
+    p.setProperty("columnfamily", COLUMN_FAMILY);
+    p.setProperty(HBaseClient10.SHARED_MUTATOR_PROPERTY, "true");
+    p.setProperty(HBaseClient10.SHARED_MUTATOR_FLUSH_MS_PROPERTY, "60000");
+    final HBaseClient10[] clients = new HBaseClient10[2];
+    for (int i = 0; i < clients.length; i++) {
+      clients[i] = new HBaseClient10();
+      clients[i].setConfiguration(new Configuration(testingUtil.getConfiguration()));
+      clients[i].setProperties(p);
+      clients[i].init();
+      final HashMap<String, String> input = new HashMap<String, String>();
+      input.put("column1", "value" + i);
+      assertEquals(Status.OK, clients[i].insert(tableName, "key" + i, StringByteIterator.getByteIteratorMap(input)));
+    }
+    // Neither the size nor the time to flush is reached yet.
+    assertTrue(table.get(new Get(Bytes.toBytes("key0"))).isEmpty());
+
+    // The first client leaves the flush to the last one.
+    clients[0].cleanup();
+    assertTrue(table.get(new Get(Bytes.toBytes("key0"))).isEmpty());
+    clients[1].cleanup();
+    for (int i = 0; i < clients.length; i++) {
+      final Result result = table.get(new Get(Bytes.toBytes("key" + i)));
+      assertEquals("value" + i, Bytes.toString(result.getValue(Bytes.toBytes(COLUMN_FAMILY),
+          Bytes.toBytes("column1"))));
+    }
+  }
+
+  @Test
+  public void testAggregate() throws Exception {
+    Properties p = new Properties();
+    p.setProperty("columnfamily", COLUMN_FAMILY);
+    p.setProperty(HBaseClient10.SALT_BUCKETS_PROPERTY, "4");
+    p.setProperty(HBaseClient10.AGGREGATE_PROPERTY, "true");
+    final HBaseClient10 aggregating = new HBaseClient10();
+    aggregating.setConfiguration(new Configuration(testingUtil.getConfiguration()));
+    aggregating.setProperties(p);
+    aggregating.init();
+
+    final long timestamp = System.currentTimeMillis();
+    final double[] values = {0.5, 0.25, 1.0, 2.0};
+    for (int i = 0; i < values.length; i++) {
+      final HashMap<String, String> input = new HashMap<String, String>();
+      input.put("field0", "sensor1:sensor1_value:" + values[i] + ":timestamp:" + timestamp);
+      assertEquals(Status.OK, aggregating.insert(tableName, "client1:sensor1:" + (timestamp + i * 1000),
+          StringByteIterator.getByteIteratorMap(input)));
+    }
+
+    // One row for the window, summed up over the buckets by the regions.
+    final Vector<HashMap<String, ByteIterator>> latest = new Vector<HashMap<String, ByteIterator>>();
+    final Vector<HashMap<String, ByteIterator>> window = new Vector<HashMap<String, ByteIterator>>();
+    assertEquals(Status.OK, aggregating.scan(tableName, "sensor1", "client1", Long.toString(timestamp),
+        null, 0, latest, window));
+    assertEquals(1, latest.size());
+    assertEquals("4", latest.get(0).get(ScanResultProcessor.COUNT_FIELD).toString());
+    assertEquals("3.75", latest.get(0).get(ScanResultProcessor.SUM_FIELD).toString());
+    assertEquals("0.25", latest.get(0).get(ScanResultProcessor.MIN_FIELD).toString());
+    assertEquals("2.0", latest.get(0).get(ScanResultProcessor.MAX_FIELD).toString());
+    aggregating.cleanup();
+  }
+
+  @Test
+  public void testBulkLoad() throws Exception {
+    // Split, so that the HFiles are written per region.
+    final TableName splitName = TableName.valueOf("bulktable");
+    final Table split = testingUtil.createTable(splitName, Bytes.toBytes(COLUMN_FAMILY),
+        new byte[][] {Bytes.toBytes("key3"), Bytes.toBytes("key6")});
+    Properties p = new Properties();
+    p.setProperty("columnfamily", COLUMN_FAMILY);
+    p.setProperty(HBaseClient10.BULK_LOAD_PROPERTY, "true");
+    p.setProperty(HBaseClient10.BULK_LOAD_DIR_PROPERTY,
+        testingUtil.getDataTestDirOnTestFS("bulkload").toString());
+    final HBaseClient10 loading = new HBaseClient10();
+    loading.setConfiguration(new Configuration(testingUtil.getConfiguration()));
+    loading.setProperties(p);
+    loading.init();
+    try {
+      for (int i = 0; i < 9; i++) {
+        final HashMap<String, String> input = new HashMap<String, String>();
+        input.put("column1", "value" + i);
+        assertEquals(Status.OK, loading.insert("bulktable", "key" + i, StringByteIterator.getByteIteratorMap(input)));
+      }
+      // Buffered until the buffer is full or the client is done.
+      assertTrue(split.get(new Get(Bytes.toBytes("key0"))).isEmpty());
+      loading.cleanup();
+      for (int i = 0; i < 9; i++) {
+        final Result result = split.get(new Get(Bytes.toBytes("key" + i)));
+        assertEquals("value" + i, Bytes.toString(result.getValue(Bytes.toBytes(COLUMN_FAMILY),
+            Bytes.toBytes("column1"))));
+      }
+    } finally {
+      split.close();
+      testingUtil.deleteTable(splitName);
+    }
+  }
+
   @Test
   @Ignore("Not yet implemented")
   public void testDelete() {
@@ -0,0 +1,121 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+/**
+ * Tests the row key layouts of {@link RowKeyCodec}.
+ */
+public class RowKeyCodecTest {
+
+  @Test
+  public void testStringKeysAreKept() {
+    final RowKeyCodec codec = new RowKeyCodec("string");
+    assertArrayEquals(Bytes.toBytes("client1:cent_9_Humidity:1500000000000"),
+        codec.encode("client1:cent_9_Humidity:1500000000000"));
+    final byte[][] range = codec.timeRange("client1", "cent_9_Humidity", 1500000000000L, 1500000005000L);
+    assertArrayEquals(Bytes.toBytes("client1:cent_9_Humidity:1500000000000"), range[0]);
+    assertArrayEquals(Bytes.toBytes("client1:cent_9_Humidity:1500000005000"), range[1]);
+  }
+
+  @Test
+  public void testBinaryKeysSortByTime() {
+    final RowKeyCodec codec = new RowKeyCodec("binary");
+    final byte[] row = codec.encode("client1:cent_9_Humidity:1500000000000");
+    assertEquals(18, row.length);
+    assertEquals(7, row[0]);
+    assertEquals(1500000000000L, Bytes.toLong(row, 10));
+
+    // A timestamp with fewer digits still sorts before, unlike the strings.
+    assertTrue(Bytes.compareTo(codec.encode("client1:cent_9_Humidity:999999999999"), row) < 0);
+
+    final byte[][] range = codec.timeRange("client1", "cent_9_Humidity", 1500000000000L, 1500000005000L);
+    assertArrayEquals(row, range[0]);
+    assertTrue(Bytes.compareTo(codec.encode("client1:cent_9_Humidity:1500000004999"), range[1]) < 0);
+    assertTrue(Bytes.compareTo(codec.encode("client1:cent_9_Humidity:1500000005000"), range[1]) >= 0);
+    assertTrue(Bytes.compareTo(codec.encode("client1:side_8_Humidity:1500000001000"), range[1]) >= 0);
+  }
+
+  @Test
+  public void testReversedKeysSortLatestFirst() {
+    final RowKeyCodec codec = new RowKeyCodec("binary-reversed");
+    final byte[] older = codec.encode("client1:cent_9_Humidity:1500000000000");
+    final byte[] newer = codec.encode("client1:cent_9_Humidity:1500000004999");
+    assertTrue(Bytes.compareTo(newer, older) < 0);
+
+    final byte[][] range = codec.timeRange("client1", "cent_9_Humidity", 1500000000000L, 1500000005000L);
+    assertArrayEquals(newer, range[0]);
+    assertTrue(Bytes.compareTo(older, range[1]) < 0);
+    assertTrue(Bytes.compareTo(codec.encode("client1:cent_9_Humidity:1499999999999"), range[1]) >= 0);
+    assertTrue(Bytes.compareTo(codec.encode("client1:cent_9_Humidity:1500000005000"), range[0]) < 0);
+  }
+
+  @Test
+  public void testClientsNeverShareASeries() {
+    final RowKeyCodec codec = new RowKeyCodec("binary");
+    // The same String.hashCode, which an earlier layout keyed the series by.
+    assertEquals("Aa".hashCode(), "BB".hashCode());
+    final byte[] aa = codec.encode("Aa:cent_9_Humidity:1500000000000");
+    final byte[] bb = codec.encode("BB:cent_9_Humidity:1500000000000");
+    assertTrue(Bytes.compareTo(aa, bb) != 0);
+
+    // Nor does one client name that starts with another.
+    final byte[][] range = codec.timeRange("client1", "cent_9_Humidity", 0, Long.MAX_VALUE);
+    final byte[] longer = codec.encode("client10:cent_9_Humidity:1500000000000");
+    assertTrue(Bytes.compareTo(longer, range[0]) < 0 || Bytes.compareTo(longer, range[1]) >= 0);
+  }
+
+  @Test
+  public void testOtherKeysStayStrings() {
+    final RowKeyCodec codec = new RowKeyCodec("binary");
+    assertArrayEquals(Bytes.toBytes("user1234"), codec.encode("user1234"));
+    assertArrayEquals(Bytes.toBytes("client1:no_such_sensor:1500000000000"),
+        codec.encode("client1:no_such_sensor:1500000000000"));
+  }
+
+  @Test
+  public void testWideRowsPerBucket() {
+    final RowKeyCodec codec = new RowKeyCodec("binary", 60000);
+    assertTrue(codec.isWide());
+    assertEquals("client1:cent_9_Humidity:1500000000000", codec.rowOf("client1:cent_9_Humidity:1500000012345"));
+    assertEquals(12345, codec.offsetOf("client1:cent_9_Humidity:1500000012345"));
+    assertArrayEquals(codec.encode("client1:cent_9_Humidity:1500000000000"),
+        codec.encode(codec.rowOf("client1:cent_9_Humidity:1500000059999")));
+
+    // The columns sort by the offset of their reading first.
+    final byte[] column = RowKeyCodec.column(12345, "field0");
+    assertTrue(Bytes.compareTo(RowKeyCodec.column(9999, "field9"), column) < 0);
+    assertTrue(Bytes.compareTo(RowKeyCodec.offsetColumn(12345), column) < 0);
+    assertTrue(Bytes.compareTo(column, RowKeyCodec.offsetColumn(12346)) < 0);
+    assertEquals(12345, RowKeyCodec.offsetOfColumn(column));
+    assertEquals("field0", RowKeyCodec.fieldOfColumn(column));
+
+    final RowKeyCodec narrow = new RowKeyCodec("string");
+    assertEquals("client1:cent_9_Humidity:1500000012345", narrow.rowOf("client1:cent_9_Humidity:1500000012345"));
+    assertEquals(0, narrow.offsetOf("client1:cent_9_Humidity:1500000012345"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownLayout() {
+    new RowKeyCodec("hex");
+  }
+}
@@ -0,0 +1,77 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License. See accompanying
+ * LICENSE file.
+ */
+
+package com.yahoo.ycsb.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+/**
+ * Tests the parsing and merging of {@link SensorValueInterpreter}.
+ */
+public class SensorValueInterpreterTest {
+
+  private final SensorValueInterpreter interpreter = new SensorValueInterpreter();
+
+  private static KeyValue cell(String qualifier, String value) {
+    return new KeyValue(Bytes.toBytes("row"), Bytes.toBytes("cf"), Bytes.toBytes(qualifier), Bytes.toBytes(value));
+  }
+
+  @Test
+  public void testParsesTheSensorValueOfThePayload() {
+    final byte[] field0 = Bytes.toBytes("field0");
+    assertEquals(0.25, interpreter.getValue(null, field0,
+        cell("field0", "cent_9_Humidity:cent_9_Humidity_value:0.25:timestamp:1510000000000:12345")), 0);
+    assertEquals(12.5, interpreter.getValue(null, field0, cell("field0", "a:b:12.5")), 0);
+    assertNull(interpreter.getValue(null, field0, cell("field0", "no sensor value")));
+    assertNull(interpreter.getValue(null, field0, cell("field0", "a:b:c:d")));
+    assertNull(interpreter.getValue(null, field0, cell("field1", "a:b:1.0:d")));
+  }
+
+  @Test
+  public void testMergesAndSerializesTheStats() {
+    SensorValueInterpreter.Stats stats = null;
+    for (double value : new double[] {0.5, 0.25, 1.0}) {
+      stats = interpreter.add(stats, interpreter.castToReturnType(value));
+    }
+    stats = interpreter.getPromotedValueFromProto(interpreter.getProtoForPromotedType(stats));
+    assertEquals(3, stats.getCount());
+    assertEquals(1.75, stats.getSum(), 0);
+    assertEquals(0.25, stats.getMin(), 0);
+    assertEquals(1.0, stats.getMax(), 0);
+    assertEquals(0.875, interpreter.divideForAvg(stats, 2L), 0);
+  }
+
+  @Test
+  public void testSquaresAndCountsForTheOtherCalls() {
+    SensorValueInterpreter.Stats sumSq = null;
+    for (double value : new double[] {1.0, 2.0, 3.0}) {
+      SensorValueInterpreter.Stats reading = interpreter.castToReturnType(value);
+      sumSq = interpreter.add(sumSq, interpreter.multiply(reading, reading));
+    }
+    assertEquals(14.0, sumSq.getSum(), 0);
+    assertEquals(3, sumSq.getCount());
+    assertNull(interpreter.multiply(null, interpreter.castToReturnType(1.0)));
+
+    SensorValueInterpreter.Stats counted = interpreter.increment(interpreter.castToReturnType(0.5));
+    assertEquals(2, counted.getCount());
+    assertEquals(0.5, counted.getSum(), 0);
+    assertNull(interpreter.increment(null));
+  }
+}
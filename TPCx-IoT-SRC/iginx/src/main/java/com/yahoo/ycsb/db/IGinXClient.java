@@ -22,28 +22,34 @@ import cn.edu.tsinghua.iginx.exceptions.SessionException;
 import cn.edu.tsinghua.iginx.pool.SessionPool;
 import cn.edu.tsinghua.iginx.session.SessionQueryDataSet;
 import cn.edu.tsinghua.iginx.thrift.DataType;
+import com.yahoo.ycsb.BatchSizeController;
+import com.yahoo.ycsb.BatchTracker;
 import com.yahoo.ycsb.ByteArrayByteIterator;
 import com.yahoo.ycsb.ByteIterator;
 import com.yahoo.ycsb.DB;
 import com.yahoo.ycsb.DBException;
+import com.yahoo.ycsb.OffHeapArena;
+import com.yahoo.ycsb.OperationTracer;
 import com.yahoo.ycsb.Status;
+import com.yahoo.ycsb.ValueCodec;
 
+import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.Vector;
-import java.util.stream.Collectors;
 
 import static cn.edu.tsinghua.iginx.thrift.DataType.BINARY;
 
@@ -53,13 +59,20 @@ public class IGinXClient extends DB {
 
     private static final Object CACHE_LOCK = new Object();
     private static final String DEFAULT_IGINX_INFO = "172.16.17.21:6888,172.16.17.22:6888,172.16.17.23:6888,172.16.17.24:6888";
-    private static Map<Long, Map<String, byte[]>> cacheData;
-    private static int cacheNum = 0;
+    /** Stages the values of the pending batch off-heap, see {@link StagedBatch}. */
+    private static OffHeapArena arena;
+    private static StagedBatch cacheData;
+    /** Flushed batches, kept to reuse their arrays and slabs. */
+    private static final Deque<StagedBatch> spareBatches = new ArrayDeque<>();
     private static String measurement;
 
     private String dbHost = "localhost";
     private int dbPort = 6888;
     private static final int CACHE_THRESHOLD = 10000;
+    /** Shared by all threads, like the cache; starts at CACHE_THRESHOLD records. */
+    private static BatchSizeController batchSizeController;
+    /** Compresses values before they are staged and decompresses scanned ones. */
+    private static ValueCodec codec;
 
     public Set<String> getLocalIps() {
         Set<String> ips = new HashSet<>();
@@ -124,7 +137,18 @@ public class IGinXClient extends DB {
         SessionException sessionException = null;
         synchronized (CACHE_LOCK) {
             if (cacheData == null) {
-                cacheData = new HashMap<>();
+                arena = new OffHeapArena(getProperties());
+                cacheData = new StagedBatch(arena);
+            }
+            if (batchSizeController == null) {
+                batchSizeController = new BatchSizeController(getProperties(), "IGINX", CACHE_THRESHOLD);
+            }
+            if (codec == null) {
+                try {
+                    codec = new ValueCodec(getProperties());
+                } catch (IOException | IllegalArgumentException e) {
+                    throw new DBException("Cannot set up the value codec", e);
+                }
             }
             if (sessionPool == null) {
                 sessionPool = new SessionPool(dbHost, dbPort, "root", "root", 100);
@@ -140,8 +164,8 @@ public class IGinXClient extends DB {
     public void cleanup() throws DBException {
         try {
             synchronized (CACHE_LOCK) {
-                if (cacheNum > 0) {
-                    insertRecords(cacheData);
+                if (cacheData.size() > 0) {
+                    flush(cacheData);
                     cacheData.clear();
                 }
             }
@@ -172,16 +196,20 @@ public class IGinXClient extends DB {
         List<String> paths = Collections.singletonList(deviceId + ".field0");
         try {
             SessionQueryDataSet dataSet;
+            long traceStart = OperationTracer.start();
             dataSet = sessionPool.queryData(paths, startTime, endTime);
+            OperationTracer.span(OperationTracer.STAGE_RPC, traceStart);
+            traceStart = OperationTracer.start();
             for (int i = 0; i < dataSet.getKeys().length; i++) {
                 HashMap<String, ByteIterator> rowResult = new HashMap<>();
                 if (dataSet.getPaths().size() != 0) {
-                    rowResult
-                            .put("field0", new ByteArrayByteIterator((byte[]) dataSet.getValues().get(i).get(0)));
+                    byte[] value = codec.decode((byte[]) dataSet.getValues().get(i).get(0));
+                    rowResult.put("field0", new ByteArrayByteIterator(value));
                     result.add(rowResult);
                 }
             }
-        } catch (SessionException e) {
+            OperationTracer.span(OperationTracer.STAGE_DECODE, traceStart);
+        } catch (SessionException | IllegalArgumentException e) {
             e.printStackTrace();
             return Status.ERROR;
         }
@@ -224,33 +252,43 @@ public class IGinXClient extends DB {
         return Status.OK;
     }
 
-    private void insertRecords(Map<Long, Map<String, byte[]>> cacheData)
+    /**
+     * Writes a batch and reports when its records became durable, or failed to.
+     *
+     * @return How long the write took, in ns.
+     */
+    private long flush(StagedBatch batch) throws SessionException, ExecutionException {
+        long start = System.nanoTime();
+        long flushNs;
+        Status outcome = Status.ERROR;
+        try {
+            insertRecords(batch);
+            outcome = Status.OK;
+        } finally {
+            flushNs = System.nanoTime() - start;
+            batch.acks.complete(flushNs, outcome);
+        }
+        return flushNs;
+    }
+
+    private void insertRecords(StagedBatch batch)
             throws SessionException, ExecutionException {
-        List<String> prefixList = cacheData.values().stream().map(Map::keySet)
-                .flatMap(Collection::stream).distinct().collect(Collectors.toList());
-        List<String> paths = new ArrayList<>();
-        List<DataType> dataTypeList = new ArrayList<>();
-        long[] timestamps = new long[cacheData.size()];
-        Map<String, Object[]> valuesMap = new LinkedHashMap<>();
-        for (String prefix : prefixList) {
-            paths.add(prefix + "." + measurement);
+        // One column per device, one row per distinct timestamp; a later record
+        // for the same device and timestamp replaces an earlier one.
+        long[] timestamps = batch.distinctTimestamps();
+        List<String> devices = batch.devices();
+        List<String> paths = new ArrayList<>(devices.size());
+        List<DataType> dataTypeList = new ArrayList<>(devices.size());
+        Object[] valuesList = new Object[devices.size()];
+        for (int d = 0; d < devices.size(); d++) {
+            paths.add(devices.get(d) + "." + measurement);
             dataTypeList.add(BINARY);
-            valuesMap.put(prefix, new Object[timestamps.length]);
-        }
-        int index = 0;
-        for (Map.Entry<Long, Map<String, byte[]>> entry : cacheData.entrySet()) {
-            timestamps[index] = entry.getKey();
-            Map<String, byte[]> fieldMap = entry.getValue();
-            for (Map.Entry<String, byte[]> e : fieldMap.entrySet()) {
-                valuesMap.get(e.getKey())[index] = e.getValue();
-            }
-            index++;
+            valuesList[d] = new Object[timestamps.length];
         }
-        Object[] valuesList = new Object[paths.size()];
-        int i = 0;
-        for (Object values : valuesMap.values()) {
-            valuesList[i] = values;
-            i++;
+        for (int i = 0; i < batch.size(); i++) {
+            int row = Arrays.binarySearch(timestamps, batch.timestamp(i));
+            // The values only come on-heap here, for the session API.
+            ((Object[]) valuesList[batch.device(i)])[row] = batch.values.toArray(i);
         }
         sessionPool.insertColumnRecords(paths, timestamps, valuesList, dataTypeList, null);
     }
@@ -261,29 +299,47 @@ public class IGinXClient extends DB {
         String deviceId = String.format("%s.%s", params[0], params[1]);
         long timestamp = Long.parseLong(params[2]);
 
+        int previousCacheNum = 0;
+        StagedBatch previousCachedData = null;
         try {
-            Map<Long, Map<String, byte[]>> previousCachedData = null;
             if (measurement == null) {
                 measurement = values.keySet().iterator().next();
             }
-            byte[] cValue = values.values().iterator().next().toArray();
+            ByteIterator cValue = values.values().iterator().next();
+            long traceStart = OperationTracer.start();
+            if (codec.isEnabled()) {
+                // Compress outside the lock, so the threads do not queue up behind it.
+                cValue = new ByteArrayByteIterator(codec.encode(cValue.toArray()));
+                OperationTracer.span(OperationTracer.STAGE_ENCODE, traceStart);
+                traceStart = OperationTracer.start();
+            }
             synchronized (CACHE_LOCK) {
-                cacheData.computeIfAbsent(timestamp, k -> new HashMap<>()).put(deviceId, cValue);
-                cacheNum++;
-                if (cacheNum >= CACHE_THRESHOLD) {
+                cacheData.add(deviceId, timestamp, cValue);
+                if (cacheData.size() >= batchSizeController.getBatchSize()) {
                     previousCachedData = cacheData;
-                    cacheNum = 0;
-                    cacheData = new HashMap<>();
+                    previousCacheNum = cacheData.size();
+                    cacheData = spareBatches.isEmpty() ? new StagedBatch(arena) : spareBatches.pop();
                 }
             }
+            // Waiting for the cache lock and staging the value.
+            OperationTracer.span(OperationTracer.STAGE_QUEUE_WAIT, traceStart);
             if (previousCachedData != null) {
-                insertRecords(previousCachedData);
+                traceStart = OperationTracer.start();
+                batchSizeController.onFlush(previousCacheNum, flush(previousCachedData));
+                OperationTracer.span(OperationTracer.STAGE_FLUSH, traceStart);
             }
         } catch (SessionException | ExecutionException e) {
             e.printStackTrace();
             System.err
-                    .printf("write %d records to server failed because %s%n", CACHE_THRESHOLD, e.toString());
+                    .printf("write %d records to server failed because %s%n", previousCacheNum, e.toString());
             return Status.ERROR;
+        } finally {
+            if (previousCachedData != null) {
+                previousCachedData.clear();
+                synchronized (CACHE_LOCK) {
+                    spareBatches.push(previousCachedData);
+                }
+            }
         }
         return Status.OK;
     }
@@ -292,4 +348,77 @@ public class IGinXClient extends DB {
     public Status delete(String table, String key) {
         return Status.OK;
     }
+
+    /**
+     * The records of one pending batch. The values are copied into direct slabs of
+     * the arena rather than held as 1 KB arrays for the whole life of the batch, and
+     * the device and timestamp of each record are kept in plain arrays, so a batch
+     * of thousands of records leaves almost nothing for the GC to promote.
+     */
+    private static final class StagedBatch {
+        private final OffHeapArena.Batch values;
+        /** When each record was staged, to report its ack latency once the batch is written. */
+        private final BatchTracker acks = new BatchTracker("IGINX");
+        private final Map<String, Integer> deviceIndex = new HashMap<>();
+        private final List<String> devices = new ArrayList<>();
+        private long[] timestamps = new long[1024];
+        private int[] deviceOf = new int[1024];
+
+        StagedBatch(OffHeapArena arena) {
+            values = arena.newBatch();
+        }
+
+        void add(String deviceId, long timestamp, ByteIterator value) {
+            int i = values.append(value);
+            acks.add(values.length(i));
+            if (i == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, i * 2);
+                deviceOf = Arrays.copyOf(deviceOf, i * 2);
+            }
+            Integer device = deviceIndex.get(deviceId);
+            if (device == null) {
+                device = devices.size();
+                deviceIndex.put(deviceId, device);
+                devices.add(deviceId);
+            }
+            timestamps[i] = timestamp;
+            deviceOf[i] = device;
+        }
+
+        int size() {
+            return values.size();
+        }
+
+        long timestamp(int i) {
+            return timestamps[i];
+        }
+
+        int device(int i) {
+            return deviceOf[i];
+        }
+
+        List<String> devices() {
+            return devices;
+        }
+
+        /** @return The timestamps of the batch, sorted and without duplicates. */
+        long[] distinctTimestamps() {
+            long[] sorted = Arrays.copyOf(timestamps, size());
+            Arrays.sort(sorted);
+            int n = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (n == 0 || sorted[i] != sorted[n - 1]) {
+                    sorted[n++] = sorted[i];
+                }
+            }
+            return Arrays.copyOf(sorted, n);
+        }
+
+        /** Empties the batch and returns its slabs to the arena. */
+        void clear() {
+            values.release();
+            deviceIndex.clear();
+            devices.clear();
+        }
+    }
 }
\ No newline at end of file
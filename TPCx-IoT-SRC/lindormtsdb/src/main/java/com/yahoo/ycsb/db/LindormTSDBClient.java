@@ -17,8 +17,11 @@
 
 package com.yahoo.ycsb.db;
 
+import com.yahoo.ycsb.BatchSizeController;
+import com.yahoo.ycsb.BatchTracker;
 import com.yahoo.ycsb.ByteIterator;
 import com.yahoo.ycsb.DB;
+import com.yahoo.ycsb.OperationTracer;
 import com.yahoo.ycsb.Status;
 import com.yahoo.ycsb.StringByteIterator;
 
@@ -28,6 +31,7 @@ import java.sql.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -76,8 +80,9 @@ public class LindormTSDBClient extends DB {
     public static final String DEFAULT_LINDORM_TSDB_DATABASE = "benchmark";
     public static final String DEFAULT_DATA_TABLE = "sensor";
 
-    private int batchSize = 0;
+    private BatchSizeController batchSizeController;
     private long numRowsInBatch = 0L;
+    private final BatchTracker acks = new BatchTracker("LINDORM");
     private long insertTimestamp = 0L;
 
     /**
@@ -206,17 +211,19 @@ public class LindormTSDBClient extends DB {
                     "Use default values.", ex);
         }
 
+        int batchSize;
         String batchSizeStr = clientProperties.getProperty(INSERTS_BATCH_SIZE, DEFAULT_BATCH_SIZE.toString());
         if (batchSizeStr != null) {
             try {
-                this.batchSize = Integer.parseInt(batchSizeStr);
+                batchSize = Integer.parseInt(batchSizeStr);
             } catch (NumberFormatException nfex) {
                 printMsg("WARNING! Invalid lindorm.tsdb.batchsize specified. Use default batch size.", nfex);
-                this.batchSize = DEFAULT_BATCH_SIZE;
+                batchSize = DEFAULT_BATCH_SIZE;
             }
         } else {
-            this.batchSize = DEFAULT_BATCH_SIZE;
+            batchSize = DEFAULT_BATCH_SIZE;
         }
+        this.batchSizeController = new BatchSizeController(getProperties(), "LINDORM", batchSize);
 
         String debugStr = clientProperties.getProperty(LINDORM_TSDB_DEBUG_MODE, "false");
         if (debugStr != null) {
@@ -286,6 +293,21 @@ public class LindormTSDBClient extends DB {
                 this.preparedQueryStmt = null;
             }
             if (this.preparedInsertStmt != null) {
+                if (numRowsInBatch > 0) {
+                    // Send the last, partial batch, which closing the statement would drop.
+                    long executeBatchStart = System.nanoTime();
+                    Status outcome = Status.ERROR;
+                    try {
+                        preparedInsertStmt.executeBatch();
+                        outcome = Status.OK;
+                    } catch (SQLException ex) {
+                        printMsg("ERROR encountered during batch execution. Failed " + numRowsInBatch
+                                + " insert ops.", ex);
+                    } finally {
+                        acks.complete(System.nanoTime() - executeBatchStart, outcome);
+                        numRowsInBatch = 0L;
+                    }
+                }
                 this.preparedInsertStmt.close();
                 this.preparedInsertStmt = null;
             }
@@ -395,27 +417,44 @@ public class LindormTSDBClient extends DB {
     public Status insert(final String table, final String key, final HashMap<String, ByteIterator> values) {
         try {
             long addBatchStart = System.currentTimeMillis();
+            long traceStart = OperationTracer.start();
             // Key : device_id:timestamp
             String[] splitKeys = key.split(":");
             String deviceId = splitKeys[0] + ":" + splitKeys[1];
             preparedInsertStmt.setString(1, deviceId);
             long timestamp = Long.parseLong(splitKeys[2]);
             preparedInsertStmt.setLong(2, timestamp);
+            long recordBytes = 0;
             for (Map.Entry<String, ByteIterator> value : values.entrySet()) {
-                preparedInsertStmt.setString(3, value.getValue().toString());
+                String v = value.getValue().toString();
+                preparedInsertStmt.setString(3, v);
+                recordBytes += v.length();
             }
             preparedInsertStmt.addBatch();
             numRowsInBatch++;
+            acks.add(recordBytes);
+            OperationTracer.span(OperationTracer.STAGE_ENCODE, traceStart);
             long batchAddCost = System.currentTimeMillis() - addBatchStart;
             if (batchAddCost > 200) {
                 printDebugMsg("WARNING! Batch addition operation costs more than 200ms - " + batchAddCost);
             }
 
             // Sync insert requests in batch
-            if (numRowsInBatch % this.batchSize == 0) {
-                long executeBatchStart = System.currentTimeMillis();
-                preparedInsertStmt.executeBatch();
-                long executeBatchCost = System.currentTimeMillis() - executeBatchStart;
+            if (numRowsInBatch >= batchSizeController.getBatchSize()) {
+                traceStart = OperationTracer.start();
+                long executeBatchStart = System.nanoTime();
+                try {
+                    preparedInsertStmt.executeBatch();
+                } catch (SQLException ex) {
+                    acks.complete(System.nanoTime() - executeBatchStart, Status.ERROR);
+                    throw ex;
+                }
+                long executeBatchNanos = System.nanoTime() - executeBatchStart;
+                acks.complete(executeBatchNanos, Status.OK);
+                OperationTracer.span(OperationTracer.STAGE_FLUSH, traceStart);
+                batchSizeController.onFlush((int) numRowsInBatch, executeBatchNanos);
+                numRowsInBatch = 0L;
+                long executeBatchCost = TimeUnit.NANOSECONDS.toMillis(executeBatchNanos);
                 if (executeBatchCost > 1000L) {
                     printDebugMsg("WARNING! Batch execution costs more than 1000ms - " + executeBatchCost);
                 }
@@ -424,10 +463,11 @@ public class LindormTSDBClient extends DB {
             insertTimestamp = System.currentTimeMillis();
             return Status.OK;
         } catch (Exception ex) {
-            if (numRowsInBatch % this.batchSize != 0) {
+            if (numRowsInBatch < batchSizeController.getBatchSize()) {
                 printMsg("ERROR encountered during insert batch preparation. Failed with : " + key, ex);
             } else {
-                printMsg("ERROR encountered during batch execution. Failed " + this.batchSize + " insert ops.", ex);
+                printMsg("ERROR encountered during batch execution. Failed " + numRowsInBatch + " insert ops.", ex);
+                numRowsInBatch = 0L;
             }
             return Status.ERROR;
         }
@@ -528,9 +568,12 @@ public class LindormTSDBClient extends DB {
             long queryExecStart = System.currentTimeMillis();
             Statement queryStatement = queryConn.createStatement();
 
+            long traceStart = OperationTracer.start();
             ResultSet queryResult = queryStatement.executeQuery(sqlQueryStr);
             ResultSetMetaData metaData = queryResult.getMetaData();
             queryExecuted++;
+            OperationTracer.span(OperationTracer.STAGE_RPC, traceStart);
+            traceStart = OperationTracer.start();
 
             // Parse query result
             while (queryResult.next()) {
@@ -541,6 +584,7 @@ public class LindormTSDBClient extends DB {
                     result.add(tuple);
                 }
             }
+            OperationTracer.span(OperationTracer.STAGE_DECODE, traceStart);
 
             if (result.isEmpty()) {
                 queryEmptyResult++;
@@ -52,7 +52,9 @@ public class MachbaseClient extends DB {
   private Properties props;
   private boolean  debug = false;
   private int  batchSize = 20000;
+  private BatchSizeController batchSizeController;
   private long numRowsInBatch = 0;
+  private final BatchTracker acks = new BatchTracker("MACHBASE");
   private long insertTimestamp = 0;
 
   private Connection conn = null;
@@ -126,6 +128,7 @@ public class MachbaseClient extends DB {
         this.debug = false;
     }
 
+    this.batchSizeController = new BatchSizeController(sProps, "MACHBASE", this.batchSize);
     PrintDebug("INIT", "Batchsize is " + this.batchSize);
 
     Properties systemProperties = System.getProperties();
@@ -183,6 +186,20 @@ public class MachbaseClient extends DB {
         prepareStmt = null;
       }
       if (appendStmt != null) {
+          if (numRowsInBatch > 0) {
+              // executeAppendClose would send the last rows too, but without an ack.
+              long flushStart = System.nanoTime();
+              Status outcome = Status.ERROR;
+              try {
+                appendStmt.executeAppendFlush();
+                outcome = Status.OK;
+              } catch (SQLException e) {
+                System.err.println("cleanup flush SQLException : " + e.getMessage());
+              } finally {
+                acks.complete(System.nanoTime() - flushStart, outcome);
+                numRowsInBatch = 0;
+              }
+          }
           appendStmt.executeAppendClose();
           appendStmt = null;
       }
@@ -318,24 +335,45 @@ public class MachbaseClient extends DB {
         //prepareStmt.setDouble(count, 0.0);
         //count++;
 
+        long traceStart = OperationTracer.start();
         sBuf.add(split[0] + ":" + split[1]);
         sBuf.add(Long.parseLong(split[2]) * 1000000); // split[2] is millisecond timestamp
         sBuf.add(0.0);
 
+        long recordBytes = 0;
         for (Map.Entry<String, ByteIterator> entry : values.entrySet()) {
             tempKey = entry.getKey().toString();
             //prepareStmt.setString(count, entry.getValue().toString());
-            sBuf.add(entry.getValue().toString());
+            String value = entry.getValue().toString();
+            sBuf.add(value);
+            recordBytes += value.length();
             //count++;
         }
 
         numRowsInBatch++;
         appendStmt.executeAppendData(appendRsmd, sBuf);
+        acks.add(recordBytes);
+        OperationTracer.span(OperationTracer.STAGE_ENCODE, traceStart);
 
-        if (numRowsInBatch % this.batchSize == 0)
+        if (numRowsInBatch >= batchSizeController.getBatchSize())
         {
             long start = System.currentTimeMillis();
-            appendStmt.executeAppendFlush();
+            traceStart = OperationTracer.start();
+            long flushStart = System.nanoTime();
+            long flushNs;
+            long rows = numRowsInBatch;
+            Status outcome = Status.ERROR;
+            try {
+              appendStmt.executeAppendFlush();
+              outcome = Status.OK;
+            } finally {
+              flushNs = System.nanoTime() - flushStart;
+              acks.complete(flushNs, outcome);
+              // The batch is reported either way; a failed flush must not be retried by every later insert.
+              numRowsInBatch = 0;
+            }
+            batchSizeController.onFlush((int) rows, flushNs);
+            OperationTracer.span(OperationTracer.STAGE_FLUSH, traceStart);
             PrintDebug("INSERT", "Elapsed milliseconds : " + (start - this.insertTimestamp));
             insertTimestamp = start;
         }
@@ -454,8 +492,11 @@ public class MachbaseClient extends DB {
       prepareScanStmt.setDate(2, startDate);
       prepareScanStmt.setDate(3, endDate);
 
+      long traceStart = OperationTracer.start();
       MachResultSet rs = (MachResultSet)prepareScanStmt.executeQuery();
       MachResultSetMetaData rsmd = (MachResultSetMetaData)rs.getMetaData();
+      OperationTracer.span(OperationTracer.STAGE_RPC, traceStart);
+      traceStart = OperationTracer.start();
 
       for (i = 0; rs.next(); i++) {
         HashMap<String, ByteIterator> tuple = new HashMap<String, ByteIterator>();
@@ -464,6 +505,7 @@ public class MachbaseClient extends DB {
           result.add(tuple);
         }
       }
+      OperationTracer.span(OperationTracer.STAGE_DECODE, traceStart);
 
       rs.cleanRowSet();
       rs.close();